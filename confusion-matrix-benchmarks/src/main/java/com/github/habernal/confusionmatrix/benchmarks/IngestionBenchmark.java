@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix.benchmarks;
+
+import com.github.habernal.confusionmatrix.ConcurrentConfusionMatrix;
+import com.github.habernal.confusionmatrix.ConfusionMatrix;
+import com.github.habernal.confusionmatrix.IncrementalConfusionMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link ConfusionMatrix#increaseValue(String, String, int)} per call, for small and
+ * large label sets and for single and bulk increments
+ *
+ * @author Ivan Habernal
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestionBenchmark
+{
+    private static final int EVENTS = 10000;
+
+    @Param({ "10", "1000" })
+    public int labelCount;
+
+    @Param({ "1", "1000" })
+    public int times;
+
+    private String[] golds;
+
+    private String[] predictions;
+
+    @Setup
+    public void setUp()
+    {
+        String[][] stream = Matrices.stream(Matrices.labels(labelCount), EVENTS, 0.8, 42);
+        golds = stream[0];
+        predictions = stream[1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public ConfusionMatrix increaseValue()
+    {
+        ConfusionMatrix result = new ConfusionMatrix();
+        for (int i = 0; i < EVENTS; i++) {
+            result.increaseValue(golds[i], predictions[i], times);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public ConfusionMatrix increaseValueIncremental()
+    {
+        ConfusionMatrix result = new IncrementalConfusionMatrix();
+        for (int i = 0; i < EVENTS; i++) {
+            result.increaseValue(golds[i], predictions[i], times);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public ConcurrentConfusionMatrix increaseValueConcurrent()
+    {
+        ConcurrentConfusionMatrix result = new ConcurrentConfusionMatrix();
+        for (int i = 0; i < EVENTS; i++) {
+            result.increaseValue(golds[i], predictions[i], times);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix.benchmarks;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrixKernels;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metric kernels on large label sets; {@code scalar} against {@code vector} (the
+ * confusion-matrix-vector kernels, see the {@code vector} profile), e.g.
+ * {@code -p kernels=scalar,vector -jvmArgsAppend --add-modules=jdk.incubator.vector}
+ *
+ * @author Ivan Habernal
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class KernelsBenchmark
+{
+    private static final String VECTOR_KERNELS =
+            "com.github.habernal.confusionmatrix.vector.VectorKernels";
+
+    @Param({ "1000", "10000" })
+    public int labelCount;
+
+    @Param({ "scalar" })
+    public String kernels;
+
+    private ConfusionMatrixKernels implementation;
+
+    private int[] counts;
+
+    private int[] truePositives;
+
+    private int[] rowSums;
+
+    private int[] colSums;
+
+    private double[] result;
+
+    @Setup
+    public void setUp()
+            throws Exception
+    {
+        if ("scalar".equals(kernels)) {
+            implementation = ConfusionMatrixKernels.SCALAR;
+        }
+        else {
+            String className = "vector".equals(kernels) ? VECTOR_KERNELS : kernels;
+            implementation = (ConfusionMatrixKernels) Class.forName(className).newInstance();
+        }
+
+        Random random = new Random(42);
+        int n = labelCount;
+
+        counts = new int[n * n];
+        truePositives = new int[n];
+        for (int i = 0; i < n; i++) {
+            // dense diagonal, sparse confusions
+            counts[i * n + i] = 1 + random.nextInt(100);
+            truePositives[i] = counts[i * n + i];
+            for (int k = 0; k < 10; k++) {
+                counts[i * n + random.nextInt(n)] += random.nextInt(5);
+            }
+        }
+
+        rowSums = new int[n];
+        colSums = new int[n];
+        result = new double[n];
+        ConfusionMatrixKernels.SCALAR.marginals(counts, n, rowSums, colSums);
+    }
+
+    @Benchmark
+    public int[] marginals()
+    {
+        implementation.marginals(counts, labelCount, rowSums, colSums);
+        return rowSums;
+    }
+
+    @Benchmark
+    public double[] f1Measures()
+    {
+        implementation.f1Measures(truePositives, rowSums, colSums, labelCount, result);
+        return result;
+    }
+
+    @Benchmark
+    public double[] fMeasures()
+    {
+        implementation.fMeasures(truePositives, rowSums, colSums, labelCount, 0.5, result);
+        return result;
+    }
+
+    @Benchmark
+    public long sumOfProducts()
+    {
+        return implementation.sumOfProducts(rowSums, colSums, labelCount);
+    }
+}
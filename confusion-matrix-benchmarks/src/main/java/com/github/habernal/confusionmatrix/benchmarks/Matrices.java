@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix.benchmarks;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrix;
+
+import java.util.Random;
+
+/**
+ * Reproducible random matrices and label streams for the benchmarks
+ *
+ * @author Ivan Habernal
+ */
+final class Matrices
+{
+    private Matrices()
+    {
+    }
+
+    static String[] labels(int count)
+    {
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = "label" + i;
+        }
+        return result;
+    }
+
+    /**
+     * Creates a matrix with a heavy diagonal and the given fraction of non-zero off-diagonal
+     * cells
+     *
+     * @param labelCount number of labels
+     * @param density    probability of an off-diagonal cell being non-zero
+     * @param seed       random seed
+     * @return matrix
+     */
+    static ConfusionMatrix random(int labelCount, double density, long seed)
+    {
+        String[] labels = labels(labelCount);
+        Random random = new Random(seed);
+        ConfusionMatrix result = new ConfusionMatrix();
+
+        for (int g = 0; g < labelCount; g++) {
+            result.increaseValue(labels[g], labels[g], 50 + random.nextInt(100));
+
+            for (int p = 0; p < labelCount; p++) {
+                if (p != g && random.nextDouble() < density) {
+                    result.increaseValue(labels[g], labels[p], 1 + random.nextInt(20));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a stream of predictions that are correct with the given probability
+     *
+     * @param labels   labels
+     * @param length   number of predictions
+     * @param accuracy probability of a correct prediction
+     * @param seed     random seed
+     * @return gold labels (index 0) and predicted labels (index 1)
+     */
+    static String[][] stream(String[] labels, int length, double accuracy, long seed)
+    {
+        Random random = new Random(seed);
+        String[][] result = new String[2][length];
+
+        for (int i = 0; i < length; i++) {
+            String gold = labels[random.nextInt(labels.length)];
+            result[0][i] = gold;
+            result[1][i] = random.nextDouble() < accuracy ?
+                    gold :
+                    labels[random.nextInt(labels.length)];
+        }
+
+        return result;
+    }
+}
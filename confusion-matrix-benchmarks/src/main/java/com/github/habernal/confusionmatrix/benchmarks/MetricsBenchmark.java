@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix.benchmarks;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of marginals and aggregated metrics with the number of labels and the density of
+ * the matrix
+ *
+ * @author Ivan Habernal
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark
+{
+    @Param({ "10", "100", "1000" })
+    public int labelCount;
+
+    @Param({ "0.05", "0.5" })
+    public double density;
+
+    private ConfusionMatrix matrix;
+
+    private String label;
+
+    @Setup
+    public void setUp()
+    {
+        matrix = Matrices.random(labelCount, density, 42);
+        label = Matrices.labels(labelCount)[labelCount / 2];
+    }
+
+    @Benchmark
+    public int getColSum()
+    {
+        return matrix.getColSum(label);
+    }
+
+    @Benchmark
+    public int getRowSum()
+    {
+        return matrix.getRowSum(label);
+    }
+
+    @Benchmark
+    public double getMicroFMeasure()
+    {
+        return matrix.getMicroFMeasure();
+    }
+
+    @Benchmark
+    public double getMacroFMeasure()
+    {
+        return matrix.getMacroFMeasure();
+    }
+
+    @Benchmark
+    public double getCohensKappa()
+    {
+        return matrix.getCohensKappa();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix.vector;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrixKernels;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * {@link ConfusionMatrixKernels} using the JDK Vector API ({@code jdk.incubator.vector}).
+ * Registered as a service, so it is used by all snapshots once this jar is on the class path
+ * and the JVM runs with {@code --add-modules jdk.incubator.vector}; without the module (or on
+ * hardware whose preferred vectors are too short) loading fails and the scalar kernels are used.
+ * <p/>
+ * The floating-point operations are performed in the same order as in
+ * {@link ConfusionMatrixKernels#SCALAR} (no fused multiply-add, no reordered sums), so the
+ * results are identical.
+ *
+ * @author Ivan Habernal
+ */
+public class VectorKernels
+        implements ConfusionMatrixKernels
+{
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    /**
+     * Ints with as many lanes as {@link #DOUBLES}
+     */
+    private static final VectorSpecies<Integer> INTS_FOR_DOUBLES = VectorSpecies
+            .of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    /**
+     * Ints with as many lanes as {@link #LONGS}
+     */
+    private static final VectorSpecies<Integer> INTS_FOR_LONGS = VectorSpecies
+            .of(int.class, VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+
+    @Override
+    public void marginals(int[] counts, int n, int[] rowSums, int[] colSums)
+    {
+        Arrays.fill(colSums, 0, n, 0);
+        int bound = INTS.loopBound(n);
+
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            IntVector sum = IntVector.zero(INTS);
+
+            int j = 0;
+            for (; j < bound; j += INTS.length()) {
+                IntVector values = IntVector.fromArray(INTS, counts, row + j);
+                sum = sum.add(values);
+                IntVector.fromArray(INTS, colSums, j).add(values).intoArray(colSums, j);
+            }
+
+            int rowSum = sum.reduceLanes(VectorOperators.ADD);
+            for (; j < n; j++) {
+                int value = counts[row + j];
+                rowSum += value;
+                colSums[j] += value;
+            }
+            rowSums[i] = rowSum;
+        }
+    }
+
+    @Override
+    public void f1Measures(int[] truePositives, int[] rowSums, int[] colSums, int length,
+            double[] result)
+    {
+        int bound = DOUBLES.loopBound(length);
+
+        int i = 0;
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector tp = doubles(truePositives, i);
+            DoubleVector p = ratio(tp, doubles(colSums, i));
+            DoubleVector r = ratio(tp, doubles(rowSums, i));
+
+            DoubleVector sum = p.add(r);
+            DoubleVector.zero(DOUBLES)
+                    .blend(p.mul(2.0).mul(r).div(sum), sum.compare(VectorOperators.GT, 0.0))
+                    .intoArray(result, i);
+        }
+
+        tail(truePositives, rowSums, colSums, i, length, 1.0, true, result);
+    }
+
+    @Override
+    public void fMeasures(int[] truePositives, int[] rowSums, int[] colSums, int length,
+            double beta, double[] result)
+    {
+        double beta2 = beta * beta;
+        int bound = DOUBLES.loopBound(length);
+
+        int i = 0;
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector tp = doubles(truePositives, i);
+            DoubleVector p = ratio(tp, doubles(colSums, i));
+            DoubleVector r = ratio(tp, doubles(rowSums, i));
+
+            DoubleVector f = p.mul(r).div(p.mul(beta2).add(r)).mul(1.0 + beta2);
+            DoubleVector.zero(DOUBLES)
+                    .blend(f, p.add(r).compare(VectorOperators.GT, 0.0))
+                    .intoArray(result, i);
+        }
+
+        tail(truePositives, rowSums, colSums, i, length, beta, false, result);
+    }
+
+    private static DoubleVector doubles(int[] array, int offset)
+    {
+        return (DoubleVector) IntVector.fromArray(INTS_FOR_DOUBLES, array, offset)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+
+    /**
+     * tp / sum, or zero if tp is zero or sum is not positive
+     */
+    private static DoubleVector ratio(DoubleVector tp, DoubleVector sum)
+    {
+        VectorMask<Double> defined = tp.compare(VectorOperators.NE, 0.0)
+                .and(sum.compare(VectorOperators.GT, 0.0));
+
+        return DoubleVector.zero(DOUBLES).blend(tp.div(sum), defined);
+    }
+
+    /**
+     * Remaining elements with the scalar kernels
+     */
+    private static void tail(int[] truePositives, int[] rowSums, int[] colSums, int from,
+            int length, double beta, boolean f1, double[] result)
+    {
+        if (from == length) {
+            return;
+        }
+
+        int n = length - from;
+        double[] rest = new double[n];
+        int[] tp = Arrays.copyOfRange(truePositives, from, length);
+        int[] rows = Arrays.copyOfRange(rowSums, from, length);
+        int[] cols = Arrays.copyOfRange(colSums, from, length);
+
+        if (f1) {
+            SCALAR.f1Measures(tp, rows, cols, n, rest);
+        }
+        else {
+            SCALAR.fMeasures(tp, rows, cols, n, beta, rest);
+        }
+
+        System.arraycopy(rest, 0, result, from, n);
+    }
+
+    @Override
+    public long sumOfProducts(int[] a, int[] b, int length)
+    {
+        int bound = LONGS.loopBound(length);
+        LongVector sum = LongVector.zero(LONGS);
+
+        int i = 0;
+        for (; i < bound; i += LONGS.length()) {
+            LongVector x = (LongVector) IntVector.fromArray(INTS_FOR_LONGS, a, i)
+                    .convertShape(VectorOperators.I2L, LONGS, 0);
+            LongVector y = (LongVector) IntVector.fromArray(INTS_FOR_LONGS, b, i)
+                    .convertShape(VectorOperators.I2L, LONGS, 0);
+            sum = sum.add(x.mul(y));
+        }
+
+        long result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += (long) a[i] * b[i];
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.habernal.confusionmatrix.vector;
+
+import com.github.habernal.confusionmatrix.ConfusionMatrix;
+import com.github.habernal.confusionmatrix.ConfusionMatrixKernels;
+import com.github.habernal.confusionmatrix.ConfusionMatrixSnapshot;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class VectorKernelsTest {
+
+	private static final ConfusionMatrixKernels SCALAR = ConfusionMatrixKernels.SCALAR;
+
+	private final VectorKernels vector = new VectorKernels();
+
+	private static int[] randomArray(Random random, int length, int bound) {
+		int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			// many zeros to exercise the undefined precision and recall
+			result[i] = random.nextInt(3) == 0 ? 0 : random.nextInt(bound);
+		}
+		return result;
+	}
+
+	@Test
+	public void testSameAsScalar()
+			throws Exception {
+		Random random = new Random(1);
+
+		// lengths around the vector sizes, including tails, and a large label set
+		int[] lengths = {0, 1, 3, 7, 8, 9, 31, 33, 257, 10007};
+		for (int length : lengths) {
+			int[] tp = randomArray(random, length, 50);
+			int[] rows = randomArray(random, length, 1000);
+			int[] cols = randomArray(random, length, 1000);
+
+			double[] expected = new double[length];
+			double[] actual = new double[length];
+
+			SCALAR.f1Measures(tp, rows, cols, length, expected);
+			vector.f1Measures(tp, rows, cols, length, actual);
+			assertArrayEquals(expected, actual, 0.0);
+
+			for (double beta : new double[] {0.5, 1.0, 2.0, 3.7}) {
+				SCALAR.fMeasures(tp, rows, cols, length, beta, expected);
+				vector.fMeasures(tp, rows, cols, length, beta, actual);
+				assertArrayEquals(expected, actual, 0.0);
+			}
+
+			assertEquals(SCALAR.sumOfProducts(rows, cols, length),
+					vector.sumOfProducts(rows, cols, length));
+		}
+	}
+
+	@Test
+	public void testMarginals()
+			throws Exception {
+		Random random = new Random(2);
+
+		for (int n : new int[] {1, 5, 16, 17, 100, 1001}) {
+			int[] counts = randomArray(random, n * n, 100);
+			int[] expectedRows = new int[n];
+			int[] expectedCols = new int[n];
+			int[] actualRows = new int[n];
+			int[] actualCols = new int[n];
+
+			SCALAR.marginals(counts, n, expectedRows, expectedCols);
+			vector.marginals(counts, n, actualRows, actualCols);
+
+			assertArrayEquals(expectedRows, actualRows);
+			assertArrayEquals(expectedCols, actualCols);
+		}
+	}
+
+	@Test
+	public void testInstalledAsService()
+			throws Exception {
+		assertTrue(ConfusionMatrixSnapshot.getKernels() instanceof VectorKernels);
+
+		ConfusionMatrix cm = new ConfusionMatrix();
+		Random random = new Random(3);
+		for (int i = 0; i < 20000; i++) {
+			String gold = "l" + random.nextInt(300);
+			cm.increaseValue(gold, random.nextInt(2) == 0 ? gold : "l" + random.nextInt(300));
+		}
+
+		ConfusionMatrixSnapshot snapshot = cm.snapshot();
+		assertEquals(cm.getMacroFMeasure(), snapshot.getMacroFMeasure(), 0.0);
+		assertEquals(cm.getMacroFMeasure(2.0), snapshot.getMacroFMeasure(2.0), 0.0);
+		assertEquals(cm.getCohensKappa(), snapshot.getCohensKappa(), 1e-12);
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous front-end of a {@link ConcurrentConfusionMatrix} for many producer threads
+ * (including virtual threads). Updates are written as primitive (gold id, predicted id, times)
+ * triples into a bounded multi-producer single-consumer ring buffer and drained in batches by
+ * a single consumer into the matrix. Producers never take a lock and never lose an update: if
+ * the buffer is full, a producer drains it itself or yields until there is space.
+ * <p/>
+ * Call {@link #flush()} (or {@link #snapshot()}, which flushes) before reading. The buffer is
+ * drained by {@link #flush()}, by producers that find it full, or continuously by a background
+ * thread started with {@link #startDrainer()}.
+ *
+ * @author Ivan Habernal
+ */
+public class AsyncConfusionMatrix
+        implements Closeable
+{
+    /**
+     * Maximum number of updates drained before the consumed position is published
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    private final ConcurrentConfusionMatrix matrix;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final int[] golds;
+
+    private final int[] predictions;
+
+    private final int[] times;
+
+    /**
+     * For each slot, the sequence number of the update stored in it plus one
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Next sequence number to be claimed by a producer
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next sequence number to be consumed
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Held by the single consumer
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private volatile Thread drainer;
+
+    /**
+     * Creates a queue in front of a new matrix
+     *
+     * @param capacity capacity of the ring buffer, rounded up to a power of two
+     */
+    public AsyncConfusionMatrix(int capacity)
+    {
+        this(new ConcurrentConfusionMatrix(), capacity);
+    }
+
+    /**
+     * Creates a queue in front of the given matrix
+     *
+     * @param matrix   target matrix
+     * @param capacity capacity of the ring buffer, rounded up to a power of two
+     */
+    public AsyncConfusionMatrix(ConcurrentConfusionMatrix matrix, int capacity)
+    {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be in range 1-2^30");
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.matrix = matrix;
+        this.capacity = size;
+        this.mask = this.capacity - 1;
+        this.golds = new int[this.capacity];
+        this.predictions = new int[this.capacity];
+        this.times = new int[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+    }
+
+    public void increaseValue(String goldValue, String observedValue)
+    {
+        increaseValue(goldValue, observedValue, 1);
+    }
+
+    /**
+     * Enqueues an increase of goldValue x observedValue n times; can be called from any thread
+     *
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     */
+    public void increaseValue(String goldValue, String observedValue, int times)
+    {
+        int gold = matrix.labelId(goldValue);
+        int observed = matrix.labelId(observedValue);
+
+        // claim a slot only if there is space, so that a waiting producer does not hold a slot
+        // the consumer would have to wait for
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+
+            if (sequence - head.get() >= capacity) {
+                if (!tryDrain()) {
+                    Thread.yield();
+                }
+            }
+            else if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        int slot = (int) (sequence & mask);
+        golds[slot] = gold;
+        predictions[slot] = observed;
+        this.times[slot] = times;
+
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * Drains the buffer if no other thread is draining it
+     *
+     * @return true if this thread was the consumer
+     */
+    private boolean tryDrain()
+    {
+        if (!draining.compareAndSet(false, true)) {
+            return false;
+        }
+
+        try {
+            long sequence = head.get();
+
+            while (true) {
+                long batchEnd = sequence + BATCH_SIZE;
+                while (sequence < batchEnd) {
+                    int slot = (int) (sequence & mask);
+                    if (published.get(slot) != sequence + 1) {
+                        // not claimed or not written yet
+                        break;
+                    }
+
+                    matrix.increaseValue(golds[slot], predictions[slot], times[slot]);
+                    sequence++;
+                }
+
+                boolean batchFull = sequence == batchEnd;
+                head.set(sequence);
+
+                if (!batchFull) {
+                    return true;
+                }
+            }
+        }
+        finally {
+            draining.set(false);
+        }
+    }
+
+    /**
+     * Waits until all updates enqueued before this call are in the matrix
+     */
+    public void flush()
+    {
+        long target = tail.get();
+
+        while (head.get() < target) {
+            if (!tryDrain()) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Flushes the buffer and returns a consistent snapshot of the matrix
+     *
+     * @return snapshot
+     */
+    public ConfusionMatrixSnapshot snapshot()
+    {
+        flush();
+        return matrix.snapshot();
+    }
+
+    /**
+     * Flushes the buffer and returns the changes since the given snapshot, see
+     * {@link ConcurrentConfusionMatrix#diffSince(ConfusionMatrixSnapshot)}
+     *
+     * @param previous snapshot
+     * @return delta
+     */
+    public ConfusionMatrixDelta diffSince(ConfusionMatrixSnapshot previous)
+    {
+        flush();
+        return matrix.diffSince(previous);
+    }
+
+    /**
+     * Flushes the buffer and returns the changes since the given delta, see
+     * {@link ConcurrentConfusionMatrix#diffSince(ConfusionMatrixDelta)}
+     *
+     * @param previous delta
+     * @return delta
+     */
+    public ConfusionMatrixDelta diffSince(ConfusionMatrixDelta previous)
+    {
+        flush();
+        return matrix.diffSince(previous);
+    }
+
+    /**
+     * Flushes the buffer and returns the snapshot as a read-only confusion matrix
+     *
+     * @return read-only confusion matrix
+     */
+    public ConfusionMatrix toConfusionMatrix()
+    {
+        return snapshot().asConfusionMatrix();
+    }
+
+    /**
+     * Returns the underlying matrix; it contains only the updates drained so far
+     *
+     * @return matrix
+     */
+    public ConcurrentConfusionMatrix getMatrix()
+    {
+        return matrix;
+    }
+
+    /**
+     * Starts a daemon thread that drains the buffer continuously
+     */
+    public synchronized void startDrainer()
+    {
+        if (drainer != null) {
+            return;
+        }
+
+        drainer = new Thread("confusion-matrix-drainer")
+        {
+            @Override
+            public void run()
+            {
+                while (drainer == this) {
+                    if (head.get() == tail.get() || !tryDrain()) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                    }
+                }
+            }
+        };
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Stops the background drainer (if any) and flushes the buffer
+     */
+    @Override
+    public void close()
+    {
+        Thread thread;
+        synchronized (this) {
+            thread = drainer;
+            drainer = null;
+        }
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+    }
+}
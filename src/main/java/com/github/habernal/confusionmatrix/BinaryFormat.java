@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length integer encoding shared by the binary formats (partial results of
+ * {@link MatrixReducer}, snapshot deltas)
+ *
+ * @author Ivan Habernal
+ */
+final class BinaryFormat
+{
+    private BinaryFormat()
+    {
+    }
+
+    /**
+     * Writes a non-negative int in 7-bit groups (1 byte for values below 128)
+     */
+    static void writeVarInt(DataOutput out, int value)
+            throws IOException
+    {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in)
+            throws IOException
+    {
+        int result = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Writes a signed int so that values of small magnitude take few bytes
+     */
+    static void writeSignedVarInt(DataOutput out, int value)
+            throws IOException
+    {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarInt(DataInput in)
+            throws IOException
+    {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a count of elements that follow, rejecting negative (corrupted) values
+     */
+    static int readCount(DataInput in)
+            throws IOException
+    {
+        int count = readVarInt(in);
+        if (count < 0) {
+            throw new IOException("Malformed count: " + count);
+        }
+
+        return count;
+    }
+}
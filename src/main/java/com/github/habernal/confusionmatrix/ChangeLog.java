@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Modification log of a {@link ConfusionMatrix}: the increments of each cell changed since the
+ * last delta, and those of the last few deltas, so that {@link ConfusionMatrixDelta}s can be
+ * created without comparing all cells
+ *
+ * @author Ivan Habernal
+ */
+final class ChangeLog
+{
+    /**
+     * Number of closed versions kept for deltas from older versions
+     */
+    static final int MAX_GENERATIONS = 8;
+
+    private long version;
+
+    /**
+     * Increments since the current version, gold -> predicted -> increment
+     */
+    private Map<String, Map<String, int[]>> pending = new HashMap<>();
+
+    /**
+     * Increments that led to the last versions, oldest first
+     */
+    private final ArrayDeque<Map<String, Map<String, int[]>>> history = new ArrayDeque<>();
+
+    ChangeLog(long version)
+    {
+        this.version = version;
+    }
+
+    long getVersion()
+    {
+        return version;
+    }
+
+    void record(String goldValue, String observedValue, int times)
+    {
+        Map<String, int[]> row = pending.get(goldValue);
+        if (row == null) {
+            row = new HashMap<>();
+            pending.put(goldValue, row);
+        }
+
+        int[] cell = row.get(observedValue);
+        if (cell == null) {
+            cell = new int[1];
+            row.put(observedValue, cell);
+        }
+
+        cell[0] += times;
+    }
+
+    /**
+     * Starts a new version and returns the increments made since the given version
+     *
+     * @param baseVersion version
+     * @return gold -> predicted -> increment, or null if the version is no longer kept
+     */
+    Map<String, Map<String, int[]>> close(long baseVersion)
+    {
+        if (baseVersion > version || baseVersion < version - history.size()) {
+            return null;
+        }
+
+        history.addLast(pending);
+        pending = new HashMap<>();
+        version++;
+
+        Map<String, Map<String, int[]>> result = baseVersion == version - 1 ? history.getLast()
+                : sum(baseVersion);
+
+        if (history.size() > MAX_GENERATIONS) {
+            history.removeFirst();
+        }
+
+        return result;
+    }
+
+    private Map<String, Map<String, int[]>> sum(long baseVersion)
+    {
+        Map<String, Map<String, int[]>> result = new HashMap<>();
+        Iterator<Map<String, Map<String, int[]>>> generations = history.descendingIterator();
+        for (long v = version; v > baseVersion; v--) {
+            for (Map.Entry<String, Map<String, int[]>> row : generations.next().entrySet()) {
+                for (Map.Entry<String, int[]> cell : row.getValue().entrySet()) {
+                    Map<String, int[]> target = result.get(row.getKey());
+                    if (target == null) {
+                        target = new HashMap<>();
+                        result.put(row.getKey(), target);
+                    }
+
+                    int[] sum = target.get(cell.getKey());
+                    if (sum == null) {
+                        sum = new int[1];
+                        target.put(cell.getKey(), sum);
+                    }
+                    sum[0] += cell.getValue()[0];
+                }
+            }
+        }
+
+        return result;
+    }
+}
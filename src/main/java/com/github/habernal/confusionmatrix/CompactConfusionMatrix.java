@@ -0,0 +1,724 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Immutable confusion matrix with a minimal memory footprint, created by
+ * {@link ConfusionMatrix#compact()}. Labels are kept in a dictionary shared by all compact
+ * matrices with the same labels; cells are stored densely or sparsely (whichever is smaller)
+ * in 16-bit arrays if the counts fit, 32-bit otherwise; the label series is run-length encoded
+ * or dropped.
+ *
+ * @author Ivan Habernal
+ */
+final class CompactConfusionMatrix
+        extends ReadOnlyConfusionMatrix
+{
+    /**
+     * Canonical dictionaries, weakly referenced
+     */
+    private static final Map<Dictionary, WeakReference<Dictionary>> DICTIONARIES = new WeakHashMap<>();
+
+    /**
+     * Canonical labels, weakly referenced
+     */
+    private static final Map<String, WeakReference<String>> LABELS = new WeakHashMap<>();
+
+    private final Dictionary dictionary;
+
+    /**
+     * Cell values; goldCount x n if dense, one value per non-zero cell if sparse
+     */
+    private final PackedInts values;
+
+    /**
+     * Start of each gold row in {@link #values} (goldCount + 1 entries); null if dense
+     */
+    private final PackedInts rowStarts;
+
+    /**
+     * Column of each value; null if dense
+     */
+    private final PackedInts columns;
+
+    private final PackedInts rowSums;
+
+    private final PackedInts colSums;
+
+    private final int totalSum;
+
+    private final int correctSum;
+
+    /**
+     * Label (index into the dictionary) of each run of the label series; null if dropped
+     */
+    private final PackedInts runLabels;
+
+    /**
+     * Exclusive end position of each run of the label series; null if dropped
+     */
+    private final PackedInts runEnds;
+
+    private CompactConfusionMatrix(Dictionary dictionary, PackedInts values, PackedInts rowStarts,
+            PackedInts columns, PackedInts rowSums, PackedInts colSums, int totalSum,
+            int correctSum, PackedInts runLabels, PackedInts runEnds)
+    {
+        this.dictionary = dictionary;
+        this.values = values;
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.rowSums = rowSums;
+        this.colSums = colSums;
+        this.totalSum = totalSum;
+        this.correctSum = correctSum;
+        this.runLabels = runLabels;
+        this.runEnds = runEnds;
+
+        // not used by read-only matrices, release the empty structures of the superclass
+        this.map = null;
+        this.allGoldLabels = null;
+        this.allPredictedLabels = null;
+        this.labelSeries = null;
+    }
+
+    /**
+     * Creates a compact copy of the given matrix
+     *
+     * @param source          matrix
+     * @param keepLabelSeries whether the label series is kept (run-length encoded)
+     * @return compact matrix
+     */
+    static CompactConfusionMatrix of(ConfusionMatrix source, boolean keepLabelSeries)
+    {
+        SparseRows rows = SparseRows.of(source);
+
+        int n = rows.labels.length;
+        int goldCount = rows.goldCount;
+        int size = rows.size();
+        int[] rowSums = new int[n];
+        int[] colSums = new int[n];
+        int total = 0;
+        int correct = 0;
+        int max = 0;
+        int min = 0;
+
+        for (int g = 0; g < goldCount; g++) {
+            for (int i = rows.rowStarts[g]; i < rows.rowStarts[g + 1]; i++) {
+                int col = rows.columns[i];
+                int value = rows.values[i];
+
+                rowSums[g] += value;
+                colSums[col] += value;
+                total += value;
+                if (col == g) {
+                    correct += value;
+                }
+                max = Math.max(max, value);
+                min = Math.min(min, value);
+            }
+        }
+
+        // negative counts (e.g. of derived matrices) never fit in 16 bits
+        long range = min < 0 ? Integer.MAX_VALUE : max;
+        long denseBytes = PackedInts.bytes((long) goldCount * n, range);
+        long sparseBytes = PackedInts.bytes(goldCount + 1, size) + PackedInts.bytes(size, n)
+                + PackedInts.bytes(size, range);
+
+        PackedInts values;
+        PackedInts rowStarts = null;
+        PackedInts columns = null;
+
+        if (denseBytes <= sparseBytes) {
+            int[] dense = new int[goldCount * n];
+            for (int g = 0; g < goldCount; g++) {
+                for (int i = rows.rowStarts[g]; i < rows.rowStarts[g + 1]; i++) {
+                    dense[g * n + rows.columns[i]] = rows.values[i];
+                }
+            }
+            values = PackedInts.of(dense, dense.length);
+        }
+        else {
+            values = PackedInts.of(rows.values, size);
+            rowStarts = PackedInts.of(rows.rowStarts, goldCount + 1);
+            columns = PackedInts.of(rows.columns, size);
+        }
+
+        // run-length encoding of the series
+        PackedInts runLabels = null;
+        PackedInts runEnds = null;
+
+        if (keepLabelSeries) {
+            List<String> series = source.getLabelSeries();
+            int[] labels = new int[16];
+            int[] ends = new int[16];
+            int runs = 0;
+            int position = 0;
+
+            for (String label : series) {
+                Integer i = rows.index.get(label);
+                if (i == null) {
+                    throw new IllegalStateException(
+                            "Label series contains unknown label: " + label);
+                }
+
+                if (runs > 0 && labels[runs - 1] == i) {
+                    ends[runs - 1]++;
+                }
+                else {
+                    if (runs == labels.length) {
+                        labels = Arrays.copyOf(labels, runs * 2);
+                        ends = Arrays.copyOf(ends, runs * 2);
+                    }
+                    labels[runs] = i;
+                    ends[runs] = position + 1;
+                    runs++;
+                }
+                position++;
+            }
+
+            runLabels = PackedInts.of(labels, runs);
+            runEnds = PackedInts.of(ends, runs);
+        }
+
+        return new CompactConfusionMatrix(
+                canonical(rows.labels, goldCount, source.getPredictedLabels()), values,
+                rowStarts, columns, PackedInts.of(rowSums, n),
+                PackedInts.of(colSums, n), total, correct, runLabels, runEnds);
+    }
+
+    /**
+     * Returns the shared dictionary equal to the given labels
+     */
+    private static Dictionary canonical(String[] labels, int goldCount,
+            SortedSet<String> predictedLabels)
+    {
+        synchronized (DICTIONARIES) {
+            String[] predicted = new String[predictedLabels.size()];
+            int i = 0;
+            for (String label : predictedLabels) {
+                predicted[i++] = label;
+            }
+
+            Dictionary dictionary = new Dictionary(labels, goldCount, predicted);
+            WeakReference<Dictionary> existing = DICTIONARIES.get(dictionary);
+            if (existing != null && existing.get() != null) {
+                return existing.get();
+            }
+
+            // a new dictionary shares at least the label strings
+            for (int j = 0; j < labels.length; j++) {
+                labels[j] = canonical(labels[j]);
+            }
+            for (int j = 0; j < predicted.length; j++) {
+                predicted[j] = canonical(predicted[j]);
+            }
+
+            DICTIONARIES.put(dictionary, new WeakReference<>(dictionary));
+            return dictionary;
+        }
+    }
+
+    private static String canonical(String label)
+    {
+        WeakReference<String> existing = LABELS.get(label);
+        if (existing != null && existing.get() != null) {
+            return existing.get();
+        }
+
+        LABELS.put(label, new WeakReference<>(label));
+        return label;
+    }
+
+    @Override
+    public ConfusionMatrix compact(boolean keepLabelSeries)
+    {
+        if (keepLabelSeries || runLabels == null) {
+            return this;
+        }
+
+        return new CompactConfusionMatrix(dictionary, values, rowStarts, columns, rowSums,
+                colSums, totalSum, correctSum, null, null);
+    }
+
+    /**
+     * Immutable, so the marginals can be cached
+     *
+     * @return true
+     */
+    @Override
+    protected boolean tracksModifications()
+    {
+        return true;
+    }
+
+    @Override
+    public int getTotalSum()
+    {
+        return totalSum;
+    }
+
+    @Override
+    public int getCorrectSum()
+    {
+        return correctSum;
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        int g = dictionary.indexOf(goldValue);
+        int p = dictionary.indexOf(observedValue);
+
+        if (g < 0 || g >= dictionary.goldCount || p < 0) {
+            return 0;
+        }
+
+        return getValue(g, p);
+    }
+
+    private int getValue(int g, int p)
+    {
+        if (columns == null) {
+            return values.get(g * dictionary.labels.length + p);
+        }
+
+        int low = rowStarts.get(g);
+        int high = rowStarts.get(g + 1) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int col = columns.get(middle);
+            if (col < p) {
+                low = middle + 1;
+            }
+            else if (col > p) {
+                high = middle - 1;
+            }
+            else {
+                return values.get(middle);
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        int i = dictionary.indexOf(label);
+        return i >= 0 ? rowSums.get(i) : 0;
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        int i = dictionary.indexOf(label);
+        return i >= 0 ? colSums.get(i) : 0;
+    }
+
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        return new SortedArraySet(dictionary.labels, 0, dictionary.goldCount);
+    }
+
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        return new SortedArraySet(dictionary.predicted, 0, dictionary.predicted.length);
+    }
+
+    @Override
+    protected void visitCells(CellVisitor visitor)
+    {
+        String[] labels = dictionary.labels;
+        int n = labels.length;
+
+        for (int g = 0; g < dictionary.goldCount; g++) {
+            if (columns == null) {
+                for (int p = 0; p < n; p++) {
+                    int value = values.get(g * n + p);
+                    if (value != 0) {
+                        visitor.visit(labels[g], labels[p], value);
+                    }
+                }
+            }
+            else {
+                for (int i = rowStarts.get(g); i < rowStarts.get(g + 1); i++) {
+                    visitor.visit(labels[g], labels[columns.get(i)], values.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the stored cells of the gold rows from first (inclusive) to last (exclusive)
+     */
+    private ConfusionScanner scanRows(final int first, final int last)
+    {
+        final String[] labels = dictionary.labels;
+        final int n = labels.length;
+
+        return new ConfusionScanner()
+        {
+            private int gold = first;
+
+            private int i = rowStart(first);
+
+            private int rowStart(int g)
+            {
+                return columns == null ? g * n : rowStarts.get(g);
+            }
+
+            private int rowEnd(int g)
+            {
+                return columns == null ? (g + 1) * n : rowStarts.get(g + 1);
+            }
+
+            @Override
+            protected Confusion advance()
+            {
+                while (gold < last) {
+                    if (i == rowEnd(gold)) {
+                        gold++;
+                        if (gold < last) {
+                            i = rowStart(gold);
+                        }
+                        continue;
+                    }
+
+                    int column = columns == null ? i - gold * n : columns.get(i);
+                    int value = values.get(i++);
+                    if (column != gold && value != 0) {
+                        return new Confusion(labels[gold], labels[column], value);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        return scanRows(0, dictionary.goldCount);
+    }
+
+    @Override
+    Iterator<Confusion> confusionIterator(String goldLabel)
+    {
+        int g = dictionary.indexOf(goldLabel);
+        if (g < 0 || g >= dictionary.goldCount) {
+            return Collections.emptyIterator();
+        }
+
+        return scanRows(g, g + 1);
+    }
+
+    /**
+     * Returns the run-length decoded label series; empty if it was dropped
+     *
+     * @return unmodifiable list
+     */
+    @Override
+    public List<String> getLabelSeries()
+    {
+        if (runLabels == null || runLabels.length() == 0) {
+            return Collections.emptyList();
+        }
+
+        return new AbstractList<String>()
+        {
+            @Override
+            public String get(int position)
+            {
+                if (position < 0 || position >= size()) {
+                    throw new IndexOutOfBoundsException("Index: " + position);
+                }
+
+                // first run ending after the position
+                int low = 0;
+                int high = runEnds.length() - 1;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (runEnds.get(middle) <= position) {
+                        low = middle + 1;
+                    }
+                    else {
+                        high = middle;
+                    }
+                }
+
+                return dictionary.labels[runLabels.get(low)];
+            }
+
+            @Override
+            public int size()
+            {
+                return runEnds.get(runEnds.length() - 1);
+            }
+        };
+    }
+
+    /**
+     * Estimates the bytes retained by this matrix only; the label dictionary is shared and not
+     * included
+     *
+     * @return bytes
+     */
+    @Override
+    public long estimateRetainedBytes()
+    {
+        // this instance (fields of the superclass included)
+        long result = 80;
+
+        for (PackedInts array : Arrays.asList(values, rowStarts, columns, rowSums, colSums,
+                runLabels, runEnds)) {
+            if (array != null) {
+                result += array.retainedBytes();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Immutable labels of a compact matrix: gold labels (sorted) followed by only predicted
+     * labels (sorted), and the predicted labels (sorted); equal by content
+     */
+    private static final class Dictionary
+    {
+        final String[] labels;
+
+        final int goldCount;
+
+        final String[] predicted;
+
+        private final int hash;
+
+        Dictionary(String[] labels, int goldCount, String[] predicted)
+        {
+            this.labels = labels;
+            this.goldCount = goldCount;
+            this.predicted = predicted;
+            this.hash = 31 * (31 * Arrays.hashCode(labels) + goldCount) + Arrays
+                    .hashCode(predicted);
+        }
+
+        int indexOf(String label)
+        {
+            int i = Arrays.binarySearch(labels, 0, goldCount, label);
+            if (i >= 0) {
+                return i;
+            }
+
+            i = Arrays.binarySearch(labels, goldCount, labels.length, label);
+            return i >= 0 ? i : -1;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Dictionary)) {
+                return false;
+            }
+
+            Dictionary that = (Dictionary) o;
+            return goldCount == that.goldCount && Arrays.equals(labels, that.labels) && Arrays
+                    .equals(predicted, that.predicted);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    /**
+     * Unmodifiable sorted set over a range of a sorted array
+     */
+    private static final class SortedArraySet
+            extends AbstractSet<String>
+            implements SortedSet<String>
+    {
+        private final String[] array;
+
+        private final int from;
+
+        private final int to;
+
+        SortedArraySet(String[] array, int from, int to)
+        {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+
+        private int position(String element)
+        {
+            int i = Arrays.binarySearch(array, from, to, element);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return o instanceof String && Arrays.binarySearch(array, from, to, o) >= 0;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return Collections.unmodifiableList(Arrays.asList(array).subList(from, to))
+                    .iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return to - from;
+        }
+
+        @Override
+        public Comparator<? super String> comparator()
+        {
+            return null;
+        }
+
+        @Override
+        public SortedSet<String> subSet(String fromElement, String toElement)
+        {
+            return new SortedArraySet(array, position(fromElement),
+                    Math.max(position(fromElement), position(toElement)));
+        }
+
+        @Override
+        public SortedSet<String> headSet(String toElement)
+        {
+            return new SortedArraySet(array, from, position(toElement));
+        }
+
+        @Override
+        public SortedSet<String> tailSet(String fromElement)
+        {
+            return new SortedArraySet(array, position(fromElement), to);
+        }
+
+        @Override
+        public String first()
+        {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return array[from];
+        }
+
+        @Override
+        public String last()
+        {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return array[to - 1];
+        }
+    }
+
+    /**
+     * Array of ints stored in 16 bits if all values are in [0, 65535]
+     */
+    private abstract static class PackedInts
+    {
+        /**
+         * Returns the size of an array of the given length holding values up to max
+         */
+        static long bytes(long length, long max)
+        {
+            return 16 + length * (max <= Character.MAX_VALUE ? 2 : 4);
+        }
+
+        static PackedInts of(int[] values, int length)
+        {
+            boolean fits = true;
+            for (int i = 0; i < length && fits; i++) {
+                fits = values[i] >= 0 && values[i] <= Character.MAX_VALUE;
+            }
+
+            if (fits) {
+                final char[] array = new char[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = (char) values[i];
+                }
+
+                return new PackedInts()
+                {
+                    @Override
+                    int get(int i)
+                    {
+                        return array[i];
+                    }
+
+                    @Override
+                    int length()
+                    {
+                        return array.length;
+                    }
+
+                    @Override
+                    long retainedBytes()
+                    {
+                        return 16 + bytes(array.length, 0);
+                    }
+                };
+            }
+
+            final int[] array = Arrays.copyOf(values, length);
+            return new PackedInts()
+            {
+                @Override
+                int get(int i)
+                {
+                    return array[i];
+                }
+
+                @Override
+                int length()
+                {
+                    return array.length;
+                }
+
+                @Override
+                long retainedBytes()
+                {
+                    return 16 + bytes(array.length, Integer.MAX_VALUE);
+                }
+            };
+        }
+
+        abstract int get(int i);
+
+        abstract int length();
+
+        abstract long retainedBytes();
+    }
+}
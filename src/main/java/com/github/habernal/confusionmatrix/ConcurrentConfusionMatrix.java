@@ -0,0 +1,376 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Confusion matrix that can be written by many threads and read at the same time. Writers are
+ * lock-free (only the first occurrence of a new label takes a lock); readers obtain an
+ * immutable and consistent {@link ConfusionMatrixSnapshot} without stopping the writers.
+ * <p/>
+ * Snapshots are epoch-based: writers add into the cells of the current epoch; taking a snapshot
+ * switches writers to a fresh epoch, waits until the writes still in flight in the old epoch
+ * are finished and folds the rows touched in the old epoch into the base counts. A snapshot
+ * thus costs O(dirty rows * L) plus copying the counts.
+ * <p/>
+ * The series of labels is not kept.
+ *
+ * @author Ivan Habernal
+ */
+public class ConcurrentConfusionMatrix
+{
+    /**
+     * Number of in-flight counters; writers are spread over them by thread id
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * Distance between two in-flight counters (in ints) to keep them on separate cache lines
+     */
+    private static final int PADDING = 16;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ConcurrentHashMap<String, Integer> labelIds = new ConcurrentHashMap<>();
+
+    /**
+     * Guards label registration
+     */
+    private final ReentrantLock labelLock = new ReentrantLock();
+
+    /**
+     * Labels indexed by id; replaced on registration
+     */
+    private volatile String[] labelsById = new String[0];
+
+    /**
+     * Guards epoch switches and the base counts
+     */
+    private final ReentrantLock epochLock = new ReentrantLock();
+
+    private volatile Epoch current = new Epoch(INITIAL_CAPACITY);
+
+    /**
+     * Retired and cleared epoch ready to be reused
+     */
+    private Epoch spare = new Epoch(INITIAL_CAPACITY);
+
+    /**
+     * Counts folded from retired epochs, capacity x capacity
+     */
+    private int[] base = new int[INITIAL_CAPACITY * INITIAL_CAPACITY];
+
+    private int[] baseRoles = new int[INITIAL_CAPACITY];
+
+    private int baseCapacity = INITIAL_CAPACITY;
+
+    /**
+     * Changes folded since the last delta, guarded by the epoch lock; null until the first
+     * {@link #diffSince(ConfusionMatrixSnapshot)}
+     */
+    private ChangeLog changeLog;
+
+    /**
+     * Cells written between two snapshots
+     */
+    private static final class Epoch
+    {
+        final int capacity;
+
+        final IntCounters cells;
+
+        final IntCounters roles;
+
+        final IntCounters dirtyRows;
+
+        final IntCounters inFlight = new IntCounters(STRIPES * PADDING);
+
+        Epoch(int capacity)
+        {
+            this.capacity = capacity;
+            this.cells = new IntCounters(capacity * capacity);
+            this.roles = new IntCounters(capacity);
+            this.dirtyRows = new IntCounters(capacity);
+        }
+    }
+
+    public void increaseValue(String goldValue, String observedValue)
+    {
+        increaseValue(goldValue, observedValue, 1);
+    }
+
+    /**
+     * Increases value of goldValue x observedValue n times; can be called from any thread
+     *
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     */
+    public void increaseValue(String goldValue, String observedValue, int times)
+    {
+        increaseValue(labelId(goldValue), labelId(observedValue), times);
+    }
+
+    /**
+     * Returns the id of the label, registering the label if needed
+     *
+     * @param label label
+     * @return id
+     */
+    int labelId(String label)
+    {
+        Integer id = labelIds.get(label);
+
+        if (id != null) {
+            return id;
+        }
+
+        labelLock.lock();
+        try {
+            id = labelIds.get(label);
+            if (id == null) {
+                String[] labels = labelsById;
+                id = labels.length;
+
+                String[] extended = Arrays.copyOf(labels, id + 1);
+                extended[id] = label;
+                labelsById = extended;
+
+                labelIds.put(label, id);
+            }
+            return id;
+        }
+        finally {
+            labelLock.unlock();
+        }
+    }
+
+    /**
+     * Increases the cell given by label ids (see {@link #labelId(String)})
+     */
+    void increaseValue(int gold, int observed, int times)
+    {
+        int stripe = (int) (Thread.currentThread().getId() % STRIPES) * PADDING;
+
+        while (true) {
+            Epoch epoch = current;
+
+            if (gold >= epoch.capacity || observed >= epoch.capacity) {
+                grow(Math.max(gold, observed) + 1);
+                continue;
+            }
+
+            epoch.inFlight.add(stripe, 1);
+            try {
+                if (epoch != current) {
+                    // switched meanwhile; the snapshot might not wait for us
+                    continue;
+                }
+
+                epoch.cells.add(gold * epoch.capacity + observed, times);
+
+                if (epoch.dirtyRows.getPlain(gold) == 0) {
+                    epoch.dirtyRows.setRelease(gold, 1);
+                }
+                addRole(epoch.roles, gold, ConfusionMatrixSnapshot.ROLE_GOLD);
+                addRole(epoch.roles, observed, ConfusionMatrixSnapshot.ROLE_PREDICTED);
+
+                return;
+            }
+            finally {
+                epoch.inFlight.add(stripe, -1);
+            }
+        }
+    }
+
+    private static void addRole(IntCounters roles, int id, int role)
+    {
+        int value = roles.get(id);
+        while ((value & role) == 0 && !roles.compareAndSet(id, value, value | role)) {
+            value = roles.get(id);
+        }
+    }
+
+    /**
+     * Returns a consistent snapshot containing all updates that finished before this call;
+     * updates running concurrently are either fully included or not at all
+     *
+     * @return snapshot
+     */
+    public ConfusionMatrixSnapshot snapshot()
+    {
+        epochLock.lock();
+        try {
+            switchEpoch(current.capacity);
+
+            // labels registered later have no cells in the folded epochs
+            String[] labels = labelsById;
+            int n = Math.min(labels.length, baseCapacity);
+
+            return ConfusionMatrixSnapshot.fromDense(Arrays.copyOf(labels, n),
+                    Arrays.copyOf(baseRoles, n), base, baseCapacity);
+        }
+        finally {
+            epochLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the changes since the given snapshot by comparing all cells and starts logging
+     * the cells folded from the epochs, see
+     * {@link ConfusionMatrix#diffSince(ConfusionMatrixSnapshot)}
+     *
+     * @param previous snapshot, typically of this matrix
+     * @return delta from version 0 (the snapshot) to version 1
+     */
+    public ConfusionMatrixDelta diffSince(ConfusionMatrixSnapshot previous)
+    {
+        epochLock.lock();
+        try {
+            ConfusionMatrixSnapshot current = snapshot();
+            changeLog = new ChangeLog(1);
+
+            return ConfusionMatrixDelta.between(previous, current, changeLog);
+        }
+        finally {
+            epochLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the changes since the given delta; costs O(dirty rows * L) like a snapshot, but
+     * copies only the changed cells, see {@link ConfusionMatrix#diffSince(ConfusionMatrixDelta)}
+     *
+     * @param previous one of the last deltas of this matrix
+     * @return delta from the version of the given delta to a new version
+     */
+    public ConfusionMatrixDelta diffSince(ConfusionMatrixDelta previous)
+    {
+        epochLock.lock();
+        try {
+            switchEpoch(current.capacity);
+
+            return ConfusionMatrix.diffSince(changeLog, previous);
+        }
+        finally {
+            epochLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current snapshot as a read-only confusion matrix, see {@link #snapshot()}
+     *
+     * @return read-only confusion matrix
+     */
+    public ConfusionMatrix toConfusionMatrix()
+    {
+        return snapshot().asConfusionMatrix();
+    }
+
+    @Override
+    public String toString()
+    {
+        return toConfusionMatrix().toString();
+    }
+
+    /**
+     * Switches writers to a new epoch of at least the same capacity if needed
+     */
+    private void grow(int minCapacity)
+    {
+        epochLock.lock();
+        try {
+            int capacity = current.capacity;
+            if (capacity >= minCapacity) {
+                return;
+            }
+
+            while (capacity < minCapacity) {
+                capacity *= 2;
+            }
+            switchEpoch(capacity);
+        }
+        finally {
+            epochLock.unlock();
+        }
+    }
+
+    /**
+     * Installs a new epoch, waits for the writers of the old one and folds it into the base;
+     * must be called with the epoch lock held
+     */
+    private void switchEpoch(int capacity)
+    {
+        Epoch next = spare != null && spare.capacity == capacity ? spare : new Epoch(capacity);
+        Epoch retired = current;
+        current = next;
+
+        // a writer that incremented its counter before the switch is still writing
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            while (retired.inFlight.get(stripe * PADDING) != 0) {
+                Thread.yield();
+            }
+        }
+
+        if (capacity > baseCapacity) {
+            int[] extended = new int[capacity * capacity];
+            for (int row = 0; row < baseCapacity; row++) {
+                System.arraycopy(base, row * baseCapacity, extended, row * capacity,
+                        baseCapacity);
+            }
+            base = extended;
+            baseRoles = Arrays.copyOf(baseRoles, capacity);
+            baseCapacity = capacity;
+        }
+
+        // fold the dirty rows of the retired epoch and clear them for reuse; all writes are
+        // visible since the in-flight counters were read, and the cleared epoch is published
+        // to writers again by the volatile write of current
+        String[] labels = labelsById;
+        int size = retired.capacity;
+        for (int row = 0; row < size; row++) {
+            int role = retired.roles.getPlain(row);
+            if (role != 0) {
+                baseRoles[row] |= role;
+                retired.roles.setPlain(row, 0);
+            }
+
+            if (retired.dirtyRows.getPlain(row) == 0) {
+                continue;
+            }
+            retired.dirtyRows.setPlain(row, 0);
+
+            for (int col = 0; col < size; col++) {
+                int cell = row * size + col;
+                int value = retired.cells.getPlain(cell);
+                if (value != 0) {
+                    base[row * baseCapacity + col] += value;
+                    retired.cells.setPlain(cell, 0);
+
+                    if (changeLog != null) {
+                        changeLog.record(labels[row], labels[col], value);
+                    }
+                }
+            }
+        }
+
+        spare = retired.capacity == capacity ? retired : null;
+    }
+}
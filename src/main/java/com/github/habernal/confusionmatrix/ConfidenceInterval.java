@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Locale;
+
+/**
+ * Confidence interval of a proportion (accuracy, precision, recall of a label), see
+ * {@link ConfusionMatrix#getAccuracyInterval(double, Method)}
+ *
+ * @author Ivan Habernal
+ */
+public final class ConfidenceInterval
+{
+    /**
+     * Method of computing the interval of a binomial proportion
+     */
+    public enum Method
+    {
+        /**
+         * Normal approximation, as {@link ConfusionMatrix#getConfidence95Accuracy()}; poor
+         * for small samples and proportions near 0 or 1
+         */
+        WALD,
+
+        /**
+         * Wilson score interval; good coverage also near 0 or 1
+         */
+        WILSON,
+
+        /**
+         * Agresti-Coull interval; Wald interval with z^2 / 2 added successes and failures
+         */
+        AGRESTI_COULL,
+
+        /**
+         * Exact interval from the beta distribution; conservative
+         */
+        CLOPPER_PEARSON
+    }
+
+    private final double estimate;
+
+    private final double low;
+
+    private final double high;
+
+    private ConfidenceInterval(double estimate, double low, double high)
+    {
+        this.estimate = estimate;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Returns the interval of the proportion successes / trials; [0, 1] if there are no trials
+     *
+     * @param successes  number of successes
+     * @param trials     number of trials
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @param method     method
+     * @return interval; bounds are clipped to [0, 1]
+     */
+    public static ConfidenceInterval of(int successes, int trials, double confidence,
+            Method method)
+    {
+        return of(successes, trials, confidence, z(confidence), method);
+    }
+
+    /**
+     * Returns the quantile of the normal distribution for two-sided intervals
+     *
+     * @param confidence confidence level in (0, 1)
+     * @return z
+     */
+    static double z(double confidence)
+    {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Confidence must be in (0, 1): " + confidence);
+        }
+
+        return Distributions.inverseNormal(1 - (1 - confidence) / 2);
+    }
+
+    /**
+     * Returns the interval with the precomputed z of the confidence level
+     */
+    static ConfidenceInterval of(int successes, int trials, double confidence, double z,
+            Method method)
+    {
+        if (trials <= 0) {
+            return new ConfidenceInterval(Double.NaN, 0, 1);
+        }
+
+        double n = trials;
+        double p = successes / n;
+
+        switch (method) {
+            case WALD: {
+                double half = z * Math.sqrt(p * (1 - p) / n);
+                return clipped(p, p - half, p + half);
+            }
+            case WILSON: {
+                double z2 = z * z;
+                double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+                double half = z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n));
+                return clipped(p, center - half, center + half);
+            }
+            case AGRESTI_COULL: {
+                double adjusted = n + z * z;
+                double center = (successes + z * z / 2) / adjusted;
+                double half = z * Math.sqrt(center * (1 - center) / adjusted);
+                return clipped(p, center - half, center + half);
+            }
+            case CLOPPER_PEARSON: {
+                double alpha = 1 - confidence;
+                double failures = trials - successes;
+                double low = successes == 0 ? 0
+                        : Distributions.inverseBeta(alpha / 2, successes, failures + 1);
+                double high = successes == trials ? 1
+                        : Distributions.inverseBeta(1 - alpha / 2, successes + 1, failures);
+                return clipped(p, low, high);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    private static ConfidenceInterval clipped(double estimate, double low, double high)
+    {
+        return new ConfidenceInterval(estimate, Math.max(0, low), Math.min(1, high));
+    }
+
+    /**
+     * Returns the proportion; NaN if there are no trials
+     *
+     * @return double
+     */
+    public double getEstimate()
+    {
+        return estimate;
+    }
+
+    public double getLow()
+    {
+        return low;
+    }
+
+    public double getHigh()
+    {
+        return high;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ENGLISH, "%f [%f, %f]", estimate, low, high);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Comparator;
+
+/**
+ * Non-zero off-diagonal cell of a confusion matrix: instances of a gold label predicted as
+ * another label
+ *
+ * @author Ivan Habernal
+ */
+public final class Confusion
+{
+    /**
+     * Higher counts first, ties by gold and then predicted label
+     */
+    public static final Comparator<Confusion> BY_COUNT = new Comparator<Confusion>()
+    {
+        @Override
+        public int compare(Confusion o1, Confusion o2)
+        {
+            if (o1.count != o2.count) {
+                return o1.count > o2.count ? -1 : 1;
+            }
+
+            int result = o1.goldLabel.compareTo(o2.goldLabel);
+            return result != 0 ? result : o1.predictedLabel.compareTo(o2.predictedLabel);
+        }
+    };
+
+    private final String goldLabel;
+
+    private final String predictedLabel;
+
+    private final int count;
+
+    public Confusion(String goldLabel, String predictedLabel, int count)
+    {
+        this.goldLabel = goldLabel;
+        this.predictedLabel = predictedLabel;
+        this.count = count;
+    }
+
+    public String getGoldLabel()
+    {
+        return goldLabel;
+    }
+
+    public String getPredictedLabel()
+    {
+        return predictedLabel;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Confusion)) {
+            return false;
+        }
+
+        Confusion other = (Confusion) o;
+        return count == other.count && goldLabel.equals(other.goldLabel) && predictedLabel
+                .equals(other.predictedLabel);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (goldLabel.hashCode() * 31 + predictedLabel.hashCode()) * 31 + count;
+    }
+
+    @Override
+    public String toString()
+    {
+        return goldLabel + " -> " + predictedLabel + ": " + count;
+    }
+}
@@ -16,11 +16,21 @@
 
 package com.github.habernal.confusionmatrix;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
 /**
  * Implementation of confusion matrix for evaluating learning algorithms; computes macro F-measure,
  * accuracy, confidence intervals, Cohen's Kappa
+ * <p/>
+ * Subclasses must change the counts only through {@link #increaseValue(String, String, int)}
+ * or {@link #addToCell(String, String, int)}, which record the change; values derived from the
+ * counts (marginals, label order, weighted Kappa) are cached until the next recorded change. A
+ * subclass that writes {@link #map}, {@link #allGoldLabels} or {@link #allPredictedLabels}
+ * directly must override {@link #tracksModifications()} to return false.
  *
  * @author Ivan Habernal
  */
@@ -31,6 +41,9 @@ public class ConfusionMatrix
 
     protected int correct = 0;
 
+    /**
+     * Gold label &rarr; predicted label &rarr; count; see the class comment before writing it
+     */
     protected Map<String, Map<String, Integer>> map;
 
     protected int numberOfDecimalPlaces = 3;
@@ -43,12 +56,106 @@ public class ConfusionMatrix
 
     private Locale locale = Locale.ENGLISH;
 
+    /**
+     * Formatter of {@link #locale} and {@link #numberOfDecimalPlaces}, see
+     * {@link #getFormatter()}
+     */
+    private DecimalFormatter formatter;
+
+    /**
+     * Changes since the last delta; null until the first
+     * {@link #diffSince(ConfusionMatrixSnapshot)}
+     */
+    private ChangeLog changeLog;
+
+    /**
+     * Number of changes of the counts, see {@link #recordChange(String, String, int)}
+     */
+    private long modificationCount;
+
+    /**
+     * Marginals cached for {@link #modificationCount}
+     */
+    private Marginals marginals;
+
+    private long marginalsVersion;
+
+    /**
+     * Label order cached until a label is added, see {@link #labelOrder()}
+     */
+    private LabelOrder labelOrder;
+
+    /**
+     * Weighted Kappa cached for {@link #modificationCount}, see
+     * {@link #getWeightedKappa(KappaWeights)}
+     */
+    private KappaWeights kappaWeights;
+
+    private double weightedKappa;
+
+    private long weightedKappaVersion;
+
+    /**
+     * Installed metrics listener, see {@link ConfusionMatrixMetrics}
+     */
+    private static final ConfusionMatrixMetrics METRICS = loadMetrics();
+
+    /**
+     * Constant for the JIT; all instrumentation is removed if false
+     */
+    private static final boolean METRICS_ENABLED = METRICS.isEnabled();
+
     public ConfusionMatrix()
     {
         this.map = new TreeMap<>();
 
     }
 
+    private static ConfusionMatrixMetrics loadMetrics()
+    {
+        String className = System.getProperty(ConfusionMatrixMetrics.PROPERTY);
+
+        if (className != null) {
+            try {
+                return (ConfusionMatrixMetrics) Class.forName(className).getDeclaredConstructor()
+                        .newInstance();
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalStateException("Cannot instantiate metrics " + className, e);
+            }
+        }
+
+        Iterator<ConfusionMatrixMetrics> services = ServiceLoader
+                .load(ConfusionMatrixMetrics.class).iterator();
+        if (services.hasNext()) {
+            return services.next();
+        }
+
+        return ConfusionMatrixMetrics.NOOP;
+    }
+
+    /**
+     * Returns the metrics listener installed for this JVM
+     *
+     * @return metrics; {@link ConfusionMatrixMetrics#NOOP} if none is installed
+     */
+    public static ConfusionMatrixMetrics getMetrics()
+    {
+        return METRICS;
+    }
+
+    static long startTimer()
+    {
+        return METRICS_ENABLED ? System.nanoTime() : 0L;
+    }
+
+    static void stopTimer(ConfusionMatrixMetrics.Operation operation, long start)
+    {
+        if (METRICS_ENABLED) {
+            METRICS.record(operation, System.nanoTime() - start);
+        }
+    }
+
     public void setNumberOfDecimalPlaces(int numberOfDecimalPlaces)
             throws IllegalArgumentException
     {
@@ -64,13 +171,22 @@ public class ConfusionMatrix
         this.locale = locale;
     }
 
-    private Locale getLocale() {
+    Locale getLocale() {
         return locale;
     }
 
-    private String getFormat()
+    /**
+     * Returns the shared formatter of the current locale and number of decimal places
+     */
+    DecimalFormatter getFormatter()
     {
-        return "%." + numberOfDecimalPlaces + "f";
+        DecimalFormatter result = formatter;
+        if (result == null || !result.matches(locale, numberOfDecimalPlaces)) {
+            result = DecimalFormatter.of(locale, numberOfDecimalPlaces);
+            formatter = result;
+        }
+
+        return result;
     }
 
     public void increaseValue(String goldValue, String observedValue)
@@ -97,13 +213,31 @@ public class ConfusionMatrix
      */
     public void increaseValue(String goldValue, String observedValue, int times)
     {
-        allGoldLabels.add(goldValue);
-        allPredictedLabels.add(observedValue);
+        long start = startTimer();
 
         for (int i = 0; i < times; i++) {
             labelSeries.add(observedValue);
         }
 
+        addToCell(goldValue, observedValue, times);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.INGEST, start);
+    }
+
+    /**
+     * Adds n to the cell goldValue x observedValue without recording the labels in the label
+     * series; used for matrices derived from existing counts (the series of the source matrix
+     * cannot be reconstructed from the counts anyway)
+     *
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     */
+    protected void addToCell(String goldValue, String observedValue, int times)
+    {
+        allGoldLabels.add(goldValue);
+        allPredictedLabels.add(observedValue);
+
         if (!map.containsKey(goldValue)) {
             map.put(goldValue, new TreeMap<String, Integer>());
         }
@@ -120,11 +254,118 @@ public class ConfusionMatrix
         if (goldValue.equals(observedValue)) {
             correct += times;
         }
+
+        recordChange(goldValue, observedValue, times);
+    }
+
+    /**
+     * Records the change of a cell for {@link #diffSince(ConfusionMatrixDelta)}; subclasses that
+     * do not update the cells by {@link #addToCell(String, String, int)} must call it
+     */
+    void recordChange(String goldValue, String observedValue, int times)
+    {
+        modificationCount++;
+
+        if (changeLog != null) {
+            changeLog.record(goldValue, observedValue, times);
+        }
+    }
+
+    boolean logsChanges()
+    {
+        return changeLog != null;
+    }
+
+    /**
+     * Records a change of the counts that has already been logged or is not logged because
+     * {@link #logsChanges()} is false
+     */
+    void markModified()
+    {
+        modificationCount++;
+    }
+
+    /**
+     * Returns true if all changes of the counts are recorded by
+     * {@link #recordChange(String, String, int)}, so that values derived from the counts can be
+     * cached; false for views of data that can change underneath and for subclasses that
+     * change the counts in any other way
+     *
+     * @return boolean
+     */
+    protected boolean tracksModifications()
+    {
+        return true;
+    }
+
+    /**
+     * Returns the number of changes of the counts; views of this matrix use it to cache values
+     * derived from it
+     *
+     * @return count, meaningful only if {@link #tracksModifications()}
+     */
+    long getModificationCount()
+    {
+        return modificationCount;
+    }
+
+    /**
+     * Returns the diagonal and marginal sums, computed in one pass over the cells and cached
+     * until the next change
+     *
+     * @return marginals
+     */
+    Marginals marginals()
+    {
+        if (!tracksModifications()) {
+            return Marginals.of(this);
+        }
+
+        Marginals result = marginals;
+        if (result == null || marginalsVersion != modificationCount) {
+            result = Marginals.of(this);
+            marginals = result;
+            marginalsVersion = modificationCount;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the labels in the printed order (gold labels first, then labels that were only
+     * predicted), cached until a new label is added
+     *
+     * @return label order
+     */
+    LabelOrder labelOrder()
+    {
+        if (!tracksModifications()) {
+            return LabelOrder.of(this);
+        }
+
+        LabelOrder result = labelOrder;
+        if (result == null || !result.matches(this)) {
+            result = LabelOrder.of(this);
+            labelOrder = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts logging changes for {@link #diffSince(ConfusionMatrixDelta)}
+     *
+     * @return log or null if this matrix cannot be changed
+     */
+    ChangeLog startChangeLog()
+    {
+        changeLog = new ChangeLog(1);
+        return changeLog;
     }
 
     public double getAccuracy()
     {
-        return ((double) correct / (double) total);
+        return ((double) getCorrectSum() / (double) getTotalSum());
     }
 
     public int getTotalSum()
@@ -132,6 +373,152 @@ public class ConfusionMatrix
         return total;
     }
 
+    /**
+     * Returns the sum of the diagonal (number of correctly predicted instances)
+     *
+     * @return sum
+     */
+    public int getCorrectSum()
+    {
+        return correct;
+    }
+
+    /**
+     * Returns the value of the cell goldValue x observedValue
+     *
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @return value; zero for unknown labels
+     */
+    public int getValue(String goldValue, String observedValue)
+    {
+        Map<String, Integer> row = map.get(goldValue);
+        if (row == null) {
+            return 0;
+        }
+
+        Integer value = row.get(observedValue);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * Returns all gold labels (rows of the matrix)
+     *
+     * @return unmodifiable sorted set
+     */
+    public SortedSet<String> getGoldLabels()
+    {
+        return Collections.unmodifiableSortedSet(allGoldLabels);
+    }
+
+    /**
+     * Returns all predicted labels (columns of the matrix)
+     *
+     * @return unmodifiable sorted set
+     */
+    public SortedSet<String> getPredictedLabels()
+    {
+        return Collections.unmodifiableSortedSet(allPredictedLabels);
+    }
+
+    /**
+     * Returns the number of distinct labels (gold or predicted)
+     *
+     * @return int
+     */
+    public int getLabelCount()
+    {
+        int result = getGoldLabels().size();
+
+        for (String label : getPredictedLabels()) {
+            if (!getGoldLabels().contains(label)) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of cells with a non-zero value
+     *
+     * @return int
+     */
+    public int getNonZeroCellCount()
+    {
+        final int[] result = new int[1];
+
+        visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                if (value != 0) {
+                    result[0]++;
+                }
+            }
+        });
+
+        return result[0];
+    }
+
+    /**
+     * Returns a rough estimate of the heap retained by this matrix (maps, label sets, label
+     * series and label strings), assuming a 64-bit JVM with compressed references
+     *
+     * @return bytes
+     */
+    public long estimateRetainedBytes()
+    {
+        // object header + fields of this instance
+        long result = 48;
+
+        // TreeMap of rows, one TreeMap entry per row and per cell, boxed values
+        int cells = 0;
+        for (Map<String, Integer> row : map.values()) {
+            cells += row.size();
+        }
+        result += 48 + map.size() * (40L + 48) + cells * (40L + 16);
+
+        // two TreeSets
+        result += 2 * (16 + 48) + (allGoldLabels.size() + allPredictedLabels.size()) * 40L;
+
+        // label strings (shared by all structures)
+        Set<String> labels = new HashSet<>(allGoldLabels);
+        labels.addAll(allPredictedLabels);
+        for (String label : labels) {
+            result += 24 + 16 + label.length() * 2L;
+        }
+
+        // label series: ArrayList with references only
+        result += 24 + 16 + labelSeries.size() * 4L;
+
+        return result;
+    }
+
+    /**
+     * Callback for {@link #visitCells(CellVisitor)}
+     */
+    protected interface CellVisitor
+    {
+        void visit(String goldLabel, String predictedLabel, int value);
+    }
+
+    /**
+     * Visits all stored cells (including explicitly added zeros); the same pair of labels might
+     * be visited more than once by views, so the visitor must sum the values up
+     *
+     * @param visitor visitor
+     */
+    protected void visitCells(CellVisitor visitor)
+    {
+        for (Map.Entry<String, Map<String, Integer>> gold : map.entrySet()) {
+            for (Map.Entry<String, Integer> predicted : gold.getValue().entrySet()) {
+                visitor.visit(gold.getKey(), predicted.getKey(), predicted.getValue());
+            }
+        }
+    }
+
     public int getRowSum(String label)
     {
         int result = 0;
@@ -159,7 +546,7 @@ public class ConfusionMatrix
     public Map<String, Double> getPrecisionForLabels()
     {
         Map<String, Double> precisions = new LinkedHashMap<>();
-        for (String label : allGoldLabels) {
+        for (String label : getGoldLabels()) {
             double precision = getPrecisionForLabel(label);
 
             precisions.put(label, precision);
@@ -170,11 +557,10 @@ public class ConfusionMatrix
     public double getPrecisionForLabel(String label)
     {
         double precision = 0;
-        int tp = 0;
+        int tp = getValue(label, label);
         int fpAndTp = 0;
 
-        if (map.containsKey(label) && map.get(label).containsKey(label)) {
-            tp = this.map.get(label).get(label);
+        if (tp != 0) {
             fpAndTp = getColSum(label);
         }
 
@@ -196,14 +582,14 @@ public class ConfusionMatrix
      */
     public double getMicroFMeasure()
     {
+        long start = startTimer();
+
         int allTruePositives = 0;
         int allTruePositivesAndFalsePositives = 0;
         int allTruePositivesAndFalseNegatives = 0;
 
-        for (String label : map.keySet()) {
-            if (map.containsKey(label) && map.get(label).containsKey(label)) {
-                allTruePositives += this.map.get(label).get(label);
-            }
+        for (String label : getGoldLabels()) {
+            allTruePositives += getValue(label, label);
             allTruePositivesAndFalsePositives += getColSum(label);
             allTruePositivesAndFalseNegatives += getRowSum(label);
         }
@@ -211,7 +597,10 @@ public class ConfusionMatrix
         double precision = (double) allTruePositives / (double) allTruePositivesAndFalsePositives;
         double recall = (double) allTruePositives / (double) allTruePositivesAndFalseNegatives;
 
-        return (2.0 * precision * recall) / (precision + recall);
+        double result = (2.0 * precision * recall) / (precision + recall);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
     }
 
     /**
@@ -223,6 +612,8 @@ public class ConfusionMatrix
      */
     public double getMacroFMeasure()
     {
+        long start = startTimer();
+
         Map<String, Double> fMeasureForLabels = getFMeasureForLabels();
 
         double totalFMeasure = 0;
@@ -231,7 +622,10 @@ public class ConfusionMatrix
             totalFMeasure += d;
         }
 
-        return totalFMeasure / fMeasureForLabels.size();
+        double result = totalFMeasure / fMeasureForLabels.size();
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
     }
 
     /**
@@ -242,6 +636,8 @@ public class ConfusionMatrix
      */
     public double getMacroFMeasure(double beta)
     {
+        long start = startTimer();
+
         Map<String, Double> fMeasureForLabels = getFMeasureForLabels(beta);
 
         double totalFMeasure = 0;
@@ -250,7 +646,10 @@ public class ConfusionMatrix
             totalFMeasure += d;
         }
 
-        return totalFMeasure / fMeasureForLabels.size();
+        double result = totalFMeasure / fMeasureForLabels.size();
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
     }
 
     /**
@@ -265,7 +664,7 @@ public class ConfusionMatrix
         Map<String, Double> precisionForLabels = getPrecisionForLabels();
         Map<String, Double> recallForLabels = getRecallForLabels();
 
-        for (String label : allGoldLabels) {
+        for (String label : getGoldLabels()) {
             double p = precisionForLabels.get(label);
             double r = recallForLabels.get(label);
 
@@ -294,7 +693,7 @@ public class ConfusionMatrix
         Map<String, Double> precisionForLabels = getPrecisionForLabels();
         Map<String, Double> recallForLabels = getRecallForLabels();
 
-        for (String label : allGoldLabels) {
+        for (String label : getGoldLabels()) {
             double p = precisionForLabels.get(label);
             double r = recallForLabels.get(label);
 
@@ -318,7 +717,7 @@ public class ConfusionMatrix
     public Map<String, Double> getRecallForLabels()
     {
         Map<String, Double> recalls = new LinkedHashMap<>();
-        for (String label : allGoldLabels) {
+        for (String label : getGoldLabels()) {
             double recall = getRecallForLabel(label);
 
             recalls.put(label, recall);
@@ -336,10 +735,9 @@ public class ConfusionMatrix
     {
         int fnAndTp = 0;
         double recall = 0;
-        int tp = 0;
+        int tp = getValue(label, label);
 
-        if (map.containsKey(label) && map.get(label).containsKey(label)) {
-            tp = this.map.get(label).get(label);
+        if (tp != 0) {
             fnAndTp = getRowSum(label);
         }
 
@@ -357,7 +755,7 @@ public class ConfusionMatrix
      */
     public double getConfidence95Accuracy()
     {
-        return 1.96 * Math.sqrt(getAccuracy() * (1.0 - getAccuracy()) / total);
+        return 1.96 * Math.sqrt(getAccuracy() * (1.0 - getAccuracy()) / getTotalSum());
     }
 
     /**
@@ -367,7 +765,7 @@ public class ConfusionMatrix
      */
     public double getConfidence90Accuracy()
     {
-        return 1.645 * Math.sqrt(getAccuracy() * (1.0 - getAccuracy()) / total);
+        return 1.645 * Math.sqrt(getAccuracy() * (1.0 - getAccuracy()) / getTotalSum());
     }
 
     public double getConfidence90AccuracyLow()
@@ -400,6 +798,64 @@ public class ConfusionMatrix
         return getAccuracy() + getConfidence95Accuracy();
     }
 
+    /**
+     * Returns the confidence interval of the accuracy
+     *
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @param method     method; {@link ConfidenceInterval.Method#WILSON} is a good default
+     * @return interval
+     */
+    public ConfidenceInterval getAccuracyInterval(double confidence,
+            ConfidenceInterval.Method method)
+    {
+        return ConfidenceInterval.of(getCorrectSum(), getTotalSum(), confidence, method);
+    }
+
+    /**
+     * Returns the confidence intervals of precision of the gold labels
+     *
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @param method     method
+     * @return map
+     */
+    public Map<String, ConfidenceInterval> getPrecisionIntervals(double confidence,
+            ConfidenceInterval.Method method)
+    {
+        return labelIntervals(confidence, method, false);
+    }
+
+    /**
+     * Returns the confidence intervals of recall of the gold labels
+     *
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @param method     method
+     * @return map
+     */
+    public Map<String, ConfidenceInterval> getRecallIntervals(double confidence,
+            ConfidenceInterval.Method method)
+    {
+        return labelIntervals(confidence, method, true);
+    }
+
+    private Map<String, ConfidenceInterval> labelIntervals(double confidence,
+            ConfidenceInterval.Method method, boolean recall)
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+        double z = ConfidenceInterval.z(confidence);
+
+        Map<String, ConfidenceInterval> result = new LinkedHashMap<>();
+        for (int i = 0; i < m.goldCount; i++) {
+            int trials = recall ? m.rowSums[i] : m.colSums[i];
+            result.put(m.labels[i],
+                    ConfidenceInterval.of(m.diagonal[i], trials, confidence, z, method));
+        }
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
     /**
      * Returns the half of confidence interval on alpha = 95 (see
      * http://alias-i.com/lingpipe/docs/api/com/aliasi/classify/ConfusionMatrix.html#confidence95%28%29)
@@ -408,12 +864,12 @@ public class ConfusionMatrix
      */
     public double getConfidence95MacroFM()
     {
-        return 1.96 * Math.sqrt(getMacroFMeasure() * (1.0 - getMacroFMeasure()) / total);
+        return 1.96 * Math.sqrt(getMacroFMeasure() * (1.0 - getMacroFMeasure()) / getTotalSum());
     }
 
     public double getConfidence90MacroFM()
     {
-        return 1.66 * Math.sqrt(getMacroFMeasure() * (1.0 - getMacroFMeasure()) / total);
+        return 1.66 * Math.sqrt(getMacroFMeasure() * (1.0 - getMacroFMeasure()) / getTotalSum());
     }
 
     /**
@@ -443,6 +899,8 @@ public class ConfusionMatrix
      */
     public double getCohensKappa()
     {
+        long start = startTimer();
+
         // compute p (which is actually accuracy)
         double p = getAccuracy();
 
@@ -450,7 +908,7 @@ public class ConfusionMatrix
 
         // compute pe
         double pe = 0;
-        for (String label : this.allGoldLabels) {
+        for (String label : getGoldLabels()) {
             double row = getRowSum(label);
             double col = getColSum(label);
 
@@ -461,50 +919,455 @@ public class ConfusionMatrix
 
         pe = pe / getTotalSum();
 
-        return (p - pe) / (1 - pe);
+        double result = (p - pe) / (1 - pe);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
     }
 
-    private List<List<String>> prepareToString()
+    /**
+     * Computes weighted Kappa, e.g. with linear or quadratic weights for ordinal labels; the
+     * result is cached until the next change of the counts
+     *
+     * @param weights disagreement weights; must cover all labels of this matrix
+     * @return double
+     * @throws IllegalArgumentException if a label has no weights
+     */
+    public double getWeightedKappa(KappaWeights weights)
     {
-        // adding zeros
-        for (String row : allGoldLabels) {
-            if (!map.containsKey(row)) {
-                map.put(row, new TreeMap<String, Integer>());
-            }
+        long start = startTimer();
 
-            for (String col : allPredictedLabels) {
-                if (!map.get(row).containsKey(col)) {
-                    map.get(row).put(col, 0);
-                }
+        double result;
+        if (tracksModifications() && weights == kappaWeights
+                && weightedKappaVersion == modificationCount) {
+            result = weightedKappa;
+        }
+        else {
+            result = weights.kappa(this);
+            if (tracksModifications()) {
+                kappaWeights = weights;
+                weightedKappa = result;
+                weightedKappaVersion = modificationCount;
             }
         }
 
-        List<List<String>> result = new ArrayList<>();
-
-        List<String> allPredictedLabelsSorted = new ArrayList<>();
-        TreeSet<String> extraPredictedLabels = new TreeSet<>(allPredictedLabels);
-        extraPredictedLabels.removeAll(allGoldLabels);
-
-        allPredictedLabelsSorted.addAll(allGoldLabels);
-        allPredictedLabelsSorted.addAll(extraPredictedLabels);
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Computes the multi-class Matthews correlation coefficient (Gorodkin, 2004); 0 if
+     * undefined
+     *
+     * @return double in [-1, 1]
+     */
+    public double getMatthewsCorrelation()
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+        double total = m.total;
+        double products = 0;
+        double rowSquares = 0;
+        double colSquares = 0;
+        for (int i = 0; i < m.labels.length; i++) {
+            products += (double) m.rowSums[i] * m.colSums[i];
+            rowSquares += (double) m.rowSums[i] * m.rowSums[i];
+            colSquares += (double) m.colSums[i] * m.colSums[i];
+        }
+
+        double denominator = Math.sqrt(
+                (total * total - colSquares) * (total * total - rowSquares));
+        double result = denominator > 0 ? (m.correct * total - products) / denominator : 0;
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Returns the balanced accuracy (average recall over the gold labels)
+     *
+     * @return double
+     */
+    public double getBalancedAccuracy()
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+        double sum = 0;
+        for (int i = 0; i < m.goldCount; i++) {
+            if (m.rowSums[i] > 0) {
+                sum += (double) m.diagonal[i] / m.rowSums[i];
+            }
+        }
+
+        double result = sum / m.goldCount;
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Computes Scott's Pi; unlike Kappa, the expected agreement is computed from the pooled
+     * distribution of gold and predicted labels
+     *
+     * @return double
+     */
+    public double getScottsPi()
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+        double pe = 0;
+        for (int i = 0; i < m.labels.length; i++) {
+            double share = (double) (m.rowSums[i] + m.colSums[i]) / (2.0 * m.total);
+            pe += share * share;
+        }
+
+        double p = (double) m.correct / m.total;
+        double result = (p - pe) / (1 - pe);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Computes Krippendorff's Alpha for nominal data, taking gold and predicted labels as two
+     * coders of each instance
+     *
+     * @return double
+     */
+    public double getKrippendorffsAlpha()
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+
+        // pairable values and their expected coincidences
+        double n = 2.0 * m.total;
+        double expected = 0;
+        for (int i = 0; i < m.labels.length; i++) {
+            double values = m.rowSums[i] + m.colSums[i];
+            expected += values * (values - 1);
+        }
+
+        double result = ((n - 1) * 2.0 * m.correct - expected) / (n * (n - 1) - expected);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Returns specificity (true negative rate) for each gold label
+     *
+     * @return map
+     */
+    public Map<String, Double> getSpecificityForLabels()
+    {
+        Marginals m = marginals();
+        double[] values = new double[m.goldCount];
+        for (int i = 0; i < m.goldCount; i++) {
+            int negatives = m.total - m.rowSums[i];
+            values[i] = negatives > 0 ? (double) m.trueNegatives(i) / negatives : 0;
+        }
+
+        return m.goldLabelMap(values);
+    }
+
+    /**
+     * Returns specificity (true negative rate) for single label; labels that were only
+     * predicted or never seen have no positive instances
+     *
+     * @param label label
+     * @return double
+     */
+    public double getSpecificityForLabel(String label)
+    {
+        Marginals m = marginals();
+        int i = m.indexOf(label);
+
+        int negatives = i < 0 ? m.total : m.total - m.rowSums[i];
+        int trueNegatives = i < 0 ? m.total : m.trueNegatives(i);
+
+        return negatives > 0 ? (double) trueNegatives / negatives : 0;
+    }
+
+    /**
+     * Returns negative predictive value for each gold label
+     *
+     * @return map
+     */
+    public Map<String, Double> getNegativePredictiveValueForLabels()
+    {
+        Marginals m = marginals();
+        double[] values = new double[m.goldCount];
+        for (int i = 0; i < m.goldCount; i++) {
+            int predictedNegatives = m.total - m.colSums[i];
+            values[i] = predictedNegatives > 0
+                    ? (double) m.trueNegatives(i) / predictedNegatives : 0;
+        }
+
+        return m.goldLabelMap(values);
+    }
+
+    /**
+     * Returns negative predictive value for single label; labels that were only predicted or
+     * never seen have no positive instances
+     *
+     * @param label label
+     * @return double
+     */
+    public double getNegativePredictiveValueForLabel(String label)
+    {
+        Marginals m = marginals();
+        int i = m.indexOf(label);
+
+        int predictedNegatives = i < 0 ? m.total : m.total - m.colSums[i];
+        int trueNegatives = i < 0 ? m.total : m.trueNegatives(i);
+
+        return predictedNegatives > 0 ? (double) trueNegatives / predictedNegatives : 0;
+    }
+
+    /**
+     * Returns Jaccard index (true positives divided by the union of gold and predicted
+     * instances) for each gold label
+     *
+     * @return map
+     */
+    public Map<String, Double> getJaccardIndexForLabels()
+    {
+        Marginals m = marginals();
+        double[] values = new double[m.goldCount];
+        for (int i = 0; i < m.goldCount; i++) {
+            values[i] = jaccardIndex(m.diagonal[i], m.rowSums[i], m.colSums[i]);
+        }
+
+        return m.goldLabelMap(values);
+    }
+
+    /**
+     * Returns Jaccard index for single label; 0 for labels never seen
+     *
+     * @param label label
+     * @return double
+     */
+    public double getJaccardIndexForLabel(String label)
+    {
+        Marginals m = marginals();
+        int i = m.indexOf(label);
+
+        return i < 0 ? 0 : jaccardIndex(m.diagonal[i], m.rowSums[i], m.colSums[i]);
+    }
+
+    private static double jaccardIndex(int truePositives, int rowSum, int colSum)
+    {
+        int union = rowSum + colSum - truePositives;
+        return union > 0 ? (double) truePositives / union : 0;
+    }
+
+    /**
+     * Returns Jaccard index averaged over the gold labels
+     *
+     * @return double
+     */
+    public double getMacroJaccardIndex()
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+        double sum = 0;
+        for (int i = 0; i < m.goldCount; i++) {
+            sum += jaccardIndex(m.diagonal[i], m.rowSums[i], m.colSums[i]);
+        }
+
+        double result = sum / m.goldCount;
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Returns F-measure of the gold labels averaged with their number of gold instances as
+     * weights
+     *
+     * @return double
+     */
+    public double getWeightedFMeasure()
+    {
+        long start = startTimer();
+
+        Marginals m = marginals();
+        double sum = 0;
+        long support = 0;
+        for (int i = 0; i < m.goldCount; i++) {
+            int tp = m.diagonal[i];
+            double p = tp != 0 && m.colSums[i] > 0 ? (double) tp / m.colSums[i] : 0;
+            double r = tp != 0 && m.rowSums[i] > 0 ? (double) tp / m.rowSums[i] : 0;
+
+            if ((p + r) > 0) {
+                sum += (2 * p * r) / (p + r) * m.rowSums[i];
+            }
+            support += m.rowSums[i];
+        }
+
+        double result = sum / support;
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Returns a lazy iterator over the non-zero off-diagonal cells (confusions) in the order of
+     * gold and predicted labels; the matrix must not be changed during the iteration
+     *
+     * @return iterator
+     */
+    public Iterator<Confusion> confusionIterator()
+    {
+        final Iterator<Map.Entry<String, Map<String, Integer>>> rows = map.entrySet().iterator();
+
+        return new ConfusionScanner()
+        {
+            private String gold;
+
+            private Iterator<Map.Entry<String, Integer>> cells = Collections.emptyIterator();
+
+            @Override
+            protected Confusion advance()
+            {
+                while (true) {
+                    while (cells.hasNext()) {
+                        Map.Entry<String, Integer> cell = cells.next();
+                        if (cell.getValue() != 0 && !gold.equals(cell.getKey())) {
+                            return new Confusion(gold, cell.getKey(), cell.getValue());
+                        }
+                    }
+
+                    if (!rows.hasNext()) {
+                        return null;
+                    }
+
+                    Map.Entry<String, Map<String, Integer>> row = rows.next();
+                    gold = row.getKey();
+                    cells = row.getValue().entrySet().iterator();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the non-zero off-diagonal cells in the row of the given gold label; overridden
+     * by matrices that do not keep their counts in {@link #map}
+     *
+     * @param goldLabel gold label
+     * @return iterator
+     */
+    Iterator<Confusion> confusionIterator(final String goldLabel)
+    {
+        Map<String, Integer> row = map.get(goldLabel);
+        if (row == null) {
+            return Collections.emptyIterator();
+        }
+
+        final Iterator<Map.Entry<String, Integer>> cells = row.entrySet().iterator();
+
+        return new ConfusionScanner()
+        {
+            @Override
+            protected Confusion advance()
+            {
+                while (cells.hasNext()) {
+                    Map.Entry<String, Integer> cell = cells.next();
+                    if (cell.getValue() != 0 && !goldLabel.equals(cell.getKey())) {
+                        return new Confusion(goldLabel, cell.getKey(), cell.getValue());
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the n most frequent confusions (off-diagonal cells) sorted by
+     * {@link Confusion#BY_COUNT}; computed in one pass with a heap of n cells
+     *
+     * @param n number of confusions
+     * @return list of at most n confusions
+     */
+    public List<Confusion> getTopConfusions(int n)
+    {
+        if (n < 0) {
+            throw new IllegalArgumentException("Negative number of confusions: " + n);
+        }
+
+        long start = startTimer();
+
+        // the head is the least frequent of the kept confusions; the heap grows with the number
+        // of confusions, n may be far beyond it
+        PriorityQueue<Confusion> heap = new PriorityQueue<>(Math.min(n, 16) + 1,
+                Collections.reverseOrder(Confusion.BY_COUNT));
+
+        Iterator<Confusion> confusions = confusionIterator();
+        while (n > 0 && confusions.hasNext()) {
+            Confusion confusion = confusions.next();
+
+            if (heap.size() < n) {
+                heap.add(confusion);
+            }
+            else if (Confusion.BY_COUNT.compare(confusion, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(confusion);
+            }
+        }
+
+        List<Confusion> result = new ArrayList<>(heap);
+        Collections.sort(result, Confusion.BY_COUNT);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    /**
+     * Returns the labels the given gold label was mistaken for, sorted by
+     * {@link Confusion#BY_COUNT}
+     *
+     * @param goldLabel gold label
+     * @return confusions; empty if the label is not a gold label
+     */
+    public List<Confusion> getConfusionsFor(String goldLabel)
+    {
+        long start = startTimer();
+
+        List<Confusion> result = new ArrayList<>();
+        Iterator<Confusion> confusions = confusionIterator(goldLabel);
+        while (confusions.hasNext()) {
+            result.add(confusions.next());
+        }
+        Collections.sort(result, Confusion.BY_COUNT);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+        return result;
+    }
+
+    private List<List<String>> prepareToString()
+    {
+        List<List<String>> result = new ArrayList<>();
+
+        LabelOrder order = labelOrder();
+        int[][] cells = order.rows(this);
 
         // header
         List<String> header = new ArrayList<>();
         header.add("↓gold\\pred→");
-        header.addAll(allPredictedLabelsSorted);
+        header.addAll(Arrays.asList(order.labels));
         result.add(header);
 
-        for (String rowLabel : allGoldLabels) {
+        for (int g = 0; g < order.goldCount; g++) {
             List<String> row = new ArrayList<>();
-            row.add(rowLabel);
+            row.add(order.labels[g]);
 
-            for (String predictedLabel : allPredictedLabelsSorted) {
-                int value = 0;
-
-                if (this.map.containsKey(rowLabel) && this.map.get(rowLabel)
-                        .containsKey(predictedLabel)) {
-                    value = this.map.get(rowLabel).get(predictedLabel);
-                }
+            for (int value : cells[g]) {
                 row.add(Integer.toString(value));
             }
 
@@ -526,13 +1389,15 @@ public class ConfusionMatrix
             }
         }
 
-        String f = "%" + (maxEntryLength + 1) + "s";
-
         StringBuilder sb = new StringBuilder();
 
+        // right-aligned in columns of maxEntryLength + 1
         for (List<String> row : table) {
             for (String value : row) {
-                sb.append(String.format(f, value));
+                for (int i = value.length(); i <= maxEntryLength; i++) {
+                    sb.append(' ');
+                }
+                sb.append(value);
             }
             sb.append("\n");
         }
@@ -543,9 +1408,13 @@ public class ConfusionMatrix
     @Override
     public String toString()
     {
+        long start = startTimer();
+
         List<List<String>> table = prepareToString();
+        String result = tableToString(table);
 
-        return tableToString(table);
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+        return result;
     }
 
     /**
@@ -555,6 +1424,8 @@ public class ConfusionMatrix
      */
     public String toStringLatex()
     {
+        long start = startTimer();
+
         List<List<String>> table = prepareToString();
         StringBuilder sb = new StringBuilder();
 
@@ -580,38 +1451,71 @@ public class ConfusionMatrix
             sb.append("\\\\\n");
         }
 
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
         return sb.toString();
     }
 
     public String printNiceResults()
     {
-        return "Macro F-measure: " + String.format(Locale.ENGLISH, getFormat(), getMacroFMeasure())
-                + ", (CI at .95: " + String
-                .format(Locale.ENGLISH, getFormat(), getConfidence95MacroFM())
-                + "), micro F-measure (acc): " + String
-                .format(Locale.ENGLISH, getFormat(), getMicroFMeasure());
+        long start = startTimer();
+
+        DecimalFormatter f = getFormatter();
+        StringBuilder sb = new StringBuilder("Macro F-measure: ");
+        f.append(sb, getMacroFMeasure()).append(", (CI at .95: ");
+        f.append(sb, getConfidence95MacroFM()).append("), micro F-measure (acc): ");
+        f.append(sb, getMicroFMeasure());
+        String result = sb.toString();
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+        return result;
+    }
+
+    /**
+     * Prints the agreement and averaged metrics; all are computed from the same marginals
+     *
+     * @return string
+     */
+    public String printExtendedResults()
+    {
+        long start = startTimer();
+
+        DecimalFormatter f = getFormatter();
+        StringBuilder sb = new StringBuilder("MCC: ");
+        f.append(sb, getMatthewsCorrelation()).append(", balanced accuracy: ");
+        f.append(sb, getBalancedAccuracy()).append(", weighted F-measure: ");
+        f.append(sb, getWeightedFMeasure()).append(", macro Jaccard: ");
+        f.append(sb, getMacroJaccardIndex()).append(", Scott's Pi: ");
+        f.append(sb, getScottsPi()).append(", Krippendorff's Alpha: ");
+        f.append(sb, getKrippendorffsAlpha());
+        String result = sb.toString();
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+        return result;
     }
 
     public String printLabelPrecRecFm()
     {
+        long start = startTimer();
+
         Map<String, Double> precisionForLabels = getPrecisionForLabels();
         Map<String, Double> recallForLabels = getRecallForLabels();
         Map<String, Double> fMForLabels = getFMeasureForLabels();
 
+        DecimalFormatter f = getFormatter();
         StringBuilder sb = new StringBuilder("P/R/Fm: ");
 
         for (Map.Entry<String, Double> entry : precisionForLabels.entrySet()) {
             sb.append(entry.getKey());
             sb.append("=");
-            sb.append(String.format(Locale.ENGLISH, getFormat(), entry.getValue()));
+            f.append(sb, entry.getValue());
             sb.append("/");
-            sb.append(String.format(Locale.ENGLISH, getFormat(),
-                    recallForLabels.get(entry.getKey())));
+            f.append(sb, recallForLabels.get(entry.getKey()));
             sb.append("/");
-            sb.append(String.format(Locale.ENGLISH, getFormat(), fMForLabels.get(entry.getKey())));
+            f.append(sb, fMForLabels.get(entry.getKey()));
             sb.append(" ");
         }
 
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
         return sb.toString();
     }
 
@@ -645,16 +1549,22 @@ public class ConfusionMatrix
      */
     public static ConfusionMatrix createCumulativeMatrix(ConfusionMatrix... matrices)
     {
-        ConfusionMatrix result = new ConfusionMatrix();
+        long start = startTimer();
+
+        final ConfusionMatrix result = new ConfusionMatrix();
 
         for (ConfusionMatrix matrix : matrices) {
-            for (Map.Entry<String, Map<String, Integer>> gold : matrix.map.entrySet()) {
-                for (Map.Entry<String, Integer> actual : gold.getValue().entrySet()) {
-                    result.increaseValue(gold.getKey(), actual.getKey(), actual.getValue());
+            matrix.visitCells(new CellVisitor()
+            {
+                @Override
+                public void visit(String goldLabel, String predictedLabel, int value)
+                {
+                    result.increaseValue(goldLabel, predictedLabel, value);
                 }
-            }
+            });
         }
 
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
         return result;
     }
 
@@ -667,32 +1577,95 @@ public class ConfusionMatrix
      * for Computational Linguistics, EACL '12, pages 840-850, Stroudsburg, PA, USA.
      * Association for Computational Linguistics.
      *
+     * <p/>
+     * Computed in a single pass over the stored cells. The label series of the result is the
+     * one of {@link #createCumulativeMatrix(ConfusionMatrix...)} of the three matrices: the
+     * predicted labels of this matrix followed by the predicted labels of the transposed one.
+     *
      * @return new instance
      */
     public ConfusionMatrix getSymmetricConfusionMatrix()
     {
-        return createCumulativeMatrix(this, getTransposedMatrix(), getNegativeUnitMatrix());
+        long start = startTimer();
+
+        ConfusionMatrix result = copyOf(symmetricView());
+        appendLabelSeries(result.labelSeries, false, false);
+        appendLabelSeries(result.labelSeries, true, true);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
+        return result;
+    }
+
+    /**
+     * Returns a read-only view of C + C^T - InC, see {@link #getSymmetricConfusionMatrix()}; no
+     * counts are copied and the view reflects later updates of this matrix
+     *
+     * @return read-only view
+     */
+    public ConfusionMatrix symmetricView()
+    {
+        return new SymmetricConfusionMatrix(this);
     }
 
     /**
-     * Returns transposed confusion matrix (gold and predicted are switched)
+     * Returns transposed confusion matrix (gold and predicted are switched); the label series
+     * of the result contains the gold label of every instance of this matrix, row by row
      *
      * @return new instance
      */
     public ConfusionMatrix getTransposedMatrix()
     {
-        ConfusionMatrix result = new ConfusionMatrix();
+        long start = startTimer();
 
-        for (Map.Entry<String, Map<String, Integer>> gold : this.map.entrySet()) {
-            for (Map.Entry<String, Integer> predicted : gold.getValue().entrySet()) {
-                int value = predicted.getValue();
+        ConfusionMatrix result = copyOf(transposedView());
+        appendLabelSeries(result.labelSeries, false, true);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
+        return result;
+    }
+
+    /**
+     * Appends one label per instance of every positive cell, in the order in which the cells
+     * are added by {@link #increaseValue(String, String, int)} to a copy of this matrix or of
+     * its transposition
+     *
+     * @param series         series to extend
+     * @param predictedMajor if true, cells are visited column by column (as in the transposed
+     *                       matrix), otherwise row by row
+     * @param gold           if true, the gold label of each cell is appended, otherwise the
+     *                       predicted one
+     */
+    private void appendLabelSeries(List<String> series, boolean predictedMajor, boolean gold)
+    {
+        LabelOrder order = labelOrder();
+        int[][] rows = order.rows(this);
 
-                // add reverted values
-                result.increaseValue(predicted.getKey(), gold.getKey(), value);
+        List<String> goldLabels = Arrays.asList(order.labels).subList(0, order.goldCount);
+        Collection<String> predictedLabels = getPredictedLabels();
+
+        for (String outer : predictedMajor ? predictedLabels : goldLabels) {
+            for (String inner : predictedMajor ? goldLabels : predictedLabels) {
+                String g = predictedMajor ? inner : outer;
+                String p = predictedMajor ? outer : inner;
+
+                int value = rows[order.indexOf(g)][order.indexOf(p)];
+                String label = gold ? g : p;
+                for (int i = 0; i < value; i++) {
+                    series.add(label);
+                }
             }
         }
+    }
 
-        return result;
+    /**
+     * Returns a read-only transposed view (gold and predicted are switched); no counts are
+     * copied and the view reflects later updates of this matrix
+     *
+     * @return read-only view
+     */
+    public ConfusionMatrix transposedView()
+    {
+        return new TransposedConfusionMatrix(this);
     }
 
     /**
@@ -705,22 +1678,356 @@ public class ConfusionMatrix
      */
     protected ConfusionMatrix getNegativeUnitMatrix()
     {
-        ConfusionMatrix result = new ConfusionMatrix();
-
-        for (Map.Entry<String, Map<String, Integer>> gold : this.map.entrySet()) {
-            for (Map.Entry<String, Integer> predicted : gold.getValue().entrySet()) {
-                int value = predicted.getValue();
+        final ConfusionMatrix result = new ConfusionMatrix();
 
+        visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
                 // negative value on diagonal
-                if (gold.getKey().equals(predicted.getKey())) {
-                    result.increaseValue(gold.getKey(), predicted.getKey(), -value);
+                if (goldLabel.equals(predictedLabel)) {
+                    result.increaseValue(goldLabel, predictedLabel, -value);
                 }
                 else {
                     // zeros elsewhere
-                    result.increaseValue(gold.getKey(), predicted.getKey(), 0);
+                    result.increaseValue(goldLabel, predictedLabel, 0);
                 }
             }
+        });
+
+        return result;
+    }
+
+    /**
+     * Returns an immutable copy of the counts with precomputed marginals that can be shared
+     * between threads; must not run concurrently with updates of this matrix (see
+     * {@link ConcurrentConfusionMatrix} for a matrix that can be read while being written)
+     *
+     * @return snapshot
+     */
+    public ConfusionMatrixSnapshot snapshot()
+    {
+        SortedSet<String> goldLabels = getGoldLabels();
+        SortedSet<String> predictedLabels = getPredictedLabels();
+
+        List<String> labels = new ArrayList<>(goldLabels);
+        for (String label : predictedLabels) {
+            if (!goldLabels.contains(label)) {
+                labels.add(label);
+            }
+        }
+
+        final int n = labels.size();
+        final Map<String, Integer> index = new HashMap<>(n * 2);
+        boolean[] predicted = new boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            index.put(labels.get(i), i);
+            predicted[i] = predictedLabels.contains(labels.get(i));
+        }
+
+        final int[] counts = new int[n * n];
+        visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                counts[index.get(goldLabel) * n + index.get(predictedLabel)] += value;
+            }
+        });
+
+        return new ConfusionMatrixSnapshot(labels.toArray(new String[n]), goldLabels.size(),
+                predicted, counts);
+    }
+
+    /**
+     * Returns the changes of this matrix since the given snapshot by comparing all cells; from
+     * then on, changes are logged so that following deltas are created by
+     * {@link #diffSince(ConfusionMatrixDelta)} in time proportional to the number of changed
+     * cells. Starts a new chain of deltas.
+     *
+     * @param previous snapshot, typically of this matrix
+     * @return delta from version 0 (the snapshot) to version 1
+     */
+    public ConfusionMatrixDelta diffSince(ConfusionMatrixSnapshot previous)
+    {
+        long start = startTimer();
+
+        ConfusionMatrixDelta result = ConfusionMatrixDelta
+                .between(previous, snapshot(), startChangeLog());
+
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
+        return result;
+    }
+
+    /**
+     * Returns the changes of this matrix since the given delta, without comparing the cells
+     *
+     * @param previous one of the last {@value ChangeLog#MAX_GENERATIONS} deltas of this matrix
+     * @return delta from the version of the given delta to a new version
+     * @throws IllegalArgumentException if the delta was not created by this matrix since its
+     *                                  last {@link #diffSince(ConfusionMatrixSnapshot)}
+     * @throws IllegalStateException    if the changes since the delta are no longer kept
+     */
+    public ConfusionMatrixDelta diffSince(ConfusionMatrixDelta previous)
+    {
+        long start = startTimer();
+
+        ConfusionMatrixDelta result = diffSince(changeLog, previous);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
+        return result;
+    }
+
+    static ConfusionMatrixDelta diffSince(ChangeLog changeLog, ConfusionMatrixDelta previous)
+    {
+        if (changeLog == null || previous.source != changeLog) {
+            throw new IllegalArgumentException("Delta was not created by this matrix");
+        }
+
+        Map<String, Map<String, int[]>> changes = changeLog.close(previous.getVersion());
+        if (changes == null) {
+            throw new IllegalStateException(
+                    "Changes since version " + previous.getVersion() + " are no longer kept");
+        }
+
+        ConfusionMatrixDelta.Builder builder = new ConfusionMatrixDelta.Builder();
+        builder.addAll(changes);
+
+        return builder.build(previous.getVersion(), changeLog.getVersion(), changeLog);
+    }
+
+    /**
+     * Adds the changes of a delta (e.g. received from another process) to this matrix; the
+     * label series is not updated
+     *
+     * @param delta delta
+     */
+    public void applyDelta(ConfusionMatrixDelta delta)
+    {
+        long start = startTimer();
+
+        delta.applyTo(this);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.INGEST, start);
+    }
+
+    /**
+     * Writes the labels and non-zero cells of this matrix in a compact binary format to be
+     * summed by a {@link MatrixReducer}; the label series is not written
+     *
+     * @param out stream; flushed, but not closed
+     * @throws IOException if writing fails
+     */
+    public void writePartial(OutputStream out)
+            throws IOException
+    {
+        long start = startTimer();
+
+        MatrixReducer.write(this, out);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+    }
+
+    /**
+     * Writes labels, non-zero cells, per-label precision, recall and F-measure of the gold labels
+     * and aggregate metrics as a UTF-8 JSON object:
+     * <pre>
+     * {"labels":[...], "goldCount":2, "cells":[[gold, predicted, count], ...], "total":..,
+     *  "correct":.., "perLabel":[{"label":.., "support":.., "precision":.., "recall":..,
+     *  "fMeasure":..}, ...], "metrics":{"accuracy":.., "macroFMeasure":.., ...}}
+     * </pre>
+     * Labels are in the printed order (gold labels first), cells refer to them by index;
+     * undefined metrics are null.
+     *
+     * @param out stream; flushed, but not closed
+     * @throws IOException if writing fails
+     */
+    public void writeJson(OutputStream out)
+            throws IOException
+    {
+        long start = startTimer();
+
+        MatrixExporter.writeJson(this, out);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+    }
+
+    /**
+     * Writes the non-zero cells as UTF-8 CSV in long format with the header
+     * {@code gold,predicted,count}, one line per cell (RFC 4180)
+     *
+     * @param out stream; flushed, but not closed
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(OutputStream out)
+            throws IOException
+    {
+        long start = startTimer();
+
+        MatrixExporter.writeCsv(this, out);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+    }
+
+    /**
+     * Writes the labels and non-zero cells in a columnar little-endian layout that can be
+     * mapped without parsing: a header of six ints (magic "CMC1", number of labels n, number of
+     * gold labels, number of cells m, bytes of the labels, 0), n + 1 int offsets into the
+     * UTF-8 label bytes, the label bytes, then the int columns gold, predicted and count of
+     * length m (label indices in the printed order). Each section is padded to 8 bytes.
+     *
+     * @param channel channel; not closed
+     * @throws IOException if writing fails
+     */
+    public void writeColumnar(WritableByteChannel channel)
+            throws IOException
+    {
+        long start = startTimer();
+
+        MatrixExporter.writeColumnar(this, channel);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+    }
+
+    /**
+     * Writes the columnar layout of {@link #writeColumnar(WritableByteChannel)} to a stream
+     *
+     * @param out stream; flushed, but not closed
+     * @throws IOException if writing fails
+     */
+    public void writeColumnar(OutputStream out)
+            throws IOException
+    {
+        writeColumnar(Channels.newChannel(out));
+        out.flush();
+    }
+
+    /**
+     * Returns an immutable copy with precomputed marginals and metrics that can be shared
+     * between threads without copying or synchronization; must not run concurrently with
+     * updates of this matrix
+     *
+     * @return immutable matrix
+     */
+    public ImmutableConfusionMatrix freeze()
+    {
+        return ImmutableConfusionMatrix.of(this);
+    }
+
+    /**
+     * Returns an immutable copy with a minimal memory footprint (shared label dictionary,
+     * 16-bit cells if the counts fit, run-length encoded label series); all read methods are
+     * supported
+     *
+     * @return compact matrix
+     */
+    public ConfusionMatrix compact()
+    {
+        return compact(true);
+    }
+
+    /**
+     * Returns an immutable copy with a minimal memory footprint, see {@link #compact()}
+     *
+     * @param keepLabelSeries whether the label series is kept; if false, it is dropped
+     * @return compact matrix
+     */
+    public ConfusionMatrix compact(boolean keepLabelSeries)
+    {
+        return CompactConfusionMatrix.of(this, keepLabelSeries);
+    }
+
+    /**
+     * Returns a new matrix with labels renamed according to the mapping; labels mapped onto the
+     * same label are merged (e.g. {@code neg} and {@code very_neg} to {@code negative}). The
+     * result is a copy of {@link #projectView(Map)}: only the stored cells are re-indexed into
+     * the rows of the new matrix, the data are not re-read; the label series of the result is
+     * empty. Use the view to avoid the copy.
+     *
+     * @param mapping label &rarr; new label; labels not in the mapping stay unchanged
+     * @return new instance
+     */
+    public ConfusionMatrix project(Map<String, String> mapping)
+    {
+        long start = startTimer();
+
+        ConfusionMatrix result = copyOf(projectView(mapping));
+
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
+        return result;
+    }
+
+    /**
+     * Returns a read-only view with labels renamed according to the mapping, see
+     * {@link #project(Map)}; no counts are copied and the view reflects later updates of
+     * this matrix
+     *
+     * @param mapping label &rarr; new label; labels not in the mapping stay unchanged
+     * @return read-only view
+     */
+    public ConfusionMatrix projectView(Map<String, String> mapping)
+    {
+        return new ProjectedConfusionMatrix(this, mapping, null);
+    }
+
+    /**
+     * Returns a new matrix containing only the given labels; cells with any other gold or
+     * predicted label are dropped. The result is a copy of {@link #restrictView(Set)}, use the
+     * view to avoid the copy; the label series of the result is empty.
+     *
+     * @param labels labels to keep
+     * @return new instance
+     */
+    public ConfusionMatrix restrictTo(Set<String> labels)
+    {
+        long start = startTimer();
+
+        ConfusionMatrix result = copyOf(restrictView(labels));
+
+        stopTimer(ConfusionMatrixMetrics.Operation.MERGE, start);
+        return result;
+    }
+
+    /**
+     * Returns a read-only view containing only the given labels, see {@link #restrictTo(Set)};
+     * no counts are copied and the view reflects later updates of this matrix
+     *
+     * @param labels labels to keep
+     * @return read-only view
+     */
+    public ConfusionMatrix restrictView(Set<String> labels)
+    {
+        return new ProjectedConfusionMatrix(this, Collections.<String, String>emptyMap(), labels);
+    }
+
+    /**
+     * Copies labels and cells of the given matrix (typically a view) into a new instance
+     * without label series
+     *
+     * @param source source matrix
+     * @return new instance
+     */
+    protected static ConfusionMatrix copyOf(ConfusionMatrix source)
+    {
+        final ConfusionMatrix result = new ConfusionMatrix();
+
+        // labels are copied explicitly as they might have no stored cell left
+        for (String gold : source.getGoldLabels()) {
+            result.allGoldLabels.add(gold);
+            result.map.put(gold, new TreeMap<String, Integer>());
         }
+        result.allPredictedLabels.addAll(source.getPredictedLabels());
+
+        source.visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                result.addToCell(goldLabel, predictedLabel, value);
+            }
+        });
 
         return result;
     }
@@ -788,20 +2095,28 @@ public class ConfusionMatrix
      */
     public String printClassDistributionGold()
     {
+        long start = startTimer();
+
+        // percentages with one decimal place
+        DecimalFormatter f = DecimalFormatter.of(getLocale(), 1);
+        int total = getTotalSum();
+
         StringBuilder sb = new StringBuilder("Gold data distribution\t\t");
         sb.append("Predicted data distribution\n");
-        for (String goldLabel : this.allGoldLabels) {
+        for (String goldLabel : getGoldLabels()) {
             int rowSum = getRowSum(goldLabel);
             int colSum = getColSum(goldLabel);
 
-            sb.append(String.format(Locale.ENGLISH, "%s\t%d\t%.1f", goldLabel, rowSum,
-                    (double) rowSum / (double) getTotalSum() * 100.0));
-            sb.append("%\t");
-            sb.append(String.format(Locale.ENGLISH, "%d\t%.1f", colSum,
-                    (double) colSum / (double) getTotalSum() * 100.0));
-            sb.append("%\n");
+            sb.append(goldLabel).append('\t');
+            f.appendInteger(sb, rowSum).append('\t');
+            f.append(sb, (double) rowSum / (double) total * 100.0).append("%\t");
+            f.appendInteger(sb, colSum).append('\t');
+            f.append(sb, (double) colSum / (double) total * 100.0).append("%\n");
         }
-        sb.append(String.format(Locale.ENGLISH, "Sum\t%d%n", getTotalSum()));
+        sb.append("Sum\t");
+        f.appendInteger(sb, total);
+
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
         return sb.toString().trim();
     }
 
@@ -813,48 +2128,29 @@ public class ConfusionMatrix
      */
     protected List<List<String>> prepareToStringProbabilistic()
     {
-        // adding zeros
-        for (String row : allGoldLabels) {
-            if (!map.containsKey(row)) {
-                map.put(row, new TreeMap<String, Integer>());
-            }
-
-            for (String col : allPredictedLabels) {
-                if (!map.get(row).containsKey(col)) {
-                    map.get(row).put(col, 0);
-                }
-            }
-        }
-
         List<List<String>> result = new ArrayList<>();
 
-        List<String> allPredictedLabelsSorted = new ArrayList<>();
-        TreeSet<String> extraPredictedLabels = new TreeSet<>(allPredictedLabels);
-        extraPredictedLabels.removeAll(allGoldLabels);
-
-        allPredictedLabelsSorted.addAll(allGoldLabels);
-        allPredictedLabelsSorted.addAll(extraPredictedLabels);
+        DecimalFormatter f = getFormatter();
+        LabelOrder order = labelOrder();
+        int[][] cells = order.rows(this);
 
         // header
         List<String> header = new ArrayList<>();
         header.add("↓gold\\pred→");
-        header.addAll(allPredictedLabelsSorted);
+        header.addAll(Arrays.asList(order.labels));
         result.add(header);
 
-        for (String rowLabel : allGoldLabels) {
+        for (int g = 0; g < order.goldCount; g++) {
             List<String> row = new ArrayList<>();
-            row.add(rowLabel);
-
-            double rowSum = getRowSum(rowLabel);
+            row.add(order.labels[g]);
 
-            for (String predictedLabel : allPredictedLabelsSorted) {
-                double value = 0;
+            double rowSum = 0;
+            for (int value : cells[g]) {
+                rowSum += value;
+            }
 
-                if (this.map.containsKey(rowLabel) && this.map.get(rowLabel)
-                        .containsKey(predictedLabel)) {
-                    value = this.map.get(rowLabel).get(predictedLabel) / rowSum;
-                }
-                row.add(String.format(locale, getFormat(), value));
+            for (int value : cells[g]) {
+                row.add(f.format(value / rowSum));
             }
 
             result.add(row);
@@ -870,9 +2166,13 @@ public class ConfusionMatrix
      */
     public String toStringProbabilistic()
     {
+        long start = startTimer();
+
         List<List<String>> table = prepareToStringProbabilistic();
+        String result = tableToString(table);
 
-        return tableToString(table);
+        stopTimer(ConfusionMatrixMetrics.Operation.RENDER, start);
+        return result;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Changes of a {@link ConfusionMatrix} between two versions: the changed cells and their count
+ * differences. Created by {@link ConfusionMatrix#diffSince(ConfusionMatrixSnapshot)} and
+ * {@link ConfusionMatrix#diffSince(ConfusionMatrixDelta)}, applied by
+ * {@link ConfusionMatrix#applyDelta(ConfusionMatrixDelta)}. The binary format written by
+ * {@link #write(OutputStream)} holds only the labels of the changed cells and the cells as
+ * variable-length label indices and differences, so its size does not depend on the size of the
+ * matrix.
+ * <p/>
+ * Labels without any counts and the label series are not transferred.
+ *
+ * @author Ivan Habernal
+ */
+public final class ConfusionMatrixDelta
+{
+    /**
+     * "CMD1"
+     */
+    static final int MAGIC = 0x434d4431;
+
+    private final long baseVersion;
+
+    private final long version;
+
+    private final String[] labels;
+
+    private final int[] golds;
+
+    private final int[] predictions;
+
+    private final int[] values;
+
+    /**
+     * Log of the matrix that created this delta; null if read from a stream
+     */
+    final ChangeLog source;
+
+    private ConfusionMatrixDelta(long baseVersion, long version, String[] labels, int[] golds,
+            int[] predictions, int[] values, ChangeLog source)
+    {
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.labels = labels;
+        this.golds = golds;
+        this.predictions = predictions;
+        this.values = values;
+        this.source = source;
+    }
+
+    /**
+     * Collects changed cells; labels are numbered in the order of their first cell
+     */
+    static final class Builder
+    {
+        private final Map<String, Integer> labelIds = new HashMap<>();
+
+        private final List<String> labels = new ArrayList<>();
+
+        private int[] golds = new int[16];
+
+        private int[] predictions = new int[16];
+
+        private int[] values = new int[16];
+
+        private int size;
+
+        void add(String goldValue, String observedValue, int value)
+        {
+            if (value == 0) {
+                return;
+            }
+
+            if (size == values.length) {
+                golds = Arrays.copyOf(golds, size * 2);
+                predictions = Arrays.copyOf(predictions, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            golds[size] = labelId(goldValue);
+            predictions[size] = labelId(observedValue);
+            values[size] = value;
+            size++;
+        }
+
+        void addAll(Map<String, Map<String, int[]>> increments)
+        {
+            for (Map.Entry<String, Map<String, int[]>> row : increments.entrySet()) {
+                for (Map.Entry<String, int[]> cell : row.getValue().entrySet()) {
+                    add(row.getKey(), cell.getKey(), cell.getValue()[0]);
+                }
+            }
+        }
+
+        private int labelId(String label)
+        {
+            Integer id = labelIds.get(label);
+            if (id == null) {
+                id = labels.size();
+                labelIds.put(label, id);
+                labels.add(label);
+            }
+
+            return id;
+        }
+
+        ConfusionMatrixDelta build(long baseVersion, long version, ChangeLog source)
+        {
+            return new ConfusionMatrixDelta(baseVersion, version,
+                    labels.toArray(new String[labels.size()]), Arrays.copyOf(golds, size),
+                    Arrays.copyOf(predictions, size), Arrays.copyOf(values, size), source);
+        }
+    }
+
+    /**
+     * Compares all cells of two snapshots
+     *
+     * @param previous snapshot
+     * @param current  snapshot
+     * @param source   log started at version 1, or null
+     * @return delta from version 0 (the previous snapshot) to version 1
+     */
+    static ConfusionMatrixDelta between(ConfusionMatrixSnapshot previous,
+            ConfusionMatrixSnapshot current, ChangeLog source)
+    {
+        Builder builder = new Builder();
+
+        List<String> labels = current.getLabels();
+        int n = labels.size();
+        int[] previousIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            previousIndex[i] = previous.indexOf(labels.get(i));
+        }
+
+        for (int g = 0; g < n; g++) {
+            for (int p = 0; p < n; p++) {
+                int before = previousIndex[g] >= 0 && previousIndex[p] >= 0 ? previous
+                        .getValue(previousIndex[g], previousIndex[p]) : 0;
+                builder.add(labels.get(g), labels.get(p), current.getValue(g, p) - before);
+            }
+        }
+
+        // cells of labels that are no longer in the matrix
+        List<String> previousLabels = previous.getLabels();
+        int m = previousLabels.size();
+        for (int g = 0; g < m; g++) {
+            for (int p = 0; p < m; p++) {
+                if (current.indexOf(previousLabels.get(g)) < 0
+                        || current.indexOf(previousLabels.get(p)) < 0) {
+                    builder.add(previousLabels.get(g), previousLabels.get(p),
+                            -previous.getValue(g, p));
+                }
+            }
+        }
+
+        return builder.build(0, 1, source);
+    }
+
+    /**
+     * Returns the version of the matrix this delta is relative to; 0 for a snapshot
+     *
+     * @return version
+     */
+    public long getBaseVersion()
+    {
+        return baseVersion;
+    }
+
+    /**
+     * Returns the version of the matrix after this delta; deltas of a matrix form a chain where
+     * the base version of each delta is the version of the previous one
+     *
+     * @return version
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns the number of changed cells
+     *
+     * @return int
+     */
+    public int size()
+    {
+        return values.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return values.length == 0;
+    }
+
+    /**
+     * Returns the difference of the given cell
+     *
+     * @param goldValue     gold label
+     * @param observedValue predicted label
+     * @return difference; 0 if the cell has not changed
+     */
+    public int getValue(String goldValue, String observedValue)
+    {
+        int result = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (labels[golds[i]].equals(goldValue) && labels[predictions[i]]
+                    .equals(observedValue)) {
+                result += values[i];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the differences to the cells of the matrix
+     */
+    void applyTo(ConfusionMatrix matrix)
+    {
+        for (int i = 0; i < values.length; i++) {
+            matrix.addToCell(labels[golds[i]], labels[predictions[i]], values[i]);
+        }
+    }
+
+    /**
+     * Writes this delta in a compact binary format
+     *
+     * @param stream stream; flushed, but not closed
+     * @throws IOException if writing fails
+     */
+    public void write(OutputStream stream)
+            throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+        out.writeInt(MAGIC);
+        out.writeLong(baseVersion);
+        out.writeLong(version);
+
+        BinaryFormat.writeVarInt(out, labels.length);
+        for (String label : labels) {
+            out.writeUTF(label);
+        }
+
+        BinaryFormat.writeVarInt(out, values.length);
+        for (int i = 0; i < values.length; i++) {
+            BinaryFormat.writeVarInt(out, golds[i]);
+            BinaryFormat.writeVarInt(out, predictions[i]);
+            BinaryFormat.writeSignedVarInt(out, values[i]);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Reads a delta written by {@link #write(OutputStream)}; reads exactly one delta, so that
+     * deltas can follow each other in a stream
+     *
+     * @param stream stream
+     * @return delta
+     * @throws IOException if reading fails or the data is not a delta
+     */
+    public static ConfusionMatrixDelta read(InputStream stream)
+            throws IOException
+    {
+        DataInputStream in = new DataInputStream(stream);
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a confusion matrix delta");
+        }
+
+        long baseVersion = in.readLong();
+        long version = in.readLong();
+
+        int n = BinaryFormat.readCount(in);
+        String[] labels = new String[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = in.readUTF();
+        }
+
+        int size = BinaryFormat.readCount(in);
+        int[] golds = new int[size];
+        int[] predictions = new int[size];
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            golds[i] = BinaryFormat.readVarInt(in);
+            predictions[i] = BinaryFormat.readVarInt(in);
+            values[i] = BinaryFormat.readSignedVarInt(in);
+
+            if (golds[i] < 0 || golds[i] >= n || predictions[i] < 0 || predictions[i] >= n) {
+                throw new IOException("Cell out of range: " + golds[i] + ", " + predictions[i]);
+            }
+        }
+
+        return new ConfusionMatrixDelta(baseVersion, version, labels, golds, predictions, values,
+                null);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConfusionMatrixDelta{" + baseVersion + " -> " + version + ", " + values.length
+                + " cells}";
+    }
+}
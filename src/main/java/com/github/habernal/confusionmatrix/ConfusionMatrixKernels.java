@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+/**
+ * Primitive array loops behind the metrics of {@link ConfusionMatrixSnapshot} (marginal sums,
+ * per-label F-measures and the expected agreement of Cohen's Kappa), so that they can be
+ * replaced by vectorized implementations. The implementation is chosen once per JVM: the class
+ * given by the system property {@value #PROPERTY} ({@code scalar} for {@link #SCALAR}),
+ * otherwise the first implementation registered in
+ * {@code META-INF/services/com.github.habernal.confusionmatrix.ConfusionMatrixKernels} that can
+ * be loaded, otherwise {@link #SCALAR}.
+ * <p/>
+ * Implementations must give exactly the same results as {@link #SCALAR}.
+ *
+ * @author Ivan Habernal
+ */
+public interface ConfusionMatrixKernels
+{
+    /**
+     * System property with the class name of the implementation
+     */
+    String PROPERTY = "confusionmatrix.kernels";
+
+    /**
+     * Computes the row and column sums of a square matrix
+     *
+     * @param counts  counts, row-major
+     * @param n       size of the matrix
+     * @param rowSums output, overwritten
+     * @param colSums output, overwritten
+     */
+    void marginals(int[] counts, int n, int[] rowSums, int[] colSums);
+
+    /**
+     * Computes the F1-measure of each label as {@code 2pr / (p + r)}, see
+     * {@link ConfusionMatrix#getFMeasureForLabels()}
+     *
+     * @param truePositives diagonal
+     * @param rowSums       row sums
+     * @param colSums       column sums
+     * @param length        number of labels
+     * @param result        output, overwritten
+     */
+    void f1Measures(int[] truePositives, int[] rowSums, int[] colSums, int length,
+            double[] result);
+
+    /**
+     * Computes the F-measure of each label as {@code (1 + b^2) (pr / (b^2 p + r))}, see
+     * {@link ConfusionMatrix#getFMeasureForLabels(double)}
+     *
+     * @param truePositives diagonal
+     * @param rowSums       row sums
+     * @param colSums       column sums
+     * @param length        number of labels
+     * @param beta          beta
+     * @param result        output, overwritten
+     */
+    void fMeasures(int[] truePositives, int[] rowSums, int[] colSums, int length, double beta,
+            double[] result);
+
+    /**
+     * Computes the sum of {@code a[i] * b[i]} in 64-bit integers
+     *
+     * @param a      first array
+     * @param b      second array
+     * @param length number of elements
+     * @return sum
+     */
+    long sumOfProducts(int[] a, int[] b, int length);
+
+    /**
+     * Plain loops
+     */
+    ConfusionMatrixKernels SCALAR = new ScalarKernels();
+}
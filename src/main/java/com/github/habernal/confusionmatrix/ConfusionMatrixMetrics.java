@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+/**
+ * Listener for timing the hot paths of {@link ConfusionMatrix} (ingestion, metric computation,
+ * merging and rendering). The implementation is chosen once per JVM: the class given by the
+ * system property {@value #PROPERTY}, otherwise the first implementation registered in
+ * {@code META-INF/services/com.github.habernal.confusionmatrix.ConfusionMatrixMetrics}, otherwise
+ * {@link #NOOP}. With {@link #NOOP} the instrumentation is guarded by a static final flag and
+ * removed by the JIT.
+ * <p/>
+ * {@link HistogramMetricsRecorder} is an in-process recorder that can be used directly. Gauges
+ * of a matrix are available through {@link ConfusionMatrix#getLabelCount()},
+ * {@link ConfusionMatrix#getNonZeroCellCount()}, {@link ConfusionMatrix#estimateRetainedBytes()}
+ * and the size of {@link ConfusionMatrix#getLabelSeries()}.
+ *
+ * @author Ivan Habernal
+ */
+public interface ConfusionMatrixMetrics
+{
+    /**
+     * System property with the class name of the implementation
+     */
+    String PROPERTY = "confusionmatrix.metrics";
+
+    enum Operation
+    {
+        /**
+         * {@code increaseValue}
+         */
+        INGEST,
+
+        /**
+         * aggregated metrics such as F-measure and Kappa
+         */
+        METRIC,
+
+        /**
+         * cumulative matrices and projections
+         */
+        MERGE,
+
+        /**
+         * printing methods
+         */
+        RENDER
+    }
+
+    /**
+     * Whether anything is recorded; evaluated once when the implementation is installed
+     *
+     * @return boolean
+     */
+    boolean isEnabled();
+
+    /**
+     * Records a single call; must be thread-safe
+     *
+     * @param operation operation type
+     * @param nanos     duration in nanoseconds
+     */
+    void record(Operation operation, long nanos);
+
+    /**
+     * Records nothing
+     */
+    ConfusionMatrixMetrics NOOP = new ConfusionMatrixMetrics()
+    {
+        @Override
+        public boolean isEnabled()
+        {
+            return false;
+        }
+
+        @Override
+        public void record(Operation operation, long nanos)
+        {
+        }
+    };
+}
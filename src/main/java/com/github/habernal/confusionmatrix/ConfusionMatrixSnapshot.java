@@ -0,0 +1,556 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Immutable, consistent copy of the counts of a confusion matrix with precomputed marginals.
+ * Labels are ordered as in {@link ConfusionMatrix#toString()}: gold labels first (sorted), then
+ * labels that were only predicted (sorted); counts are a dense row-major array in this order.
+ * Snapshots are safe to share between threads.
+ *
+ * @author Ivan Habernal
+ */
+public final class ConfusionMatrixSnapshot
+{
+    /**
+     * Label role flags used by {@link #fromDense(String[], int[], int[], int)}
+     */
+    static final int ROLE_GOLD = 1;
+
+    static final int ROLE_PREDICTED = 2;
+
+    private static final ConfusionMatrixKernels KERNELS = loadKernels();
+
+    private final String[] labels;
+
+    private final int goldLabelCount;
+
+    private final boolean[] predicted;
+
+    private final int[] counts;
+
+    private final int[] rowSums;
+
+    private final int[] colSums;
+
+    private final int[] diagonal;
+
+    private final int total;
+
+    private final int correct;
+
+    private final Map<String, Integer> index;
+
+    private final SortedSet<String> goldLabels;
+
+    private final SortedSet<String> predictedLabels;
+
+    /**
+     * Creates a snapshot; the arrays are not copied
+     *
+     * @param labels         gold labels (sorted) followed by only predicted labels (sorted)
+     * @param goldLabelCount number of gold labels at the beginning of labels
+     * @param predicted      whether the label is a predicted label
+     * @param counts         row-major counts, labels.length^2
+     */
+    ConfusionMatrixSnapshot(String[] labels, int goldLabelCount, boolean[] predicted,
+            int[] counts)
+    {
+        int n = labels.length;
+
+        this.labels = labels;
+        this.goldLabelCount = goldLabelCount;
+        this.predicted = predicted;
+        this.counts = counts;
+        this.rowSums = new int[n];
+        this.colSums = new int[n];
+        this.diagonal = new int[n];
+        this.index = new HashMap<>(n * 2);
+
+        TreeSet<String> gold = new TreeSet<>();
+        TreeSet<String> pred = new TreeSet<>();
+
+        int sum = 0;
+        int correctSum = 0;
+
+        for (int i = 0; i < n; i++) {
+            index.put(labels[i], i);
+
+            if (i < goldLabelCount) {
+                gold.add(labels[i]);
+            }
+            if (predicted[i]) {
+                pred.add(labels[i]);
+            }
+
+            diagonal[i] = counts[i * n + i];
+            correctSum += diagonal[i];
+        }
+
+        KERNELS.marginals(counts, n, rowSums, colSums);
+        for (int i = 0; i < n; i++) {
+            sum += rowSums[i];
+        }
+
+        this.total = sum;
+        this.correct = correctSum;
+        this.goldLabels = Collections.unmodifiableSortedSet(gold);
+        this.predictedLabels = Collections.unmodifiableSortedSet(pred);
+    }
+
+    private static ConfusionMatrixKernels loadKernels()
+    {
+        String className = System.getProperty(ConfusionMatrixKernels.PROPERTY);
+
+        if ("scalar".equals(className)) {
+            return ConfusionMatrixKernels.SCALAR;
+        }
+
+        if (className != null) {
+            try {
+                return (ConfusionMatrixKernels) Class.forName(className).getDeclaredConstructor()
+                        .newInstance();
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalStateException("Cannot instantiate kernels " + className, e);
+            }
+        }
+
+        // e.g. vectorized kernels on a JVM without the required module
+        try {
+            Iterator<ConfusionMatrixKernels> services = ServiceLoader
+                    .load(ConfusionMatrixKernels.class).iterator();
+            if (services.hasNext()) {
+                return services.next();
+            }
+        }
+        catch (ServiceConfigurationError | LinkageError e) {
+            return ConfusionMatrixKernels.SCALAR;
+        }
+
+        return ConfusionMatrixKernels.SCALAR;
+    }
+
+    /**
+     * Returns the kernels used by snapshots in this JVM
+     *
+     * @return kernels; {@link ConfusionMatrixKernels#SCALAR} if none is installed
+     */
+    public static ConfusionMatrixKernels getKernels()
+    {
+        return KERNELS;
+    }
+
+    /**
+     * Creates a snapshot from dense counts indexed by arbitrary label ids
+     *
+     * @param labelsById label for each id
+     * @param roles      for each id, bit 1 if the label is a gold label, bit 2 if predicted
+     * @param counts     counts, row-major
+     * @param stride     row length of counts
+     * @return snapshot
+     */
+    static ConfusionMatrixSnapshot fromDense(String[] labelsById, int[] roles, int[] counts,
+            int stride)
+    {
+        TreeMap<String, Integer> gold = new TreeMap<>();
+        TreeMap<String, Integer> extra = new TreeMap<>();
+
+        for (int id = 0; id < labelsById.length; id++) {
+            if ((roles[id] & ROLE_GOLD) != 0) {
+                gold.put(labelsById[id], id);
+            }
+            else if ((roles[id] & ROLE_PREDICTED) != 0) {
+                extra.put(labelsById[id], id);
+            }
+        }
+
+        int n = gold.size() + extra.size();
+        String[] labels = new String[n];
+        int[] ids = new int[n];
+        boolean[] predicted = new boolean[n];
+
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : gold.entrySet()) {
+            labels[i] = entry.getKey();
+            ids[i] = entry.getValue();
+            predicted[i] = (roles[ids[i]] & ROLE_PREDICTED) != 0;
+            i++;
+        }
+        for (Map.Entry<String, Integer> entry : extra.entrySet()) {
+            labels[i] = entry.getKey();
+            ids[i] = entry.getValue();
+            predicted[i] = true;
+            i++;
+        }
+
+        // only gold rows can be non-zero
+        int[] result = new int[n * n];
+        for (int r = 0; r < gold.size(); r++) {
+            int sourceRow = ids[r] * stride;
+            for (int c = 0; c < n; c++) {
+                result[r * n + c] = counts[sourceRow + ids[c]];
+            }
+        }
+
+        return new ConfusionMatrixSnapshot(labels, gold.size(), predicted, result);
+    }
+
+    /**
+     * Returns all labels; gold labels first, then labels that were only predicted
+     *
+     * @return unmodifiable list
+     */
+    public List<String> getLabels()
+    {
+        return Collections.unmodifiableList(Arrays.asList(labels));
+    }
+
+    public SortedSet<String> getGoldLabels()
+    {
+        return goldLabels;
+    }
+
+    public SortedSet<String> getPredictedLabels()
+    {
+        return predictedLabels;
+    }
+
+    /**
+     * Returns the number of labels (size of the matrix)
+     *
+     * @return int
+     */
+    public int size()
+    {
+        return labels.length;
+    }
+
+    /**
+     * Returns the index of the label in {@link #getLabels()}
+     *
+     * @param label label
+     * @return index or -1 if the label is unknown
+     */
+    public int indexOf(String label)
+    {
+        Integer i = index.get(label);
+        return i != null ? i : -1;
+    }
+
+    public int getValue(int goldIndex, int predictedIndex)
+    {
+        return counts[goldIndex * labels.length + predictedIndex];
+    }
+
+    public int getValue(String goldValue, String observedValue)
+    {
+        int g = indexOf(goldValue);
+        int p = indexOf(observedValue);
+
+        return g >= 0 && p >= 0 ? getValue(g, p) : 0;
+    }
+
+    public int getRowSum(int index)
+    {
+        return rowSums[index];
+    }
+
+    public int getRowSum(String label)
+    {
+        int i = indexOf(label);
+        return i >= 0 ? rowSums[i] : 0;
+    }
+
+    public int getColSum(int index)
+    {
+        return colSums[index];
+    }
+
+    public int getColSum(String label)
+    {
+        int i = indexOf(label);
+        return i >= 0 ? colSums[i] : 0;
+    }
+
+    public int getTotalSum()
+    {
+        return total;
+    }
+
+    public int getCorrectSum()
+    {
+        return correct;
+    }
+
+    /**
+     * Returns the F1-measure of each gold label, as {@link ConfusionMatrix#getFMeasureForLabels()}
+     *
+     * @return values in the order of {@link #getGoldLabels()}
+     */
+    public double[] getFMeasures()
+    {
+        double[] result = new double[goldLabelCount];
+        KERNELS.f1Measures(diagonal, rowSums, colSums, goldLabelCount, result);
+
+        return result;
+    }
+
+    /**
+     * Returns the F-measure of each gold label, as
+     * {@link ConfusionMatrix#getFMeasureForLabels(double)}
+     *
+     * @param beta beta parameter
+     * @return values in the order of {@link #getGoldLabels()}
+     */
+    public double[] getFMeasures(double beta)
+    {
+        double[] result = new double[goldLabelCount];
+        KERNELS.fMeasures(diagonal, rowSums, colSums, goldLabelCount, beta, result);
+
+        return result;
+    }
+
+    private static double average(double[] values)
+    {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+
+        return sum / values.length;
+    }
+
+    /**
+     * Macro-averaged F-measure, see {@link ConfusionMatrix#getMacroFMeasure()}
+     *
+     * @return double
+     */
+    public double getMacroFMeasure()
+    {
+        return average(getFMeasures());
+    }
+
+    /**
+     * Macro-averaged F-measure with beta parameter, see
+     * {@link ConfusionMatrix#getMacroFMeasure(double)}
+     *
+     * @param beta beta parameter
+     * @return double
+     */
+    public double getMacroFMeasure(double beta)
+    {
+        return average(getFMeasures(beta));
+    }
+
+    /**
+     * Returns the expected agreement of Cohen's Kappa (sum of products of the marginals over
+     * the gold labels, divided by the squared total)
+     *
+     * @return double
+     */
+    public double getExpectedAgreement()
+    {
+        return (double) KERNELS.sumOfProducts(rowSums, colSums, goldLabelCount) / total / total;
+    }
+
+    /**
+     * Cohen's Kappa, see {@link ConfusionMatrix#getCohensKappa()}
+     *
+     * @return double
+     */
+    public double getCohensKappa()
+    {
+        double pe = getExpectedAgreement();
+
+        return ((double) correct / (double) total - pe) / (1 - pe);
+    }
+
+    /**
+     * Returns a read-only confusion matrix backed by this snapshot (nothing is copied), so that
+     * all metrics and printing methods can be used on it
+     *
+     * @return read-only confusion matrix
+     */
+    public ConfusionMatrix asConfusionMatrix()
+    {
+        return new SnapshotConfusionMatrix(this);
+    }
+
+    /**
+     * Read-only confusion matrix over a snapshot
+     */
+    private static class SnapshotConfusionMatrix
+            extends ReadOnlyConfusionMatrix
+    {
+        private final ConfusionMatrixSnapshot snapshot;
+
+        SnapshotConfusionMatrix(ConfusionMatrixSnapshot snapshot)
+        {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        protected boolean tracksModifications()
+        {
+            return true;
+        }
+
+        @Override
+        public int getTotalSum()
+        {
+            return snapshot.total;
+        }
+
+        @Override
+        public int getCorrectSum()
+        {
+            return snapshot.correct;
+        }
+
+        @Override
+        public int getValue(String goldValue, String observedValue)
+        {
+            return snapshot.getValue(goldValue, observedValue);
+        }
+
+        @Override
+        public int getRowSum(String label)
+        {
+            return snapshot.getRowSum(label);
+        }
+
+        @Override
+        public int getColSum(String label)
+        {
+            return snapshot.getColSum(label);
+        }
+
+        @Override
+        public SortedSet<String> getGoldLabels()
+        {
+            return snapshot.goldLabels;
+        }
+
+        @Override
+        public SortedSet<String> getPredictedLabels()
+        {
+            return snapshot.predictedLabels;
+        }
+
+        @Override
+        public double getMacroFMeasure()
+        {
+            long start = startTimer();
+            double result = snapshot.getMacroFMeasure();
+
+            stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+            return result;
+        }
+
+        @Override
+        public double getMacroFMeasure(double beta)
+        {
+            long start = startTimer();
+            double result = snapshot.getMacroFMeasure(beta);
+
+            stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+            return result;
+        }
+
+        @Override
+        public double getCohensKappa()
+        {
+            long start = startTimer();
+            double result = snapshot.getCohensKappa();
+
+            stopTimer(ConfusionMatrixMetrics.Operation.METRIC, start);
+            return result;
+        }
+
+        /**
+         * Walks the cells of the gold rows from first (inclusive) to last (exclusive)
+         */
+        private ConfusionScanner scanRows(final int first, final int last)
+        {
+            final String[] labels = snapshot.labels;
+            final int[] counts = snapshot.counts;
+            final int n = labels.length;
+
+            return new ConfusionScanner()
+            {
+                private int gold = first;
+
+                private int predicted = -1;
+
+                @Override
+                protected Confusion advance()
+                {
+                    while (gold < last) {
+                        predicted++;
+                        if (predicted == n) {
+                            gold++;
+                            predicted = -1;
+                            continue;
+                        }
+
+                        int value = counts[gold * n + predicted];
+                        if (predicted != gold && value != 0) {
+                            return new Confusion(labels[gold], labels[predicted], value);
+                        }
+                    }
+
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public Iterator<Confusion> confusionIterator()
+        {
+            return scanRows(0, snapshot.goldLabelCount);
+        }
+
+        @Override
+        Iterator<Confusion> confusionIterator(String goldLabel)
+        {
+            Integer g = snapshot.index.get(goldLabel);
+            if (g == null || g >= snapshot.goldLabelCount) {
+                return Collections.emptyIterator();
+            }
+
+            return scanRows(g, g + 1);
+        }
+
+        @Override
+        protected void visitCells(CellVisitor visitor)
+        {
+            int n = snapshot.labels.length;
+
+            for (int g = 0; g < snapshot.goldLabelCount; g++) {
+                for (int p = 0; p < n; p++) {
+                    int value = snapshot.counts[g * n + p];
+                    if (value != 0) {
+                        visitor.visit(snapshot.labels[g], snapshot.labels[p], value);
+                    }
+                }
+            }
+        }
+    }
+}
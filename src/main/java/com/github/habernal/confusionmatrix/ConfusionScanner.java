@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the non-zero off-diagonal cells of a matrix; subclasses return the next
+ * cell from {@link #advance()}
+ *
+ * @author Ivan Habernal
+ */
+abstract class ConfusionScanner
+        implements Iterator<Confusion>
+{
+    private Confusion next;
+
+    private boolean done;
+
+    /**
+     * Returns the next non-zero off-diagonal cell
+     *
+     * @return cell or null if there are no more cells
+     */
+    protected abstract Confusion advance();
+
+    /**
+     * Scans all gold x all labels of the matrix by {@link ConfusionMatrix#getValue(String,
+     * String)}; used for matrices that may visit the same cell more than once
+     *
+     * @param matrix matrix
+     * @return iterator
+     */
+    static ConfusionScanner scan(final ConfusionMatrix matrix)
+    {
+        final LabelOrder order = matrix.labelOrder();
+
+        return new ConfusionScanner()
+        {
+            private int gold;
+
+            private int predicted = -1;
+
+            @Override
+            protected Confusion advance()
+            {
+                while (gold < order.goldCount) {
+                    predicted++;
+                    if (predicted == order.size()) {
+                        gold++;
+                        predicted = -1;
+                        continue;
+                    }
+
+                    if (predicted != gold) {
+                        String g = order.labels[gold];
+                        String p = order.labels[predicted];
+
+                        int value = matrix.getValue(g, p);
+                        if (value != 0) {
+                            return new Confusion(g, p, value);
+                        }
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Scans the row of the gold label over all labels of the matrix by
+     * {@link ConfusionMatrix#getValue(String, String)}
+     *
+     * @param matrix matrix
+     * @param gold   gold label
+     * @return iterator
+     */
+    static ConfusionScanner scanRow(final ConfusionMatrix matrix, final String gold)
+    {
+        final LabelOrder order = matrix.labelOrder();
+
+        return new ConfusionScanner()
+        {
+            private int predicted = -1;
+
+            @Override
+            protected Confusion advance()
+            {
+                while (++predicted < order.size()) {
+                    String p = order.labels[predicted];
+                    if (!p.equals(gold)) {
+                        int value = matrix.getValue(gold, p);
+                        if (value != 0) {
+                            return new Confusion(gold, p, value);
+                        }
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next == null && !done) {
+            next = advance();
+            done = next == null;
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public Confusion next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Confusion result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+}
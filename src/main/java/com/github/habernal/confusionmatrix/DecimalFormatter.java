@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Formats doubles with a fixed number of decimal places exactly as
+ * {@code String.format(locale, "%.nf", value)} does (half-up rounding of the shortest decimal
+ * representation, localized digits and decimal separator), but appends them directly to a
+ * {@link StringBuilder}. Values are rounded in long arithmetic; only values close to a rounding
+ * tie (or very large ones) go through {@link BigDecimal}. Instances are immutable and shared
+ * per locale and number of decimal places.
+ *
+ * @author Ivan Habernal
+ */
+final class DecimalFormatter
+{
+    private static final ConcurrentMap<Key, DecimalFormatter> INSTANCES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Longs are exact for all scaled values below this bound
+     */
+    private static final double MAX_FAST = 1e12;
+
+    /**
+     * Fractions closer to one half are rounded by {@link BigDecimal}
+     */
+    private static final double TIE_MARGIN = 1e-3;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Locale locale;
+
+    private final int decimalPlaces;
+
+    private final char zeroDigit;
+
+    private final char decimalSeparator;
+
+    private DecimalFormatter(Locale locale, int decimalPlaces)
+    {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+
+        this.locale = locale;
+        this.decimalPlaces = decimalPlaces;
+        this.zeroDigit = symbols.getZeroDigit();
+        this.decimalSeparator = symbols.getDecimalSeparator();
+    }
+
+    /**
+     * Returns the shared formatter
+     *
+     * @param locale        locale
+     * @param decimalPlaces number of decimal places, at least 1
+     * @return formatter
+     */
+    static DecimalFormatter of(Locale locale, int decimalPlaces)
+    {
+        Key key = new Key(locale, decimalPlaces);
+
+        DecimalFormatter result = INSTANCES.get(key);
+        if (result == null) {
+            result = new DecimalFormatter(locale, decimalPlaces);
+            DecimalFormatter existing = INSTANCES.putIfAbsent(key, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+
+        return result;
+    }
+
+    boolean matches(Locale locale, int decimalPlaces)
+    {
+        return this.decimalPlaces == decimalPlaces && this.locale.equals(locale);
+    }
+
+    String format(double value)
+    {
+        return append(new StringBuilder(decimalPlaces + 8), value).toString();
+    }
+
+    /**
+     * Appends the value with the decimal places of this formatter
+     *
+     * @param sb    builder
+     * @param value value
+     * @return the builder
+     */
+    StringBuilder append(StringBuilder sb, double value)
+    {
+        if (Double.isNaN(value)) {
+            return sb.append("NaN");
+        }
+        if (Double.isInfinite(value)) {
+            return sb.append(value > 0 ? "Infinity" : "-Infinity");
+        }
+
+        // the sign of negative values rounded to zero (and of -0.0) is kept
+        if (Double.doubleToRawLongBits(value) < 0) {
+            sb.append('-');
+            value = -value;
+        }
+
+        if (decimalPlaces < POWERS_OF_TEN.length) {
+            double scaled = value * POWERS_OF_TEN[decimalPlaces];
+            if (scaled < MAX_FAST) {
+                long floor = (long) scaled;
+                double fraction = scaled - floor;
+
+                if (Math.abs(fraction - 0.5) > TIE_MARGIN) {
+                    long rounded = fraction > 0.5 ? floor + 1 : floor;
+                    long unit = POWERS_OF_TEN[decimalPlaces];
+
+                    appendDigits(sb, rounded / unit, 1);
+                    sb.append(decimalSeparator);
+                    appendDigits(sb, rounded % unit, decimalPlaces);
+                    return sb;
+                }
+            }
+        }
+
+        // same rounding as java.util.Formatter
+        return appendLocalized(sb, new BigDecimal(Double.toString(value))
+                .setScale(decimalPlaces, RoundingMode.HALF_UP).toPlainString());
+    }
+
+    /**
+     * Appends a non-negative integer with localized digits
+     *
+     * @param sb    builder
+     * @param value value
+     * @return the builder
+     */
+    StringBuilder appendInteger(StringBuilder sb, long value)
+    {
+        if (value < 0) {
+            sb.append('-');
+            if (value == Long.MIN_VALUE) {
+                return appendLocalized(sb, Long.toString(value).substring(1));
+            }
+            value = -value;
+        }
+
+        return appendDigits(sb, value, 1);
+    }
+
+    /**
+     * Appends the digits of a non-negative value, left-padded with zeros to the given width
+     */
+    private StringBuilder appendDigits(StringBuilder sb, long value, int width)
+    {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+
+        for (int i = digits; i < width; i++) {
+            sb.append(zeroDigit);
+        }
+
+        if (zeroDigit == '0') {
+            return sb.append(value);
+        }
+
+        for (int i = digits - 1; i >= 0; i--) {
+            sb.append((char) (zeroDigit + (value / POWERS_OF_TEN[i]) % 10));
+        }
+
+        return sb;
+    }
+
+    /**
+     * Appends a plain decimal number (digits and an optional '.') with localized symbols
+     */
+    private StringBuilder appendLocalized(StringBuilder sb, String plain)
+    {
+        for (int i = 0; i < plain.length(); i++) {
+            char c = plain.charAt(i);
+            sb.append(c == '.' ? decimalSeparator : (char) (c - '0' + zeroDigit));
+        }
+
+        return sb;
+    }
+
+    private static final class Key
+    {
+        private final Locale locale;
+
+        private final int decimalPlaces;
+
+        Key(Locale locale, int decimalPlaces)
+        {
+            this.locale = locale;
+            this.decimalPlaces = decimalPlaces;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Key && ((Key) o).decimalPlaces == decimalPlaces && ((Key) o).locale
+                    .equals(locale);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return locale.hashCode() * 31 + decimalPlaces;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Confusion matrix over a fixed, shared {@link LabelSpace}. Counts are kept in int arrays
+ * indexed by the label space (a row is allocated when its gold label occurs first), so the
+ * matrix holds no label structures of its own. Matrices over the same label space are merged
+ * and compared by plain array operations.
+ * <p/>
+ * Only labels of the label space can be added. The series of labels is not kept.
+ *
+ * @author Ivan Habernal
+ */
+public class DenseConfusionMatrix
+        extends ConfusionMatrix
+{
+    private final LabelSpace labelSpace;
+
+    /**
+     * Rows indexed by gold label; null until the first value in the row
+     */
+    private final int[][] rows;
+
+    private final int[] rowSums;
+
+    private final int[] colSums;
+
+    private final BitSet goldLabels;
+
+    private final BitSet predictedLabels;
+
+    public DenseConfusionMatrix(LabelSpace labelSpace)
+    {
+        int n = labelSpace.size();
+
+        this.labelSpace = labelSpace;
+        this.rows = new int[n][];
+        this.rowSums = new int[n];
+        this.colSums = new int[n];
+        this.goldLabels = new BitSet(n);
+        this.predictedLabels = new BitSet(n);
+
+        // labels and cells are kept in the arrays above
+        this.map = null;
+        this.allGoldLabels = null;
+        this.allPredictedLabels = null;
+        this.labelSeries = null;
+    }
+
+    /**
+     * Creates a copy of the given matrix over the given label space
+     *
+     * @param labelSpace labels; must contain all labels of the matrix
+     * @param source     matrix
+     * @throws IllegalArgumentException if a label of the matrix is not in the label space
+     */
+    public DenseConfusionMatrix(LabelSpace labelSpace, ConfusionMatrix source)
+    {
+        this(labelSpace);
+
+        source.visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                addToCell(goldLabel, predictedLabel, value);
+            }
+        });
+
+        // labels without any cells
+        for (String label : source.getGoldLabels()) {
+            goldLabels.set(index(label));
+        }
+        for (String label : source.getPredictedLabels()) {
+            predictedLabels.set(index(label));
+        }
+    }
+
+    public LabelSpace getLabelSpace()
+    {
+        return labelSpace;
+    }
+
+    private int index(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        if (i < 0) {
+            throw new IllegalArgumentException("Label not in label space: " + label);
+        }
+
+        return i;
+    }
+
+    /**
+     * Increases value of goldValue x observedValue n times; the label series is not kept
+     *
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     * @throws IllegalArgumentException if a label is not in the label space
+     */
+    @Override
+    public void increaseValue(String goldValue, String observedValue, int times)
+    {
+        addToCell(goldValue, observedValue, times);
+    }
+
+    /**
+     * Increases the cell given by indices of the label space n times
+     *
+     * @param gold     index of the gold label
+     * @param observed index of the predicted label
+     * @param times    n-times
+     */
+    public void increaseValue(int gold, int observed, int times)
+    {
+        int[] row = rows[gold];
+        if (row == null) {
+            row = new int[rows.length];
+            rows[gold] = row;
+        }
+
+        row[observed] += times;
+        rowSums[gold] += times;
+        colSums[observed] += times;
+        total += times;
+        if (gold == observed) {
+            correct += times;
+        }
+
+        goldLabels.set(gold);
+        predictedLabels.set(observed);
+
+        recordChange(labelSpace.getLabel(gold), labelSpace.getLabel(observed), times);
+    }
+
+    @Override
+    protected void addToCell(String goldValue, String observedValue, int times)
+    {
+        increaseValue(index(goldValue), index(observedValue), times);
+    }
+
+    /**
+     * Adds all counts of the other matrix to this one; a plain array addition if both matrices
+     * share the label space
+     *
+     * @param other matrix
+     * @throws IllegalArgumentException if a label of the other matrix is not in the label space
+     */
+    public void add(DenseConfusionMatrix other)
+    {
+        if (other.labelSpace != labelSpace) {
+            for (int g = other.goldLabels.nextSetBit(0); g >= 0;
+                 g = other.goldLabels.nextSetBit(g + 1)) {
+                goldLabels.set(index(other.labelSpace.getLabel(g)));
+            }
+            for (int p = other.predictedLabels.nextSetBit(0); p >= 0;
+                 p = other.predictedLabels.nextSetBit(p + 1)) {
+                predictedLabels.set(index(other.labelSpace.getLabel(p)));
+            }
+
+            other.visitCells(new CellVisitor()
+            {
+                @Override
+                public void visit(String goldLabel, String predictedLabel, int value)
+                {
+                    addToCell(goldLabel, predictedLabel, value);
+                }
+            });
+            return;
+        }
+
+        int n = rows.length;
+        for (int g = 0; g < n; g++) {
+            int[] source = other.rows[g];
+            if (source == null) {
+                continue;
+            }
+
+            int[] target = rows[g];
+            if (target == null) {
+                rows[g] = source.clone();
+                continue;
+            }
+
+            for (int p = 0; p < n; p++) {
+                target[p] += source[p];
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            rowSums[i] += other.rowSums[i];
+            colSums[i] += other.colSums[i];
+        }
+        total += other.total;
+        correct += other.correct;
+        goldLabels.or(other.goldLabels);
+        predictedLabels.or(other.predictedLabels);
+        markModified();
+
+        if (logsChanges()) {
+            other.visitCells(new CellVisitor()
+            {
+                @Override
+                public void visit(String goldLabel, String predictedLabel, int value)
+                {
+                    recordChange(goldLabel, predictedLabel, value);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns a new matrix with the sum of the given matrices over the label space of the
+     * first one
+     *
+     * @param matrices matrices; at least one
+     * @return matrix
+     */
+    public static DenseConfusionMatrix createCumulativeMatrix(DenseConfusionMatrix... matrices)
+    {
+        if (matrices.length == 0) {
+            throw new IllegalArgumentException("No matrices given");
+        }
+
+        DenseConfusionMatrix result = new DenseConfusionMatrix(matrices[0].labelSpace);
+        for (DenseConfusionMatrix matrix : matrices) {
+            result.add(matrix);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns true if the other matrix has the same labels and counts; compares the arrays
+     * directly if both matrices share the label space
+     *
+     * @param other matrix
+     * @return boolean
+     */
+    public boolean hasSameCounts(DenseConfusionMatrix other)
+    {
+        if (other.labelSpace != labelSpace) {
+            return getGoldLabels().equals(other.getGoldLabels()) && getPredictedLabels()
+                    .equals(other.getPredictedLabels()) && snapshotEquals(other);
+        }
+
+        if (total != other.total || !goldLabels.equals(other.goldLabels) || !predictedLabels
+                .equals(other.predictedLabels)) {
+            return false;
+        }
+
+        for (int g = 0; g < rows.length; g++) {
+            int[] a = rows[g];
+            int[] b = other.rows[g];
+            // an unallocated row equals a row of zeros, not one of counts summing up to zero
+            if (a == null ? !isZero(b) : b == null ? !isZero(a) : !Arrays.equals(a, b)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isZero(int[] row)
+    {
+        if (row != null) {
+            for (int value : row) {
+                if (value != 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean snapshotEquals(DenseConfusionMatrix other)
+    {
+        for (String gold : getGoldLabels()) {
+            for (String predicted : getPredictedLabels()) {
+                if (getValue(gold, predicted) != other.getValue(gold, predicted)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        int g = labelSpace.indexOf(goldValue);
+        int p = labelSpace.indexOf(observedValue);
+
+        if (g < 0 || p < 0 || rows[g] == null) {
+            return 0;
+        }
+
+        return rows[g][p];
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        return i >= 0 ? rowSums[i] : 0;
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        return i >= 0 ? colSums[i] : 0;
+    }
+
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        return labelSpace.subset(goldLabels);
+    }
+
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        return labelSpace.subset(predictedLabels);
+    }
+
+    @Override
+    protected void visitCells(CellVisitor visitor)
+    {
+        int n = rows.length;
+
+        for (int g = 0; g < n; g++) {
+            int[] row = rows[g];
+            if (row == null) {
+                continue;
+            }
+
+            for (int p = 0; p < n; p++) {
+                if (row[p] != 0) {
+                    visitor.visit(labelSpace.getLabel(g), labelSpace.getLabel(p), row[p]);
+                }
+            }
+        }
+    }
+
+    @Override
+    Iterator<Confusion> confusionIterator(final String goldLabel)
+    {
+        final int gold = labelSpace.indexOf(goldLabel);
+        final int[] row = gold < 0 ? null : rows[gold];
+        if (row == null) {
+            return Collections.emptyIterator();
+        }
+
+        return new ConfusionScanner()
+        {
+            private int predicted = -1;
+
+            @Override
+            protected Confusion advance()
+            {
+                while (++predicted < row.length) {
+                    if (predicted != gold && row[predicted] != 0) {
+                        return new Confusion(goldLabel, labelSpace.getLabel(predicted),
+                                row[predicted]);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        return new ConfusionScanner()
+        {
+            private int gold;
+
+            private int predicted = -1;
+
+            @Override
+            protected Confusion advance()
+            {
+                while (gold < rows.length) {
+                    int[] row = rows[gold];
+                    predicted++;
+                    if (row == null || predicted == row.length) {
+                        gold++;
+                        predicted = -1;
+                        continue;
+                    }
+
+                    if (predicted != gold && row[predicted] != 0) {
+                        return new Confusion(labelSpace.getLabel(gold),
+                                labelSpace.getLabel(predicted), row[predicted]);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * The series of labels is not kept
+     *
+     * @return empty list
+     */
+    @Override
+    public List<String> getLabelSeries()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Estimates the bytes retained by this matrix only; the label space is shared and not
+     * included
+     *
+     * @return bytes
+     */
+    @Override
+    public long estimateRetainedBytes()
+    {
+        int n = rows.length;
+
+        // instance, row table, sums, two bit sets
+        long result = 80 + 16 + 4L * n + 2 * (16 + 4L * n) + 2 * (40 + n / 8);
+
+        for (int[] row : rows) {
+            if (row != null) {
+                result += 16 + 4L * n;
+            }
+        }
+
+        return result;
+    }
+}
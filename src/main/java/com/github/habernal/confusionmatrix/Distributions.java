@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+/**
+ * Quantiles of the normal and beta distributions for confidence intervals; plain arithmetic
+ * without allocation, accurate to about 1e-9 (normal) and 1e-10 (beta)
+ *
+ * @author Ivan Habernal
+ */
+final class Distributions
+{
+    // rational approximation of the inverse normal CDF (P. J. Acklam)
+    private static final double[] A = { -3.969683028665376e+01, 2.209460984245205e+02,
+            -2.759285104469687e+02, 1.383577518672690e+02, -3.066479806614716e+01,
+            2.506628277459239e+00 };
+
+    private static final double[] B = { -5.447609879822406e+01, 1.615858368580409e+02,
+            -1.556989798598866e+02, 6.680131188771972e+01, -1.328068155288572e+01 };
+
+    private static final double[] C = { -7.784894002430293e-03, -3.223964580411365e-01,
+            -2.400758277161838e+00, -2.549732539343734e+00, 4.374664141464968e+00,
+            2.938163982698783e+00 };
+
+    private static final double[] D = { 7.784695709041462e-03, 3.224671290700398e-01,
+            2.445134137142996e+00, 3.754408661907416e+00 };
+
+    private static final double P_LOW = 0.02425;
+
+    // Lanczos approximation of log gamma (Numerical Recipes, 3rd ed.)
+    private static final double[] LANCZOS = { 57.1562356658629235, -59.5979603554754912,
+            14.1360979747417471, -0.491913816097620199, .339946499848118887e-4,
+            .465236289270485756e-4, -.983744753048795646e-4, .158088703224912494e-3,
+            -.210264441724104883e-3, .217439618115212643e-3, -.164318106536763890e-3,
+            .844182239838527433e-4, -.261908384015814087e-4, .368991826595316234e-5 };
+
+    private static final int MAX_ITERATIONS = 10000;
+
+    private static final double EPSILON = 1e-15;
+
+    private static final double TINY = 1e-300;
+
+    private Distributions()
+    {
+    }
+
+    /**
+     * Returns the quantile of the standard normal distribution
+     *
+     * @param p probability in (0, 1)
+     * @return z such that P(Z &lt;= z) = p
+     */
+    static double inverseNormal(double p)
+    {
+        if (p <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (p >= 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        if (p < P_LOW) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+                    / ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+        }
+
+        if (p > 1 - P_LOW) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+                    / ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+        }
+
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((A[0] * r + A[1]) * r + A[2]) * r + A[3]) * r + A[4]) * r + A[5]) * q
+                / (((((B[0] * r + B[1]) * r + B[2]) * r + B[3]) * r + B[4]) * r + 1);
+    }
+
+    /**
+     * Returns the logarithm of the gamma function
+     *
+     * @param x positive argument
+     * @return ln(Gamma(x))
+     */
+    static double logGamma(double x)
+    {
+        double y = x;
+        double tmp = x + 5.24218750000000000;
+        tmp = (x + 0.5) * Math.log(tmp) - tmp;
+
+        double series = 0.999999999999997092;
+        for (double coefficient : LANCZOS) {
+            series += coefficient / ++y;
+        }
+
+        return tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    /**
+     * Returns the regularized incomplete beta function I_x(a, b), the CDF of the beta
+     * distribution
+     */
+    static double incompleteBeta(double a, double b, double x)
+    {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x)
+                + b * Math.log(1 - x));
+
+        // the continued fraction converges quickly on this side of the mean
+        if (x < (a + 1) / (a + b + 2)) {
+            return front * continuedFraction(a, b, x) / a;
+        }
+
+        return 1 - front * continuedFraction(b, a, 1 - x) / b;
+    }
+
+    /**
+     * Continued fraction of the incomplete beta function (modified Lentz's method)
+     */
+    private static double continuedFraction(double a, double b, double x)
+    {
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < TINY ? TINY : d);
+        double h = d;
+
+        for (int m = 1; m <= MAX_ITERATIONS; m++) {
+            int m2 = 2 * m;
+
+            double aa = m * (b - m) * x / ((a - 1 + m2) * (a + m2));
+            d = 1 + aa * d;
+            d = 1 / (Math.abs(d) < TINY ? TINY : d);
+            c = 1 + aa / c;
+            c = Math.abs(c) < TINY ? TINY : c;
+            h *= d * c;
+
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + 1 + m2));
+            d = 1 + aa * d;
+            d = 1 / (Math.abs(d) < TINY ? TINY : d);
+            c = 1 + aa / c;
+            c = Math.abs(c) < TINY ? TINY : c;
+            double delta = d * c;
+            h *= delta;
+
+            if (Math.abs(delta - 1) < EPSILON) {
+                break;
+            }
+        }
+
+        return h;
+    }
+
+    /**
+     * Returns the quantile of the beta distribution (inverse of
+     * {@link #incompleteBeta(double, double, double)}); an initial approximation refined by
+     * Halley's method (Numerical Recipes, 3rd ed.)
+     *
+     * @param p probability
+     * @param a positive parameter
+     * @param b positive parameter
+     * @return x such that I_x(a, b) = p
+     */
+    static double inverseBeta(double p, double a, double b)
+    {
+        if (p <= 0) {
+            return 0;
+        }
+        if (p >= 1) {
+            return 1;
+        }
+
+        double x;
+        if (a >= 1 && b >= 1) {
+            double pp = p < 0.5 ? p : 1 - p;
+            double t = Math.sqrt(-2 * Math.log(pp));
+            x = (2.30753 + t * 0.27061) / (1 + t * (0.99229 + t * 0.04481)) - t;
+            if (p < 0.5) {
+                x = -x;
+            }
+            double al = (x * x - 3) / 6;
+            double h = 2 / (1 / (2 * a - 1) + 1 / (2 * b - 1));
+            double w = x * Math.sqrt(al + h) / h - (1 / (2 * b - 1) - 1 / (2 * a - 1)) * (al
+                    + 5.0 / 6 - 2 / (3 * h));
+            x = a / (a + b * Math.exp(2 * w));
+        }
+        else {
+            double lna = Math.log(a / (a + b));
+            double lnb = Math.log(b / (a + b));
+            double t = Math.exp(a * lna) / a;
+            double u = Math.exp(b * lnb) / b;
+            double w = t + u;
+            x = p < t / w ? Math.pow(a * w * p, 1 / a) : 1 - Math.pow(b * w * (1 - p), 1 / b);
+        }
+
+        double a1 = a - 1;
+        double b1 = b - 1;
+        double logBeta = logGamma(a + b) - logGamma(a) - logGamma(b);
+        for (int j = 0; j < 20; j++) {
+            if (x == 0 || x == 1) {
+                return x;
+            }
+
+            double error = incompleteBeta(a, b, x) - p;
+            double density = Math.exp(a1 * Math.log(x) + b1 * Math.log(1 - x) + logBeta);
+            double u = error / density;
+            double step = u / (1 - 0.5 * Math.min(1, u * (a1 / x - b1 / (1 - x))));
+            x -= step;
+            if (x <= 0) {
+                x = 0.5 * (x + step);
+            }
+            if (x >= 1) {
+                x = 0.5 * (x + step + 1);
+            }
+
+            if (Math.abs(step) < 1e-10 * x && j > 0) {
+                break;
+            }
+        }
+
+        return x;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Confusion matrices of the folds of a k-fold cross-validation over one {@link LabelSpace}. The
+ * counts of all folds are kept in one contiguous array (see {@link GroupedConfusionMatrix}),
+ * the pooled counts are summed along, so no per-fold matrices have to be merged. Metrics are
+ * computed for each fold and for the pooled counts in parallel, together with their mean and
+ * variance over the folds.
+ * <p/>
+ * Not thread-safe for updates.
+ *
+ * @author Ivan Habernal
+ */
+public class FoldedConfusionMatrix
+{
+    private final GroupedConfusionMatrix<Integer> folds;
+
+    private final int foldCount;
+
+    /**
+     * Values of a metric over the folds and of the pooled counts
+     */
+    public static final class Statistics
+    {
+        private final double[] values;
+
+        private final double pooled;
+
+        private final double mean;
+
+        private final double variance;
+
+        Statistics(double[] values, double pooled)
+        {
+            this.values = values;
+            this.pooled = pooled;
+
+            double sum = 0;
+            for (double value : values) {
+                sum += value;
+            }
+            this.mean = sum / values.length;
+
+            double squares = 0;
+            for (double value : values) {
+                squares += (value - mean) * (value - mean);
+            }
+            this.variance = values.length > 1 ? squares / (values.length - 1) : 0;
+        }
+
+        /**
+         * Returns the value of each fold
+         *
+         * @return copy of the values, index fold
+         */
+        public double[] getValues()
+        {
+            return values.clone();
+        }
+
+        /**
+         * Returns the value computed from the pooled counts of all folds
+         *
+         * @return double
+         */
+        public double getPooled()
+        {
+            return pooled;
+        }
+
+        public double getMean()
+        {
+            return mean;
+        }
+
+        /**
+         * Returns the sample variance over the folds
+         *
+         * @return double
+         */
+        public double getVariance()
+        {
+            return variance;
+        }
+
+        public double getStandardDeviation()
+        {
+            return Math.sqrt(variance);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ENGLISH, "%.3f ± %.3f (pooled %.3f)", mean,
+                    getStandardDeviation(), pooled);
+        }
+    }
+
+    /**
+     * @param labelSpace labels
+     * @param foldCount  number of folds
+     */
+    public FoldedConfusionMatrix(LabelSpace labelSpace, int foldCount)
+    {
+        if (foldCount < 1) {
+            throw new IllegalArgumentException("At least one fold required: " + foldCount);
+        }
+
+        this.folds = new GroupedConfusionMatrix<>(labelSpace);
+        this.foldCount = foldCount;
+    }
+
+    public LabelSpace getLabelSpace()
+    {
+        return folds.getLabelSpace();
+    }
+
+    public int getFoldCount()
+    {
+        return foldCount;
+    }
+
+    private int checkFold(int fold)
+    {
+        if (fold < 0 || fold >= foldCount) {
+            throw new IllegalArgumentException("Fold out of range: " + fold);
+        }
+
+        return fold;
+    }
+
+    public void increaseValue(int fold, String goldValue, String observedValue)
+    {
+        increaseValue(fold, goldValue, observedValue, 1);
+    }
+
+    /**
+     * Increases value of goldValue x observedValue in the given fold n times
+     *
+     * @param fold          fold
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     * @throws IllegalArgumentException if a label is not in the label space
+     */
+    public void increaseValue(int fold, String goldValue, String observedValue, int times)
+    {
+        folds.increaseValue(checkFold(fold), goldValue, observedValue, times);
+    }
+
+    /**
+     * Increases the cell given by indices of the label space in the given fold n times
+     *
+     * @param fold     fold
+     * @param gold     index of the gold label
+     * @param observed index of the predicted label
+     * @param times    n-times
+     */
+    public void increaseValue(int fold, int gold, int observed, int times)
+    {
+        folds.increaseValue(checkFold(fold), gold, observed, times);
+    }
+
+    /**
+     * Adds all counts of the matrix to the given fold
+     *
+     * @param fold   fold
+     * @param matrix matrix, e.g. evaluated on the fold
+     * @throws IllegalArgumentException if a label of the matrix is not in the label space
+     */
+    public void add(final int fold, ConfusionMatrix matrix)
+    {
+        checkFold(fold);
+
+        matrix.visitCells(new ConfusionMatrix.CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                folds.increaseValue(fold, goldLabel, predictedLabel, value);
+            }
+        });
+    }
+
+    /**
+     * Returns a read-only view of the given fold
+     *
+     * @param fold fold
+     * @return view
+     */
+    public ConfusionMatrix getFold(int fold)
+    {
+        return folds.getSegment(checkFold(fold));
+    }
+
+    /**
+     * Returns a read-only view of the counts of all folds
+     *
+     * @return view
+     */
+    public ConfusionMatrix getPooled()
+    {
+        return folds.getOverall();
+    }
+
+    /**
+     * Computes the metric for each fold and for the pooled counts in parallel on the common
+     * fork/join pool
+     *
+     * @param metric metric
+     * @return statistics
+     */
+    public Statistics compute(GroupedConfusionMatrix.SegmentFunction<Double> metric)
+    {
+        return compute(metric, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the metric for each fold and for the pooled counts in parallel using the given
+     * executor
+     *
+     * @param metric   metric
+     * @param executor executor
+     * @return statistics
+     */
+    public Statistics compute(final GroupedConfusionMatrix.SegmentFunction<Double> metric,
+            ExecutorService executor)
+    {
+        final ConfusionMatrix pooledView = getPooled();
+        Future<Double> pooled = executor.submit(new Callable<Double>()
+        {
+            @Override
+            public Double call()
+                    throws Exception
+            {
+                return metric.apply(pooledView);
+            }
+        });
+
+        Map<Integer, Double> perFold = folds.computePerSegment(metric, executor);
+
+        double[] values = new double[foldCount];
+        for (int fold = 0; fold < foldCount; fold++) {
+            Double value = perFold.get(fold);
+            // a fold without any values
+            values[fold] = value != null ? value : metric.apply(getFold(fold));
+        }
+
+        try {
+            return new Statistics(values, pooled.get());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns macro F-measure over the folds and of the pooled counts
+     *
+     * @return statistics
+     */
+    public Statistics getMacroFMeasure()
+    {
+        return compute(new GroupedConfusionMatrix.SegmentFunction<Double>()
+        {
+            @Override
+            public Double apply(ConfusionMatrix matrix)
+            {
+                return matrix.getMacroFMeasure();
+            }
+        });
+    }
+
+    /**
+     * Returns accuracy over the folds and of the pooled counts
+     *
+     * @return statistics
+     */
+    public Statistics getAccuracy()
+    {
+        return compute(new GroupedConfusionMatrix.SegmentFunction<Double>()
+        {
+            @Override
+            public Double apply(ConfusionMatrix matrix)
+            {
+                return matrix.getAccuracy();
+            }
+        });
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Confusion matrices of many segments (e.g. locale, device) over one {@link LabelSpace}, stored
+ * in a single segment x gold x predicted array together with the roll-up over all segments.
+ * Segments are created on their first value. Each segment and the roll-up can be read as a
+ * read-only {@link ConfusionMatrix} view; views reflect later updates.
+ * <p/>
+ * Not thread-safe for updates; per-segment metrics can be computed in parallel by
+ * {@link #computePerSegment(SegmentFunction)} while no updates are made.
+ *
+ * @param <K> segment key
+ * @author Ivan Habernal
+ */
+public class GroupedConfusionMatrix<K>
+{
+    private static final int INITIAL_SEGMENTS = 8;
+
+    private static final int GOLD = 1;
+
+    private static final int PREDICTED = 2;
+
+    /**
+     * Segment of the roll-up view
+     */
+    private static final int OVERALL = -1;
+
+    /**
+     * Segment of a view of a segment without values
+     */
+    private static final int EMPTY = -2;
+
+    private final LabelSpace labelSpace;
+
+    private final int n;
+
+    private final Map<K, Integer> segmentIds = new HashMap<>();
+
+    private final List<K> segments = new ArrayList<>();
+
+    /**
+     * Counts, index (segment * n + gold) * n + predicted
+     */
+    private int[] tensor;
+
+    /**
+     * Label roles of each segment (bit 1 gold, bit 2 predicted), index segment * n + label
+     */
+    private int[] roles;
+
+    private int[] totals;
+
+    private int[] corrects;
+
+    /**
+     * Roll-up over all segments, n x n
+     */
+    private final int[] overall;
+
+    private final int[] overallRoles;
+
+    private int overallTotal;
+
+    private int overallCorrect;
+
+    /**
+     * Function computed for each segment, see {@link #computePerSegment(SegmentFunction)}
+     *
+     * @param <T> result
+     */
+    public interface SegmentFunction<T>
+    {
+        T apply(ConfusionMatrix segment);
+    }
+
+    public GroupedConfusionMatrix(LabelSpace labelSpace)
+    {
+        this.labelSpace = labelSpace;
+        this.n = labelSpace.size();
+
+        int capacity = (int) Math.min(INITIAL_SEGMENTS, maxSegments());
+        this.tensor = new int[capacity * n * n];
+        this.roles = new int[capacity * n];
+        this.totals = new int[capacity];
+        this.corrects = new int[capacity];
+        this.overall = new int[n * n];
+        this.overallRoles = new int[n];
+    }
+
+    public LabelSpace getLabelSpace()
+    {
+        return labelSpace;
+    }
+
+    /**
+     * Returns the segments in the order of their first value
+     *
+     * @return unmodifiable list
+     */
+    public List<K> getSegments()
+    {
+        return Collections.unmodifiableList(segments);
+    }
+
+    public void increaseValue(K segment, String goldValue, String observedValue)
+    {
+        increaseValue(segment, goldValue, observedValue, 1);
+    }
+
+    /**
+     * Increases value of goldValue x observedValue in the given segment n times
+     *
+     * @param segment       segment
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     * @throws IllegalArgumentException if a label is not in the label space
+     */
+    public void increaseValue(K segment, String goldValue, String observedValue, int times)
+    {
+        increaseValue(segment, index(goldValue), index(observedValue), times);
+    }
+
+    /**
+     * Increases the cell given by indices of the label space in the given segment n times
+     *
+     * @param segment  segment
+     * @param gold     index of the gold label
+     * @param observed index of the predicted label
+     * @param times    n-times
+     */
+    public void increaseValue(K segment, int gold, int observed, int times)
+    {
+        int s = segmentId(segment);
+
+        tensor[(s * n + gold) * n + observed] += times;
+        overall[gold * n + observed] += times;
+
+        roles[s * n + gold] |= GOLD;
+        roles[s * n + observed] |= PREDICTED;
+        overallRoles[gold] |= GOLD;
+        overallRoles[observed] |= PREDICTED;
+
+        totals[s] += times;
+        overallTotal += times;
+        if (gold == observed) {
+            corrects[s] += times;
+            overallCorrect += times;
+        }
+    }
+
+    private int index(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        if (i < 0) {
+            throw new IllegalArgumentException("Label not in label space: " + label);
+        }
+
+        return i;
+    }
+
+    /**
+     * Returns the number of segments whose cells fit in one array
+     *
+     * @throws IllegalStateException if not even one segment fits
+     */
+    private long maxSegments()
+    {
+        long max = Integer.MAX_VALUE / ((long) n * n);
+        if (max == 0) {
+            throw new IllegalStateException("Label space too large for segments: " + n);
+        }
+
+        return max;
+    }
+
+    private int segmentId(K segment)
+    {
+        Integer id = segmentIds.get(segment);
+        if (id != null) {
+            return id;
+        }
+
+        int s = segments.size();
+        if (s == totals.length) {
+            // cells of all segments are in one int array, indices stay below Integer.MAX_VALUE
+            long max = maxSegments();
+            if (s >= max) {
+                throw new IllegalStateException(
+                        "Too many segments for " + n + " labels: at most " + max);
+            }
+            int capacity = (int) Math.min(Math.max(2L * s, 1), max);
+            tensor = Arrays.copyOf(tensor, capacity * n * n);
+            roles = Arrays.copyOf(roles, capacity * n);
+            totals = Arrays.copyOf(totals, capacity);
+            corrects = Arrays.copyOf(corrects, capacity);
+        }
+
+        segmentIds.put(segment, s);
+        segments.add(segment);
+
+        return s;
+    }
+
+    /**
+     * Returns a read-only view of the given segment
+     *
+     * @param segment segment
+     * @return view; empty until the segment has values
+     */
+    public ConfusionMatrix getSegment(K segment)
+    {
+        Integer id = segmentIds.get(segment);
+        return id != null ? new SegmentView(id, null) : new SegmentView(EMPTY, segment);
+    }
+
+    /**
+     * Returns a read-only view of the roll-up over all segments
+     *
+     * @return view
+     */
+    public ConfusionMatrix getOverall()
+    {
+        return new SegmentView(OVERALL, null);
+    }
+
+    /**
+     * Computes the function for each segment in parallel on the common fork/join pool
+     *
+     * @param function function
+     * @param <T>      result
+     * @return results in the order of {@link #getSegments()}
+     */
+    public <T> Map<K, T> computePerSegment(SegmentFunction<T> function)
+    {
+        return computePerSegment(function, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the function for each segment in parallel using the given executor
+     *
+     * @param function function
+     * @param executor executor
+     * @param <T>      result
+     * @return results in the order of {@link #getSegments()}
+     */
+    public <T> Map<K, T> computePerSegment(final SegmentFunction<T> function,
+            ExecutorService executor)
+    {
+        List<Future<T>> futures = new ArrayList<>(segments.size());
+        for (int s = 0; s < segments.size(); s++) {
+            final ConfusionMatrix view = new SegmentView(s, null);
+            futures.add(executor.submit(new Callable<T>()
+            {
+                @Override
+                public T call()
+                        throws Exception
+                {
+                    return function.apply(view);
+                }
+            }));
+        }
+
+        Map<K, T> result = new LinkedHashMap<>();
+        try {
+            for (int s = 0; s < segments.size(); s++) {
+                result.put(segments.get(s), futures.get(s).get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns macro F-measure of each segment, computed in parallel
+     *
+     * @return results in the order of {@link #getSegments()}
+     */
+    public Map<K, Double> getMacroFMeasures()
+    {
+        return computePerSegment(new SegmentFunction<Double>()
+        {
+            @Override
+            public Double apply(ConfusionMatrix segment)
+            {
+                return segment.getMacroFMeasure();
+            }
+        });
+    }
+
+    /**
+     * Read-only view of one segment or of the roll-up
+     */
+    private class SegmentView
+            extends ReadOnlyConfusionMatrix
+    {
+        /**
+         * Segment id, {@link #OVERALL} or {@link #EMPTY}
+         */
+        private final int segment;
+
+        /**
+         * Key of a segment that had no values when the view was created; null otherwise
+         */
+        private final K pending;
+
+        SegmentView(int segment, K pending)
+        {
+            this.segment = segment;
+            this.pending = pending;
+        }
+
+        /**
+         * Returns the segment id, resolving the key of a segment created after the view
+         */
+        private int segment()
+        {
+            if (segment != EMPTY) {
+                return segment;
+            }
+
+            Integer id = segmentIds.get(pending);
+            return id != null ? id : EMPTY;
+        }
+
+        private int[] cells(int s)
+        {
+            return s == OVERALL ? overall : tensor;
+        }
+
+        private int cellOffset(int s)
+        {
+            return s == OVERALL ? 0 : s * n * n;
+        }
+
+        private int role(int s, int label)
+        {
+            return s == OVERALL ? overallRoles[label] : roles[s * n + label];
+        }
+
+        private SortedSet<String> labels(int role)
+        {
+            int s = segment();
+            BitSet members = new BitSet(n);
+            for (int i = 0; i < n && s != EMPTY; i++) {
+                if ((role(s, i) & role) != 0) {
+                    members.set(i);
+                }
+            }
+
+            return labelSpace.subset(members);
+        }
+
+        @Override
+        public int getTotalSum()
+        {
+            int s = segment();
+            return s == OVERALL ? overallTotal : s == EMPTY ? 0 : totals[s];
+        }
+
+        @Override
+        public int getCorrectSum()
+        {
+            int s = segment();
+            return s == OVERALL ? overallCorrect : s == EMPTY ? 0 : corrects[s];
+        }
+
+        @Override
+        public int getValue(String goldValue, String observedValue)
+        {
+            int s = segment();
+            int g = labelSpace.indexOf(goldValue);
+            int p = labelSpace.indexOf(observedValue);
+
+            return s == EMPTY || g < 0 || p < 0 ? 0 : cells(s)[cellOffset(s) + g * n + p];
+        }
+
+        @Override
+        public int getRowSum(String label)
+        {
+            int s = segment();
+            int g = labelSpace.indexOf(label);
+            if (s == EMPTY || g < 0) {
+                return 0;
+            }
+
+            int[] cells = cells(s);
+            int row = cellOffset(s) + g * n;
+            int result = 0;
+            for (int p = 0; p < n; p++) {
+                result += cells[row + p];
+            }
+
+            return result;
+        }
+
+        @Override
+        public int getColSum(String label)
+        {
+            int s = segment();
+            int p = labelSpace.indexOf(label);
+            if (s == EMPTY || p < 0) {
+                return 0;
+            }
+
+            int[] cells = cells(s);
+            int offset = cellOffset(s);
+            int result = 0;
+            for (int g = 0; g < n; g++) {
+                result += cells[offset + g * n + p];
+            }
+
+            return result;
+        }
+
+        @Override
+        public SortedSet<String> getGoldLabels()
+        {
+            return labels(GOLD);
+        }
+
+        @Override
+        public SortedSet<String> getPredictedLabels()
+        {
+            return labels(PREDICTED);
+        }
+
+        /**
+         * Walks the cells of the gold rows from first (inclusive) to last (exclusive)
+         */
+        private Iterator<Confusion> scanRows(final int s, final int first, final int last)
+        {
+            if (s == EMPTY) {
+                return Collections.emptyIterator();
+            }
+
+            final int[] cells = cells(s);
+            final int offset = cellOffset(s);
+
+            return new ConfusionScanner()
+            {
+                private int gold = first;
+
+                private int predicted = -1;
+
+                @Override
+                protected Confusion advance()
+                {
+                    while (gold < last) {
+                        predicted++;
+                        if (predicted == n) {
+                            gold++;
+                            predicted = -1;
+                            continue;
+                        }
+
+                        int value = cells[offset + gold * n + predicted];
+                        if (predicted != gold && value != 0) {
+                            return new Confusion(labelSpace.getLabel(gold),
+                                    labelSpace.getLabel(predicted), value);
+                        }
+                    }
+
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public Iterator<Confusion> confusionIterator()
+        {
+            return scanRows(segment(), 0, n);
+        }
+
+        @Override
+        Iterator<Confusion> confusionIterator(String goldLabel)
+        {
+            int g = labelSpace.indexOf(goldLabel);
+            return g < 0 ? Collections.<Confusion>emptyIterator()
+                    : scanRows(segment(), g, g + 1);
+        }
+
+        @Override
+        protected void visitCells(CellVisitor visitor)
+        {
+            int s = segment();
+            if (s == EMPTY) {
+                return;
+            }
+
+            int[] cells = cells(s);
+            int offset = cellOffset(s);
+
+            for (int g = 0; g < n; g++) {
+                for (int p = 0; p < n; p++) {
+                    int value = cells[offset + g * n + p];
+                    if (value != 0) {
+                        visitor.visit(labelSpace.getLabel(g), labelSpace.getLabel(p), value);
+                    }
+                }
+            }
+        }
+    }
+}
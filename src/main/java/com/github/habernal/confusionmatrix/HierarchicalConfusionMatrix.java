@@ -0,0 +1,341 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Confusion matrix over hierarchical labels (such as {@code sports/football/nfl}). Besides the
+ * leaf-level matrix, it provides the matrices rolled up to every level of the taxonomy and
+ * hierarchical precision, recall and F-measure.
+ * <p/>
+ * The rolled-up matrices are computed by aggregating the leaf counts through a precomputed
+ * leaf&rarr;ancestor index (the data are never re-read) and they are cached until the counts
+ * change (by {@link #increaseValue(String, String, int)} or
+ * {@link #applyDelta(ConfusionMatrixDelta)}).
+ * <p/>
+ * Hierarchical P/R/F follow Kiritchenko et al., 2005. Functional annotation of genes using
+ * hierarchical text categorization: each label is extended with all its ancestors and
+ * precision (recall) is the size of the overlap divided by the size of the predicted (gold)
+ * ancestor set, summed over all instances.
+ *
+ * @author Ivan Habernal
+ */
+public class HierarchicalConfusionMatrix
+        extends ConfusionMatrix
+{
+    /**
+     * Child &rarr; parent; null if the taxonomy is given by label paths
+     */
+    private final Map<String, String> parents;
+
+    /**
+     * Path separator; null if the taxonomy is given by the parent map
+     */
+    private final String separator;
+
+    /**
+     * Rolled-up matrices and hierarchical measures; null if not computed yet
+     */
+    private Hierarchy hierarchy;
+
+    /**
+     * Modification count the hierarchy was computed for
+     */
+    private long hierarchyVersion;
+
+    /**
+     * Creates a matrix with a taxonomy given by a parent map; labels without parent are the
+     * top-level labels
+     *
+     * @param parents child label &rarr; parent label
+     */
+    public HierarchicalConfusionMatrix(Map<String, String> parents)
+    {
+        if (parents == null) {
+            throw new IllegalArgumentException("Parent map must not be null");
+        }
+
+        this.parents = new HashMap<>(parents);
+        this.separator = null;
+    }
+
+    /**
+     * Creates a matrix whose labels are paths (such as {@code sports/football/nfl}); the parent
+     * of a label is its prefix up to the last separator
+     *
+     * @param separator path separator, such as "/"
+     */
+    public HierarchicalConfusionMatrix(String separator)
+    {
+        if (separator == null || separator.isEmpty()) {
+            throw new IllegalArgumentException("Separator must not be empty");
+        }
+
+        this.parents = null;
+        this.separator = separator;
+    }
+
+    /**
+     * Returns the parent of the label in the taxonomy
+     *
+     * @param label label
+     * @return parent label or null for top-level labels
+     */
+    public String getParent(String label)
+    {
+        if (parents != null) {
+            return parents.get(label);
+        }
+
+        int i = label.lastIndexOf(separator);
+        return i > 0 ? label.substring(0, i) : null;
+    }
+
+    /**
+     * Returns all ancestors of the label, starting with the top-level one and ending with the
+     * label itself
+     *
+     * @param label label
+     * @return path from the root to the label
+     * @throws IllegalArgumentException if the taxonomy contains a cycle
+     */
+    public List<String> getAncestors(String label)
+            throws IllegalArgumentException
+    {
+        LinkedList<String> result = new LinkedList<>();
+        Set<String> visited = new HashSet<>();
+
+        String current = label;
+        while (current != null) {
+            if (!visited.add(current)) {
+                throw new IllegalArgumentException("Cycle in taxonomy at label " + current);
+            }
+            result.addFirst(current);
+            current = getParent(current);
+        }
+
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the number of levels of the taxonomy over all labels seen so far
+     *
+     * @return depth (1 for a flat set of labels, 0 for an empty matrix)
+     */
+    public int getDepth()
+    {
+        return getHierarchy().levels.size();
+    }
+
+    /**
+     * Returns the matrix rolled up to the given level; level 0 contains the top-level labels
+     * only, level {@code getDepth() - 1} equals the leaf matrix. Labels that are not deep enough
+     * are kept as they are. The returned matrix is immutable (see {@link #freeze()}) and shared
+     * until the next update; its label series is empty.
+     *
+     * @param level level, 0-based
+     * @return confusion matrix
+     * @throws IllegalArgumentException if level is out of range
+     */
+    public ConfusionMatrix getMatrixForLevel(int level)
+            throws IllegalArgumentException
+    {
+        List<ConfusionMatrix> levels = getHierarchy().levels;
+
+        if (level < 0 || level >= levels.size()) {
+            throw new IllegalArgumentException(
+                    "Level must be in range 0-" + (levels.size() - 1) + " but was " + level);
+        }
+
+        return levels.get(level);
+    }
+
+    /**
+     * Returns the rolled-up matrices for all levels, see {@link #getMatrixForLevel(int)}
+     *
+     * @return unmodifiable list of immutable matrices, top level first
+     */
+    public List<ConfusionMatrix> getLevelMatrices()
+    {
+        return getHierarchy().levels;
+    }
+
+    /**
+     * Hierarchical precision: sum of |ancestors(gold) &cap; ancestors(pred)| over sum of
+     * |ancestors(pred)|
+     *
+     * @return double
+     */
+    public double getHierarchicalPrecision()
+    {
+        Hierarchy h = getHierarchy();
+
+        return h.predictedAncestors > 0 ? (double) h.overlap / (double) h.predictedAncestors : 0;
+    }
+
+    /**
+     * Hierarchical recall: sum of |ancestors(gold) &cap; ancestors(pred)| over sum of
+     * |ancestors(gold)|
+     *
+     * @return double
+     */
+    public double getHierarchicalRecall()
+    {
+        Hierarchy h = getHierarchy();
+
+        return h.goldAncestors > 0 ? (double) h.overlap / (double) h.goldAncestors : 0;
+    }
+
+    /**
+     * Harmonic mean of hierarchical precision and recall
+     *
+     * @return double
+     */
+    public double getHierarchicalFMeasure()
+    {
+        double p = getHierarchicalPrecision();
+        double r = getHierarchicalRecall();
+
+        return (p + r) > 0 ? (2 * p * r) / (p + r) : 0;
+    }
+
+    private Hierarchy getHierarchy()
+    {
+        if (hierarchy == null || hierarchyVersion != getModificationCount()) {
+            hierarchy = new Hierarchy();
+            hierarchyVersion = getModificationCount();
+        }
+
+        return hierarchy;
+    }
+
+    /**
+     * Rolled-up matrices computed from a single pass over the leaf cells
+     */
+    private class Hierarchy
+    {
+        final List<ConfusionMatrix> levels;
+
+        long overlap;
+
+        long predictedAncestors;
+
+        long goldAncestors;
+
+        Hierarchy()
+        {
+            // leaf labels and their paths from the root
+            TreeSet<String> leafLabels = new TreeSet<>(allGoldLabels);
+            leafLabels.addAll(allPredictedLabels);
+
+            String[] leaves = leafLabels.toArray(new String[leafLabels.size()]);
+            Map<String, Integer> leafIndex = new HashMap<>();
+            String[][] paths = new String[leaves.length][];
+            int depth = 0;
+
+            for (int i = 0; i < leaves.length; i++) {
+                leafIndex.put(leaves[i], i);
+                List<String> ancestors = getAncestors(leaves[i]);
+                paths[i] = ancestors.toArray(new String[ancestors.size()]);
+                depth = Math.max(depth, paths[i].length);
+            }
+
+            // leaf counts as parallel arrays of non-zero cells
+            int nonZero = 0;
+            for (Map<String, Integer> row : map.values()) {
+                nonZero += row.size();
+            }
+
+            int[] cellGold = new int[nonZero];
+            int[] cellPredicted = new int[nonZero];
+            int[] cellValue = new int[nonZero];
+            int n = 0;
+
+            for (Map.Entry<String, Map<String, Integer>> row : map.entrySet()) {
+                int gold = leafIndex.get(row.getKey());
+                for (Map.Entry<String, Integer> cell : row.getValue().entrySet()) {
+                    cellGold[n] = gold;
+                    cellPredicted[n] = leafIndex.get(cell.getKey());
+                    cellValue[n] = cell.getValue();
+                    n++;
+                }
+            }
+
+            // hierarchical P/R: common ancestors of gold and predicted form a common prefix
+            for (int c = 0; c < n; c++) {
+                String[] goldPath = paths[cellGold[c]];
+                String[] predictedPath = paths[cellPredicted[c]];
+
+                int common = 0;
+                while (common < goldPath.length && common < predictedPath.length
+                        && goldPath[common].equals(predictedPath[common])) {
+                    common++;
+                }
+
+                overlap += (long) common * cellValue[c];
+                goldAncestors += (long) goldPath.length * cellValue[c];
+                predictedAncestors += (long) predictedPath.length * cellValue[c];
+            }
+
+            // leaf -> ancestor index for each level, then aggregate the leaf cells
+            List<ConfusionMatrix> result = new ArrayList<>(depth);
+
+            for (int level = 0; level < depth; level++) {
+                Map<String, Integer> ancestorIndex = new HashMap<>();
+                List<String> ancestors = new ArrayList<>();
+                int[] leafToAncestor = new int[leaves.length];
+
+                for (int i = 0; i < leaves.length; i++) {
+                    String ancestor = paths[i][Math.min(level, paths[i].length - 1)];
+                    Integer a = ancestorIndex.get(ancestor);
+                    if (a == null) {
+                        a = ancestors.size();
+                        ancestorIndex.put(ancestor, a);
+                        ancestors.add(ancestor);
+                    }
+                    leafToAncestor[i] = a;
+                }
+
+                // sparse, only the non-zero leaf cells are aggregated; key gold << 32 | predicted
+                Map<Long, int[]> counts = new HashMap<>();
+
+                for (int c = 0; c < n; c++) {
+                    long cell = (long) leafToAncestor[cellGold[c]] << 32
+                            | leafToAncestor[cellPredicted[c]];
+                    int[] count = counts.get(cell);
+                    if (count == null) {
+                        count = new int[1];
+                        counts.put(cell, count);
+                    }
+                    count[0] += cellValue[c];
+                }
+
+                ConfusionMatrix levelMatrix = new ConfusionMatrix();
+                for (Map.Entry<Long, int[]> cell : counts.entrySet()) {
+                    long key = cell.getKey();
+                    levelMatrix.addToCell(ancestors.get((int) (key >>> 32)),
+                            ancestors.get((int) key), cell.getValue()[0]);
+                }
+
+                result.add(levelMatrix.freeze());
+            }
+
+            levels = Collections.unmodifiableList(result);
+        }
+    }
+}
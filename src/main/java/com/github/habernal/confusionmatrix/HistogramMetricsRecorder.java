@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process recorder of call counts and latency histograms per operation. The histograms are
+ * log-linear (in the style of HdrHistogram): values below 64 ns are exact, larger values fall
+ * into 32 sub-buckets per power of two, so percentiles have a relative error below 3.2%.
+ * Recording is lock-free and allocation-free.
+ *
+ * @author Ivan Habernal
+ */
+public class HistogramMetricsRecorder
+        implements ConfusionMatrixMetrics
+{
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+
+    public HistogramMetricsRecorder()
+    {
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new Histogram());
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void record(Operation operation, long nanos)
+    {
+        histograms.get(operation).record(nanos);
+    }
+
+    /**
+     * Returns the number of recorded calls
+     *
+     * @param operation operation
+     * @return count
+     */
+    public long getCount(Operation operation)
+    {
+        return histograms.get(operation).count.get();
+    }
+
+    /**
+     * Returns the mean duration
+     *
+     * @param operation operation
+     * @return nanoseconds; 0 if nothing was recorded
+     */
+    public double getMean(Operation operation)
+    {
+        Histogram histogram = histograms.get(operation);
+        long count = histogram.count.get();
+
+        return count > 0 ? (double) histogram.sum.get() / count : 0;
+    }
+
+    /**
+     * Returns the maximum duration
+     *
+     * @param operation operation
+     * @return nanoseconds
+     */
+    public long getMax(Operation operation)
+    {
+        return histograms.get(operation).max.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile
+     *
+     * @param operation  operation
+     * @param percentile percentile in range 0-100
+     * @return nanoseconds; 0 if nothing was recorded
+     */
+    public long getPercentile(Operation operation, double percentile)
+    {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in range 0-100");
+        }
+
+        Histogram histogram = histograms.get(operation);
+
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), histogram.max.get());
+            }
+        }
+
+        return histogram.max.get();
+    }
+
+    /**
+     * Clears all histograms
+     */
+    public void reset()
+    {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns a table with count, mean, percentiles and maximum (in microseconds) per operation
+     *
+     * @return string
+     */
+    public String dump()
+    {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH,
+                "%-8s %12s %12s %12s %12s %12s %12s%n", "op", "count", "mean[us]", "p50[us]",
+                "p99[us]", "p99.9[us]", "max[us]"));
+
+        for (Operation operation : Operation.values()) {
+            sb.append(String.format(Locale.ENGLISH, "%-8s %12d %12.3f %12.3f %12.3f %12.3f %12.3f%n",
+                    operation, getCount(operation), getMean(operation) / 1000.0,
+                    getPercentile(operation, 50) / 1000.0, getPercentile(operation, 99) / 1000.0,
+                    getPercentile(operation, 99.9) / 1000.0, getMax(operation) / 1000.0));
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return dump();
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int top = (int) (value >>> shift);
+
+        return (shift + 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+
+    static long upperBound(int index)
+    {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((top + 1) << shift) - 1;
+    }
+
+    private static final class Histogram
+    {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong sum = new AtomicLong();
+
+        final AtomicLong max = new AtomicLong();
+
+        void record(long nanos)
+        {
+            buckets.incrementAndGet(bucketIndex(nanos));
+            count.incrementAndGet();
+            sum.addAndGet(nanos);
+
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        void reset()
+        {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+    }
+}
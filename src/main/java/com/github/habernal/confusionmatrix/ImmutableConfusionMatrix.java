@@ -0,0 +1,432 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Immutable confusion matrix created by {@link ConfusionMatrix#freeze()}. Cells are kept in
+ * final arrays (compressed sparse rows), marginals and the common metrics are computed once
+ * when the matrix is frozen. All state is final and nothing is cached lazily, so instances can
+ * be published to other threads without copying or synchronization. Metrics that are not
+ * precomputed are computed on each call.
+ * <p/>
+ * Locale and number of decimal places of the printed values are taken from the source matrix
+ * and cannot be changed.
+ *
+ * @author Ivan Habernal
+ */
+public final class ImmutableConfusionMatrix
+        extends ReadOnlyConfusionMatrix
+{
+    /**
+     * Gold labels first, then labels that were only predicted, each sorted
+     */
+    private final String[] labels;
+
+    private final int goldCount;
+
+    private final Map<String, Integer> index;
+
+    /**
+     * Start of each gold row in {@link #columns} and {@link #values}, goldCount + 1 entries
+     */
+    private final int[] rowStarts;
+
+    private final int[] columns;
+
+    private final int[] values;
+
+    private final SortedSet<String> goldLabels;
+
+    private final SortedSet<String> predictedLabels;
+
+    private final List<String> series;
+
+    private final Locale locale;
+
+    private final DecimalFormatter formatter;
+
+    private final LabelOrder order;
+
+    private final Marginals marginals;
+
+    private final double accuracy;
+
+    private final double microFMeasure;
+
+    private final double macroFMeasure;
+
+    private final double cohensKappa;
+
+    private final double matthewsCorrelation;
+
+    private final double balancedAccuracy;
+
+    private final double weightedFMeasure;
+
+    private final Map<String, Double> precisions;
+
+    private final Map<String, Double> recalls;
+
+    private final Map<String, Double> fMeasures;
+
+    private ImmutableConfusionMatrix(ConfusionMatrix source)
+    {
+        SparseRows rows = SparseRows.of(source);
+
+        this.labels = rows.labels;
+        this.goldCount = rows.goldCount;
+        this.index = rows.index;
+        this.rowStarts = rows.rowStarts;
+        this.columns = rows.columns;
+        this.values = rows.values;
+
+        TreeSet<String> gold = new TreeSet<>();
+        TreeSet<String> predicted = new TreeSet<>();
+        for (int i = 0; i < labels.length; i++) {
+            if (i < goldCount) {
+                gold.add(labels[i]);
+            }
+            if (rows.predicted[i]) {
+                predicted.add(labels[i]);
+            }
+        }
+        this.goldLabels = Collections.unmodifiableSortedSet(gold);
+        this.predictedLabels = Collections.unmodifiableSortedSet(predicted);
+
+        List<String> sourceSeries = source.getLabelSeries();
+        this.series = Collections.unmodifiableList(
+                Arrays.asList(sourceSeries.toArray(new String[sourceSeries.size()])));
+
+        this.locale = source.getLocale();
+        this.formatter = source.getFormatter();
+
+        // not used by read-only matrices, release the empty structures of the superclass
+        this.map = null;
+        this.allGoldLabels = null;
+        this.allPredictedLabels = null;
+        this.labelSeries = null;
+
+        // the derived values go through the accessors; each only needs the values set before it
+        this.order = LabelOrder.of(this);
+        this.marginals = Marginals.of(this);
+
+        this.precisions = Collections.unmodifiableMap(super.getPrecisionForLabels());
+        this.recalls = Collections.unmodifiableMap(super.getRecallForLabels());
+        this.fMeasures = Collections.unmodifiableMap(super.getFMeasureForLabels());
+
+        this.accuracy = super.getAccuracy();
+        this.microFMeasure = super.getMicroFMeasure();
+        this.macroFMeasure = super.getMacroFMeasure();
+        this.cohensKappa = super.getCohensKappa();
+        this.matthewsCorrelation = super.getMatthewsCorrelation();
+        this.balancedAccuracy = super.getBalancedAccuracy();
+        this.weightedFMeasure = super.getWeightedFMeasure();
+    }
+
+    static ImmutableConfusionMatrix of(ConfusionMatrix source)
+    {
+        return new ImmutableConfusionMatrix(source);
+    }
+
+    /**
+     * Already immutable
+     *
+     * @return this instance
+     */
+    @Override
+    public ImmutableConfusionMatrix freeze()
+    {
+        return this;
+    }
+
+    @Override
+    LabelOrder labelOrder()
+    {
+        return order;
+    }
+
+    @Override
+    Marginals marginals()
+    {
+        return marginals;
+    }
+
+    @Override
+    Locale getLocale()
+    {
+        return locale;
+    }
+
+    @Override
+    DecimalFormatter getFormatter()
+    {
+        return formatter;
+    }
+
+    /**
+     * Not supported, the locale of the source matrix is kept
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setLocale(Locale locale)
+    {
+        throw new UnsupportedOperationException("Immutable confusion matrix");
+    }
+
+    /**
+     * Not supported, the number of decimal places of the source matrix is kept
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setNumberOfDecimalPlaces(int numberOfDecimalPlaces)
+    {
+        throw new UnsupportedOperationException("Immutable confusion matrix");
+    }
+
+    @Override
+    public int getTotalSum()
+    {
+        return marginals.total;
+    }
+
+    @Override
+    public int getCorrectSum()
+    {
+        return marginals.correct;
+    }
+
+    private int getValue(int gold, int predicted)
+    {
+        int i = Arrays.binarySearch(columns, rowStarts[gold], rowStarts[gold + 1], predicted);
+        return i >= 0 ? values[i] : 0;
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        Integer g = index.get(goldValue);
+        Integer p = index.get(observedValue);
+
+        return g == null || p == null || g >= goldCount ? 0 : getValue(g, p);
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        Integer i = index.get(label);
+        if (i == null || i >= goldCount) {
+            return 0;
+        }
+
+        return marginals.rowSums[i];
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        Integer i = index.get(label);
+        return i != null ? marginals.colSums[i] : 0;
+    }
+
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        return goldLabels;
+    }
+
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        return predictedLabels;
+    }
+
+    @Override
+    protected void visitCells(CellVisitor visitor)
+    {
+        for (int g = 0; g < goldCount; g++) {
+            for (int i = rowStarts[g]; i < rowStarts[g + 1]; i++) {
+                visitor.visit(labels[g], labels[columns[i]], values[i]);
+            }
+        }
+    }
+
+    @Override
+    Iterator<Confusion> confusionIterator(final String goldLabel)
+    {
+        Integer g = index.get(goldLabel);
+        if (g == null || g >= goldCount) {
+            return Collections.emptyIterator();
+        }
+
+        final int gold = g;
+
+        return new ConfusionScanner()
+        {
+            private int i = rowStarts[gold];
+
+            @Override
+            protected Confusion advance()
+            {
+                while (i < rowStarts[gold + 1]) {
+                    int column = columns[i];
+                    int value = values[i++];
+                    if (column != gold) {
+                        return new Confusion(goldLabel, labels[column], value);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        return new ConfusionScanner()
+        {
+            private int gold;
+
+            private int i;
+
+            @Override
+            protected Confusion advance()
+            {
+                while (gold < goldCount) {
+                    if (i == rowStarts[gold + 1]) {
+                        gold++;
+                        continue;
+                    }
+
+                    int column = columns[i];
+                    int value = values[i++];
+                    if (column != gold) {
+                        return new Confusion(labels[gold], labels[column], value);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the series of labels of the source matrix
+     *
+     * @return unmodifiable list
+     */
+    @Override
+    public List<String> getLabelSeries()
+    {
+        return series;
+    }
+
+    @Override
+    public double getAccuracy()
+    {
+        return accuracy;
+    }
+
+    @Override
+    public double getMicroFMeasure()
+    {
+        return microFMeasure;
+    }
+
+    @Override
+    public double getMacroFMeasure()
+    {
+        return macroFMeasure;
+    }
+
+    @Override
+    public double getCohensKappa()
+    {
+        return cohensKappa;
+    }
+
+    @Override
+    public double getMatthewsCorrelation()
+    {
+        return matthewsCorrelation;
+    }
+
+    @Override
+    public double getBalancedAccuracy()
+    {
+        return balancedAccuracy;
+    }
+
+    @Override
+    public double getWeightedFMeasure()
+    {
+        return weightedFMeasure;
+    }
+
+    /**
+     * Returns the precomputed precisions
+     *
+     * @return unmodifiable map
+     */
+    @Override
+    public Map<String, Double> getPrecisionForLabels()
+    {
+        return precisions;
+    }
+
+    /**
+     * Returns the precomputed recalls
+     *
+     * @return unmodifiable map
+     */
+    @Override
+    public Map<String, Double> getRecallForLabels()
+    {
+        return recalls;
+    }
+
+    /**
+     * Returns the precomputed F-measures
+     *
+     * @return unmodifiable map
+     */
+    @Override
+    public Map<String, Double> getFMeasureForLabels()
+    {
+        return fMeasures;
+    }
+
+    @Override
+    public long estimateRetainedBytes()
+    {
+        int n = labels.length;
+
+        // instance, label and cell arrays, index, label sets, marginals, metric maps
+        long result = 160 + 16 + 4L * n + 3 * 16 + 4L * (rowStarts.length + 2 * values.length);
+        result += 48 + n * 36L + 2 * (48 + n * 40L) + 4 * (16 + 4L * n) + 3 * (48 + n * 56L);
+        for (String label : labels) {
+            result += 24 + 16 + label.length() * 2L;
+        }
+
+        return result + 16 + series.size() * 4L;
+    }
+}
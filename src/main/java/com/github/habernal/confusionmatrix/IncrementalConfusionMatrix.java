@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Confusion matrix for streaming evaluation (e.g., early stopping during training) that keeps
+ * running true positives, row and column sums and the sum of per-label F-measures. Each update
+ * touches only the gold and the predicted label, so macro and micro F-measure, accuracy, row
+ * and column sums and the expected agreement of Cohen's Kappa are available in O(1) after each
+ * update.
+ *
+ * @author Ivan Habernal
+ */
+public class IncrementalConfusionMatrix
+        extends ConfusionMatrix
+{
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    private int[] truePositives = new int[16];
+
+    private int[] rowSums = new int[16];
+
+    private int[] colSums = new int[16];
+
+    private double[] fMeasures = new double[16];
+
+    private boolean[] gold = new boolean[16];
+
+    private int goldLabelCount;
+
+    /**
+     * Sum of column sums of gold labels (true positives and false positives)
+     */
+    private int goldColSum;
+
+    /**
+     * Sum of rowSum * colSum over all labels (non-zero only for gold labels)
+     */
+    private long rowColProductSum;
+
+    /**
+     * Sum of F-measures of gold labels with Kahan compensation
+     */
+    private double fMeasureSum;
+
+    private double fMeasureSumCompensation;
+
+    private int labelId(String label)
+    {
+        Integer id = labelIds.get(label);
+
+        if (id == null) {
+            id = labelIds.size();
+            labelIds.put(label, id);
+
+            if (id == rowSums.length) {
+                int capacity = rowSums.length * 2;
+                truePositives = Arrays.copyOf(truePositives, capacity);
+                rowSums = Arrays.copyOf(rowSums, capacity);
+                colSums = Arrays.copyOf(colSums, capacity);
+                fMeasures = Arrays.copyOf(fMeasures, capacity);
+                gold = Arrays.copyOf(gold, capacity);
+            }
+        }
+
+        return id;
+    }
+
+    @Override
+    protected void addToCell(String goldValue, String observedValue, int times)
+    {
+        super.addToCell(goldValue, observedValue, times);
+
+        int g = labelId(goldValue);
+        int p = labelId(observedValue);
+
+        if (!gold[g]) {
+            // a new gold label; its row is empty so it does not add to rowColProductSum
+            gold[g] = true;
+            goldLabelCount++;
+            goldColSum += colSums[g];
+        }
+
+        // remove the contributions of the touched labels
+        addToFMeasureSum(-fMeasures[g]);
+        rowColProductSum -= (long) rowSums[g] * colSums[g];
+        if (p != g) {
+            addToFMeasureSum(-fMeasures[p]);
+            rowColProductSum -= (long) rowSums[p] * colSums[p];
+        }
+
+        rowSums[g] += times;
+        colSums[p] += times;
+        if (p == g) {
+            truePositives[g] += times;
+        }
+        if (gold[p]) {
+            goldColSum += times;
+        }
+
+        // add them back
+        updateFMeasure(g);
+        rowColProductSum += (long) rowSums[g] * colSums[g];
+        if (p != g) {
+            updateFMeasure(p);
+            rowColProductSum += (long) rowSums[p] * colSums[p];
+        }
+    }
+
+    /**
+     * Recomputes F-measure of the label exactly as {@link #getFMeasureForLabels()} does and adds
+     * it to the sum if the label is a gold label
+     */
+    private void updateFMeasure(int label)
+    {
+        double fm = 0;
+
+        if (gold[label]) {
+            int tp = truePositives[label];
+            double p = 0;
+            double r = 0;
+
+            if (tp != 0 && colSums[label] > 0) {
+                p = (double) tp / (double) colSums[label];
+            }
+            if (tp != 0 && rowSums[label] > 0) {
+                r = (double) tp / (double) rowSums[label];
+            }
+            if ((p + r) > 0) {
+                fm = (2 * p * r) / (p + r);
+            }
+        }
+
+        fMeasures[label] = fm;
+        addToFMeasureSum(fm);
+    }
+
+    private void addToFMeasureSum(double value)
+    {
+        double y = value - fMeasureSumCompensation;
+        double t = fMeasureSum + y;
+        fMeasureSumCompensation = (t - fMeasureSum) - y;
+        fMeasureSum = t;
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        Integer id = labelIds.get(label);
+
+        if (id == null || !gold[id]) {
+            // keep the behavior for unknown rows
+            return super.getRowSum(label);
+        }
+
+        return rowSums[id];
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        Integer id = labelIds.get(label);
+
+        return id != null ? colSums[id] : 0;
+    }
+
+    @Override
+    public double getMacroFMeasure()
+    {
+        return fMeasureSum / goldLabelCount;
+    }
+
+    @Override
+    public double getMicroFMeasure()
+    {
+        // true positives of all gold labels are the diagonal, their row sums the total
+        double precision = (double) getCorrectSum() / (double) goldColSum;
+        double recall = (double) getCorrectSum() / (double) getTotalSum();
+
+        return (2.0 * precision * recall) / (precision + recall);
+    }
+
+    /**
+     * Returns the expected (chance) agreement of Cohen's Kappa, that is the sum of
+     * rowSum * colSum / total^2 over all labels
+     *
+     * @return double
+     */
+    public double getExpectedAgreement()
+    {
+        double total = getTotalSum();
+
+        return rowColProductSum / total / total;
+    }
+
+    @Override
+    public double getCohensKappa()
+    {
+        double p = getAccuracy();
+        double pe = getExpectedAgreement();
+
+        return (p - pe) / (1 - pe);
+    }
+}
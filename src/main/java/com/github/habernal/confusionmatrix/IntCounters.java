@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Array of int counters updated by many threads, used by {@link ConcurrentConfusionMatrix}.
+ * This version is backed by an {@link AtomicIntegerArray}; the multi-release jar contains a
+ * Java 17 version backed by a plain array accessed through a {@code VarHandle}, which allows
+ * plain and release accesses where no volatile semantics are needed.
+ *
+ * @author Ivan Habernal
+ */
+final class IntCounters
+{
+    private final AtomicIntegerArray values;
+
+    IntCounters(int length)
+    {
+        this.values = new AtomicIntegerArray(length);
+    }
+
+    int length()
+    {
+        return values.length();
+    }
+
+    /**
+     * Volatile read
+     */
+    int get(int i)
+    {
+        return values.get(i);
+    }
+
+    /**
+     * Read without ordering guarantees; for hints or when the writers are known to be done
+     */
+    int getPlain(int i)
+    {
+        return values.get(i);
+    }
+
+    /**
+     * Write without ordering guarantees; for clearing when no thread reads concurrently
+     */
+    void setPlain(int i, int value)
+    {
+        values.lazySet(i, value);
+    }
+
+    /**
+     * Ordered write, visible to a thread that later reads the counter with {@link #get(int)}
+     */
+    void setRelease(int i, int value)
+    {
+        values.lazySet(i, value);
+    }
+
+    /**
+     * Atomic addition
+     */
+    void add(int i, int delta)
+    {
+        values.getAndAdd(i, delta);
+    }
+
+    boolean compareAndSet(int i, int expected, int value)
+    {
+        return values.compareAndSet(i, expected, value);
+    }
+}
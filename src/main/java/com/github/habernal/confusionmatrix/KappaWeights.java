@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Disagreement weights of ordered labels for weighted Kappa, see
+ * {@link ConfusionMatrix#getWeightedKappa(KappaWeights)}. The weights are precomputed into one
+ * flat array; linear and quadratic weights are canonicalized like {@link LabelSpace}, so that
+ * the same instance (and its cached results) is used for the same labels.
+ *
+ * @author Ivan Habernal
+ */
+public final class KappaWeights
+{
+    private static final Map<List<String>, WeakReference<KappaWeights>> LINEAR =
+            new WeakHashMap<>();
+
+    private static final Map<List<String>, WeakReference<KappaWeights>> QUADRATIC =
+            new WeakHashMap<>();
+
+    private final List<String> labels;
+
+    private final Map<String, Integer> index;
+
+    /**
+     * Disagreement weights, index gold * size + predicted
+     */
+    private final double[] weights;
+
+    private KappaWeights(List<String> labels, double[] weights)
+    {
+        this.labels = labels;
+        this.weights = weights;
+        this.index = new HashMap<>(labels.size() * 2);
+
+        for (int i = 0; i < labels.size(); i++) {
+            if (index.put(labels.get(i), i) != null) {
+                throw new IllegalArgumentException("Duplicate label: " + labels.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns linear weights: the disagreement of labels i and j is |i - j| / (k - 1)
+     *
+     * @param labels ordered labels (e.g. ratings from lowest to highest)
+     * @return weights
+     */
+    public static KappaWeights linear(List<String> labels)
+    {
+        return canonical(LINEAR, labels, false);
+    }
+
+    /**
+     * Returns linear weights of the labels in their sorted order
+     *
+     * @param labelSpace labels
+     * @return weights
+     */
+    public static KappaWeights linear(LabelSpace labelSpace)
+    {
+        return linear(new ArrayList<>(labelSpace.getLabels()));
+    }
+
+    /**
+     * Returns quadratic weights: the disagreement of labels i and j is ((i - j) / (k - 1))^2
+     *
+     * @param labels ordered labels (e.g. ratings from lowest to highest)
+     * @return weights
+     */
+    public static KappaWeights quadratic(List<String> labels)
+    {
+        return canonical(QUADRATIC, labels, true);
+    }
+
+    /**
+     * Returns quadratic weights of the labels in their sorted order
+     *
+     * @param labelSpace labels
+     * @return weights
+     */
+    public static KappaWeights quadratic(LabelSpace labelSpace)
+    {
+        return quadratic(new ArrayList<>(labelSpace.getLabels()));
+    }
+
+    /**
+     * Returns custom disagreement weights; weighted Kappa with 0 on the diagonal and 1 elsewhere
+     * equals Cohen's Kappa
+     *
+     * @param labels  labels
+     * @param weights weights[gold][predicted], size k x k
+     * @return weights
+     */
+    public static KappaWeights of(List<String> labels, double[][] weights)
+    {
+        int k = labels.size();
+        if (weights.length != k) {
+            throw new IllegalArgumentException("Expected " + k + " rows of weights");
+        }
+
+        double[] flat = new double[k * k];
+        for (int i = 0; i < k; i++) {
+            if (weights[i].length != k) {
+                throw new IllegalArgumentException("Expected " + k + " weights in row " + i);
+            }
+            System.arraycopy(weights[i], 0, flat, i * k, k);
+        }
+
+        return new KappaWeights(Collections.unmodifiableList(new ArrayList<>(labels)), flat);
+    }
+
+    private static KappaWeights canonical(Map<List<String>, WeakReference<KappaWeights>> instances,
+            List<String> labels, boolean quadratic)
+    {
+        List<String> key = Collections.unmodifiableList(new ArrayList<>(labels));
+
+        synchronized (instances) {
+            WeakReference<KappaWeights> existing = instances.get(key);
+            KappaWeights result = existing != null ? existing.get() : null;
+            if (result != null) {
+                return result;
+            }
+
+            int k = key.size();
+            double[] flat = new double[k * k];
+            for (int i = 0; i < k; i++) {
+                for (int j = 0; j < k; j++) {
+                    double distance = k > 1 ? (double) Math.abs(i - j) / (k - 1) : 0;
+                    flat[i * k + j] = quadratic ? distance * distance : distance;
+                }
+            }
+
+            result = new KappaWeights(key, flat);
+            instances.put(key, new WeakReference<>(result));
+            return result;
+        }
+    }
+
+    /**
+     * Returns the labels in the order of the weights
+     *
+     * @return unmodifiable list
+     */
+    public List<String> getLabels()
+    {
+        return labels;
+    }
+
+    public int size()
+    {
+        return labels.size();
+    }
+
+    /**
+     * Returns the index of the label
+     *
+     * @param label label
+     * @return index or -1 if the label has no weights
+     */
+    public int indexOf(String label)
+    {
+        Integer i = index.get(label);
+        return i != null ? i : -1;
+    }
+
+    public double getWeight(int gold, int predicted)
+    {
+        return weights[gold * labels.size() + predicted];
+    }
+
+    /**
+     * Computes weighted Kappa from the counts: the observed disagreement is summed while
+     * visiting the cells together with the marginals, the expected disagreement in one pass
+     * over the weights
+     */
+    double kappa(ConfusionMatrix matrix)
+    {
+        final int k = labels.size();
+        final double[] rowSums = new double[k];
+        final double[] colSums = new double[k];
+        final double[] observed = new double[1];
+
+        matrix.visitCells(new ConfusionMatrix.CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                int g = index(goldLabel);
+                int p = index(predictedLabel);
+
+                observed[0] += weights[g * k + p] * value;
+                rowSums[g] += value;
+                colSums[p] += value;
+            }
+        });
+
+        double total = 0;
+        double expected = 0;
+        for (int g = 0; g < k; g++) {
+            total += rowSums[g];
+            if (rowSums[g] == 0) {
+                continue;
+            }
+
+            double row = 0;
+            int offset = g * k;
+            for (int p = 0; p < k; p++) {
+                row += weights[offset + p] * colSums[p];
+            }
+            expected += rowSums[g] * row;
+        }
+
+        return 1 - observed[0] / (expected / total);
+    }
+
+    private int index(String label)
+    {
+        Integer i = index.get(label);
+        if (i == null) {
+            throw new IllegalArgumentException("No weights for label: " + label);
+        }
+
+        return i;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Order of the labels of a matrix as printed (gold labels first, then labels that were only
+ * predicted, each sorted) with a dense index. Labels are never removed from a matrix, so the
+ * order stays valid as long as the numbers of gold and predicted labels are unchanged.
+ *
+ * @author Ivan Habernal
+ */
+final class LabelOrder
+{
+    /**
+     * Gold labels first, then labels that were only predicted, each sorted
+     */
+    final String[] labels;
+
+    final int goldCount;
+
+    private final int predictedCount;
+
+    private final Map<String, Integer> index;
+
+    private LabelOrder(String[] labels, int goldCount, int predictedCount)
+    {
+        this.labels = labels;
+        this.goldCount = goldCount;
+        this.predictedCount = predictedCount;
+        this.index = new HashMap<>(labels.length * 2);
+
+        for (int i = 0; i < labels.length; i++) {
+            index.put(labels[i], i);
+        }
+    }
+
+    static LabelOrder of(ConfusionMatrix matrix)
+    {
+        SortedSet<String> goldLabels = matrix.getGoldLabels();
+        SortedSet<String> predictedLabels = matrix.getPredictedLabels();
+
+        List<String> labels = new ArrayList<>(goldLabels);
+        for (String label : predictedLabels) {
+            if (!goldLabels.contains(label)) {
+                labels.add(label);
+            }
+        }
+
+        return new LabelOrder(labels.toArray(new String[labels.size()]), goldLabels.size(),
+                predictedLabels.size());
+    }
+
+    /**
+     * Returns true if no label has been added to the matrix since this order was created
+     */
+    boolean matches(ConfusionMatrix matrix)
+    {
+        return matrix.getGoldLabels().size() == goldCount
+                && matrix.getPredictedLabels().size() == predictedCount;
+    }
+
+    int size()
+    {
+        return labels.length;
+    }
+
+    /**
+     * Returns the position of the label or -1
+     */
+    int indexOf(String label)
+    {
+        Integer i = index.get(label);
+        return i != null ? i : -1;
+    }
+
+    /**
+     * Returns the counts of the matrix in one pass over its cells, gold labels x all labels
+     */
+    int[][] rows(ConfusionMatrix matrix)
+    {
+        final int[][] result = new int[goldCount][labels.length];
+
+        matrix.visitCells(new ConfusionMatrix.CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                result[index.get(goldLabel)][index.get(predictedLabel)] += value;
+            }
+        });
+
+        return result;
+    }
+}
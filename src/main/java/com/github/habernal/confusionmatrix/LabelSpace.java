@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Immutable, sorted set of labels with a dense index, shared by any number of
+ * {@link DenseConfusionMatrix} instances. Label spaces are canonicalized: {@link #of(Collection)}
+ * returns the same instance for the same labels as long as it is in use, so that matrices over
+ * equal labels can be combined without remapping the labels.
+ *
+ * @author Ivan Habernal
+ */
+public final class LabelSpace
+{
+    /**
+     * Canonical instances, weakly referenced
+     */
+    private static final Map<LabelSpace, WeakReference<LabelSpace>> INSTANCES = new WeakHashMap<>();
+
+    private final String[] labels;
+
+    private final Map<String, Integer> index;
+
+    private final int hash;
+
+    private LabelSpace(String[] labels)
+    {
+        this.labels = labels;
+        this.hash = Arrays.hashCode(labels);
+        this.index = new HashMap<>(labels.length * 2);
+
+        for (int i = 0; i < labels.length; i++) {
+            index.put(labels[i], i);
+        }
+    }
+
+    /**
+     * Returns the canonical label space of the given labels
+     *
+     * @param labels labels (duplicates are ignored)
+     * @return label space
+     */
+    public static LabelSpace of(Collection<String> labels)
+    {
+        LabelSpace space = new LabelSpace(new TreeSet<>(labels).toArray(new String[0]));
+
+        synchronized (INSTANCES) {
+            WeakReference<LabelSpace> existing = INSTANCES.get(space);
+            if (existing != null && existing.get() != null) {
+                return existing.get();
+            }
+
+            INSTANCES.put(space, new WeakReference<>(space));
+            return space;
+        }
+    }
+
+    public static LabelSpace of(String... labels)
+    {
+        return of(Arrays.asList(labels));
+    }
+
+    /**
+     * Returns the canonical label space of all gold and predicted labels of the matrix
+     *
+     * @param matrix matrix
+     * @return label space
+     */
+    public static LabelSpace of(ConfusionMatrix matrix)
+    {
+        Set<String> labels = new HashSet<>(matrix.getGoldLabels());
+        labels.addAll(matrix.getPredictedLabels());
+
+        return of(labels);
+    }
+
+    /**
+     * Returns the canonical label space containing the labels of both spaces
+     *
+     * @param other label space
+     * @return label space
+     */
+    public LabelSpace union(LabelSpace other)
+    {
+        if (other == this) {
+            return this;
+        }
+
+        List<String> all = new ArrayList<>(Arrays.asList(labels));
+        all.addAll(Arrays.asList(other.labels));
+
+        return of(all);
+    }
+
+    public int size()
+    {
+        return labels.length;
+    }
+
+    /**
+     * Returns the index of the label
+     *
+     * @param label label
+     * @return index or -1 if the label is not in this space
+     */
+    public int indexOf(String label)
+    {
+        Integer i = index.get(label);
+        return i != null ? i : -1;
+    }
+
+    public String getLabel(int index)
+    {
+        return labels[index];
+    }
+
+    public boolean contains(String label)
+    {
+        return index.containsKey(label);
+    }
+
+    /**
+     * Returns all labels, sorted
+     *
+     * @return unmodifiable sorted set
+     */
+    public SortedSet<String> getLabels()
+    {
+        BitSet all = new BitSet(labels.length);
+        all.set(0, labels.length);
+
+        return subset(all);
+    }
+
+    /**
+     * Returns a view of the labels with the given indices; the bits must not be changed while
+     * the view is in use unless the view is only read by the owner of the bits
+     *
+     * @param members indices of the labels
+     * @return unmodifiable sorted set
+     */
+    SortedSet<String> subset(BitSet members)
+    {
+        return new Subset(members, 0, labels.length);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return this == o || o instanceof LabelSpace && Arrays
+                .equals(labels, ((LabelSpace) o).labels);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(labels);
+    }
+
+    /**
+     * Sorted set of the labels whose indices are set in a bit set, restricted to a range of
+     * indices
+     */
+    private final class Subset
+            extends AbstractSet<String>
+            implements SortedSet<String>
+    {
+        private final BitSet members;
+
+        private final int from;
+
+        private final int to;
+
+        Subset(BitSet members, int from, int to)
+        {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Index of the first label not smaller than the given one
+         */
+        private int position(String label)
+        {
+            int i = Arrays.binarySearch(labels, label);
+            return Math.min(Math.max(i >= 0 ? i : -i - 1, from), to);
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if (!(o instanceof String)) {
+                return false;
+            }
+
+            int i = indexOf((String) o);
+            return i >= from && i < to && members.get(i);
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int next = members.nextSetBit(from);
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next >= 0 && next < to;
+                }
+
+                @Override
+                public String next()
+                {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    String result = labels[next];
+                    next = members.nextSetBit(next + 1);
+                    return result;
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            if (from == 0 && to == labels.length) {
+                return members.cardinality();
+            }
+
+            return members.get(from, to).cardinality();
+        }
+
+        @Override
+        public Comparator<? super String> comparator()
+        {
+            return null;
+        }
+
+        @Override
+        public SortedSet<String> subSet(String fromElement, String toElement)
+        {
+            int start = position(fromElement);
+            return new Subset(members, start, Math.max(start, position(toElement)));
+        }
+
+        @Override
+        public SortedSet<String> headSet(String toElement)
+        {
+            return new Subset(members, from, position(toElement));
+        }
+
+        @Override
+        public SortedSet<String> tailSet(String fromElement)
+        {
+            return new Subset(members, position(fromElement), to);
+        }
+
+        @Override
+        public String first()
+        {
+            int i = members.nextSetBit(from);
+            if (i < 0 || i >= to) {
+                throw new NoSuchElementException();
+            }
+
+            return labels[i];
+        }
+
+        @Override
+        public String last()
+        {
+            int i = members.previousSetBit(to - 1);
+            if (i < from) {
+                throw new NoSuchElementException();
+            }
+
+            return labels[i];
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Diagonal, row and column sums of a matrix computed in one pass over its cells; all metrics
+ * derived from the marginals cost O(labels) afterwards
+ *
+ * @author Ivan Habernal
+ */
+final class Marginals
+{
+    /**
+     * Gold labels first, then labels that were only predicted, each sorted
+     */
+    final String[] labels;
+
+    final int goldCount;
+
+    final int[] rowSums;
+
+    final int[] colSums;
+
+    final int[] diagonal;
+
+    final int total;
+
+    final int correct;
+
+    private final LabelOrder order;
+
+    private Marginals(LabelOrder order, String[] labels, int goldCount, int[] rowSums, int[] colSums,
+            int[] diagonal, int total, int correct)
+    {
+        this.order = order;
+        this.labels = labels;
+        this.goldCount = goldCount;
+        this.rowSums = rowSums;
+        this.colSums = colSums;
+        this.diagonal = diagonal;
+        this.total = total;
+        this.correct = correct;
+    }
+
+    static Marginals of(ConfusionMatrix matrix)
+    {
+        final LabelOrder order = matrix.labelOrder();
+        int n = order.size();
+
+        final int[] rowSums = new int[n];
+        final int[] colSums = new int[n];
+        final int[] diagonal = new int[n];
+        final int[] sums = new int[2];
+
+        matrix.visitCells(new ConfusionMatrix.CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                int g = order.indexOf(goldLabel);
+                int p = order.indexOf(predictedLabel);
+
+                rowSums[g] += value;
+                colSums[p] += value;
+                sums[0] += value;
+                if (g == p) {
+                    diagonal[g] += value;
+                    sums[1] += value;
+                }
+            }
+        });
+
+        return new Marginals(order, order.labels, order.goldCount, rowSums, colSums, diagonal, sums[0],
+                sums[1]);
+    }
+
+    /**
+     * Returns the index of the label in {@link #labels}
+     *
+     * @return index or -1 if the label is neither gold nor predicted
+     */
+    int indexOf(String label)
+    {
+        return order.indexOf(label);
+    }
+
+    /**
+     * Returns the number of instances that are neither gold nor predicted as the label
+     */
+    int trueNegatives(int label)
+    {
+        return total - rowSums[label] - colSums[label] + diagonal[label];
+    }
+
+    /**
+     * Returns a map of the given per-label values of the gold labels
+     */
+    Map<String, Double> goldLabelMap(double[] values)
+    {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < goldCount; i++) {
+            result.put(labels[i], values[i]);
+        }
+
+        return result;
+    }
+}
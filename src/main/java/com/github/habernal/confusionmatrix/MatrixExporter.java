@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Machine-readable exports of a matrix (JSON, CSV, columnar binary); all formats stream the
+ * non-zero cells from {@link SparseRows} in the printed label order without building a table
+ *
+ * @author Ivan Habernal
+ */
+final class MatrixExporter
+{
+    /**
+     * "CMC1"
+     */
+    static final int COLUMNAR_MAGIC = 0x434d4331;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int CHUNK = 1 << 16;
+
+    private MatrixExporter()
+    {
+    }
+
+    /**
+     * Writes the matrix as JSON; see {@link ConfusionMatrix#writeJson(OutputStream)}
+     */
+    static void writeJson(ConfusionMatrix matrix, OutputStream stream)
+            throws IOException
+    {
+        SparseRows rows = SparseRows.of(matrix);
+        Marginals m = matrix.marginals();
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, UTF_8));
+
+        out.write("{\"labels\":[");
+        for (int i = 0; i < rows.labels.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeJsonString(out, rows.labels[i]);
+        }
+        out.write("],\"goldCount\":");
+        out.write(Integer.toString(rows.goldCount));
+
+        // [gold index, predicted index, count]
+        out.write(",\"cells\":[");
+        for (int g = 0; g < rows.goldCount; g++) {
+            for (int i = rows.rowStarts[g]; i < rows.rowStarts[g + 1]; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write('[');
+                out.write(Integer.toString(g));
+                out.write(',');
+                out.write(Integer.toString(rows.columns[i]));
+                out.write(',');
+                out.write(Integer.toString(rows.values[i]));
+                out.write(']');
+            }
+        }
+        out.write("],\"total\":");
+        out.write(Integer.toString(m.total));
+        out.write(",\"correct\":");
+        out.write(Integer.toString(m.correct));
+
+        out.write(",\"perLabel\":[");
+        for (int i = 0; i < m.goldCount; i++) {
+            double p = ratio(m.diagonal[i], m.colSums[i]);
+            double r = ratio(m.diagonal[i], m.rowSums[i]);
+
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("{\"label\":");
+            writeJsonString(out, m.labels[i]);
+            out.write(",\"support\":");
+            out.write(Integer.toString(m.rowSums[i]));
+            writeJsonNumber(out, "precision", p);
+            writeJsonNumber(out, "recall", r);
+            writeJsonNumber(out, "fMeasure", p + r > 0 ? 2 * p * r / (p + r) : 0);
+            out.write('}');
+        }
+
+        out.write("],\"metrics\":{\"accuracy\":");
+        out.write(jsonNumber(matrix.getAccuracy()));
+        writeJsonNumber(out, "macroFMeasure", matrix.getMacroFMeasure());
+        writeJsonNumber(out, "microFMeasure", matrix.getMicroFMeasure());
+        writeJsonNumber(out, "weightedFMeasure", matrix.getWeightedFMeasure());
+        writeJsonNumber(out, "balancedAccuracy", matrix.getBalancedAccuracy());
+        writeJsonNumber(out, "cohensKappa", matrix.getCohensKappa());
+        writeJsonNumber(out, "matthewsCorrelation", matrix.getMatthewsCorrelation());
+        out.write("}}");
+
+        out.flush();
+    }
+
+    /**
+     * Same guards as {@link ConfusionMatrix#getPrecisionForLabel(String)} and
+     * {@link ConfusionMatrix#getRecallForLabel(String)}
+     */
+    private static double ratio(int tp, int sum)
+    {
+        return tp != 0 && sum > 0 ? (double) tp / sum : 0;
+    }
+
+    private static void writeJsonNumber(Writer out, String name, double value)
+            throws IOException
+    {
+        out.write(",\"");
+        out.write(name);
+        out.write("\":");
+        out.write(jsonNumber(value));
+    }
+
+    /**
+     * NaN and infinities are not valid JSON numbers and are written as null
+     */
+    private static String jsonNumber(double value)
+    {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    private static void writeJsonString(Writer out, String value)
+            throws IOException
+    {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            }
+            else if (c < 0x20) {
+                out.write("\\u00");
+                out.write(Character.forDigit(c >> 4, 16));
+                out.write(Character.forDigit(c & 0xf, 16));
+            }
+            else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Writes the non-zero cells as CSV; see {@link ConfusionMatrix#writeCsv(OutputStream)}
+     */
+    static void writeCsv(ConfusionMatrix matrix, OutputStream stream)
+            throws IOException
+    {
+        SparseRows rows = SparseRows.of(matrix);
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, UTF_8));
+
+        // labels are escaped once, not for every cell
+        String[] escaped = new String[rows.labels.length];
+        for (int i = 0; i < escaped.length; i++) {
+            escaped[i] = csvField(rows.labels[i]);
+        }
+
+        out.write("gold,predicted,count\r\n");
+        for (int g = 0; g < rows.goldCount; g++) {
+            for (int i = rows.rowStarts[g]; i < rows.rowStarts[g + 1]; i++) {
+                out.write(escaped[g]);
+                out.write(',');
+                out.write(escaped[rows.columns[i]]);
+                out.write(',');
+                out.write(Integer.toString(rows.values[i]));
+                out.write("\r\n");
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Quotes the field if needed (RFC 4180)
+     */
+    private static String csvField(String value)
+    {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+
+        return quote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+    }
+
+    /**
+     * Writes the matrix in the columnar layout; see
+     * {@link ConfusionMatrix#writeColumnar(WritableByteChannel)}
+     */
+    static void writeColumnar(ConfusionMatrix matrix, WritableByteChannel channel)
+            throws IOException
+    {
+        SparseRows rows = SparseRows.of(matrix);
+        int n = rows.labels.length;
+        int size = rows.size();
+
+        byte[][] labels = new byte[n][];
+        int labelBytes = 0;
+        for (int i = 0; i < n; i++) {
+            labels[i] = rows.labels[i].getBytes(UTF_8);
+            labelBytes += labels[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(COLUMNAR_MAGIC);
+        buffer.putInt(n);
+        buffer.putInt(rows.goldCount);
+        buffer.putInt(size);
+        buffer.putInt(labelBytes);
+        buffer.putInt(0);
+
+        // label dictionary: n + 1 offsets, then the UTF-8 bytes
+        int offset = 0;
+        for (int i = 0; i <= n; i++) {
+            ensure(channel, buffer, 4);
+            buffer.putInt(offset);
+            offset += i < n ? labels[i].length : 0;
+        }
+        pad(channel, buffer);
+        for (byte[] label : labels) {
+            for (int written = 0; written < label.length; ) {
+                ensure(channel, buffer, 1);
+                int length = Math.min(buffer.remaining(), label.length - written);
+                buffer.put(label, written, length);
+                written += length;
+            }
+        }
+        pad(channel, buffer);
+
+        // columns: gold, predicted, count
+        for (int g = 0; g < rows.goldCount; g++) {
+            for (int i = rows.rowStarts[g]; i < rows.rowStarts[g + 1]; i++) {
+                ensure(channel, buffer, 4);
+                buffer.putInt(g);
+            }
+        }
+        pad(channel, buffer);
+        for (int column : rows.columns) {
+            ensure(channel, buffer, 4);
+            buffer.putInt(column);
+        }
+        pad(channel, buffer);
+        for (int value : rows.values) {
+            ensure(channel, buffer, 4);
+            buffer.putInt(value);
+        }
+        pad(channel, buffer);
+
+        flush(channel, buffer);
+    }
+
+    /**
+     * Flushes the buffer if fewer than the given bytes remain
+     */
+    private static void ensure(WritableByteChannel channel, ByteBuffer buffer, int bytes)
+            throws IOException
+    {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Pads the written bytes to a multiple of 8; the buffer is only flushed when full, so its
+     * position is aligned as the stream
+     */
+    private static void pad(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException
+    {
+        while (buffer.position() % 8 != 0) {
+            ensure(channel, buffer, 1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void flush(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
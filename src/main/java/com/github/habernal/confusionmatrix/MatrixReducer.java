@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sums partial results of sharded evaluation. Workers send their matrices with
+ * {@link ConfusionMatrix#writePartial(OutputStream)} (a binary format with the label dictionary
+ * of the partial and its non-zero cells); the coordinator streams them into a reducer, which
+ * maps the labels of each partial onto its own dictionary and adds the cells to a single
+ * sparse table, so no partial is kept or converted into a {@link ConfusionMatrix}.
+ * <p/>
+ * Partials can be added from many threads (e.g. one per worker connection); decoding runs
+ * concurrently, only the summation is serialized. The label series is not transferred.
+ *
+ * @author Ivan Habernal
+ */
+public class MatrixReducer
+{
+    /**
+     * "CMP1"
+     */
+    static final int MAGIC = 0x434d5031;
+
+    static final int ROLE_GOLD = 1;
+
+    static final int ROLE_PREDICTED = 2;
+
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    private final List<String> labels = new ArrayList<>();
+
+    private int[] roles = new int[16];
+
+    private final CellTable cells = new CellTable();
+
+    private int partialCount;
+
+    /**
+     * Decoded partial with labels local to the partial
+     */
+    private static final class Partial
+    {
+        String[] labels;
+
+        int[] roles;
+
+        int[] golds;
+
+        int[] predictions;
+
+        int[] values;
+    }
+
+    /**
+     * Writes the matrix as a partial result; see {@link ConfusionMatrix#writePartial(OutputStream)}
+     */
+    static void write(ConfusionMatrix matrix, OutputStream stream)
+            throws IOException
+    {
+        SparseRows rows = SparseRows.of(matrix);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+        out.writeInt(MAGIC);
+
+        BinaryFormat.writeVarInt(out, rows.labels.length);
+        for (int i = 0; i < rows.labels.length; i++) {
+            out.writeUTF(rows.labels[i]);
+            out.writeByte((i < rows.goldCount ? ROLE_GOLD : 0)
+                    | (rows.predicted[i] ? ROLE_PREDICTED : 0));
+        }
+
+        // cells by row; the row and the column are stored as differences to the previous cell
+        BinaryFormat.writeVarInt(out, rows.size());
+        int previousGold = 0;
+        for (int g = 0; g < rows.goldCount; g++) {
+            int previousColumn = -1;
+            for (int i = rows.rowStarts[g]; i < rows.rowStarts[g + 1]; i++) {
+                BinaryFormat.writeVarInt(out, g - previousGold);
+                BinaryFormat.writeVarInt(out, rows.columns[i] - previousColumn - 1);
+                BinaryFormat.writeSignedVarInt(out, rows.values[i]);
+
+                previousGold = g;
+                previousColumn = rows.columns[i];
+            }
+        }
+
+        out.flush();
+    }
+
+    private static Partial read(DataInputStream in)
+            throws IOException
+    {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a confusion matrix partial");
+        }
+
+        Partial partial = new Partial();
+
+        int n = BinaryFormat.readCount(in);
+        partial.labels = new String[n];
+        partial.roles = new int[n];
+        for (int i = 0; i < n; i++) {
+            partial.labels[i] = in.readUTF();
+            partial.roles[i] = in.readUnsignedByte();
+        }
+
+        int size = BinaryFormat.readCount(in);
+        partial.golds = new int[size];
+        partial.predictions = new int[size];
+        partial.values = new int[size];
+
+        int gold = 0;
+        int previousColumn = -1;
+        for (int i = 0; i < size; i++) {
+            int rowDelta = BinaryFormat.readVarInt(in);
+            if (rowDelta != 0) {
+                previousColumn = -1;
+            }
+            int columnDelta = BinaryFormat.readVarInt(in);
+            if (rowDelta < 0 || columnDelta < 0) {
+                throw new IOException("Malformed cell delta: " + rowDelta + ", " + columnDelta);
+            }
+
+            // deltas are at most n, so the sums cannot overflow after the range check
+            if (rowDelta > n || columnDelta > n) {
+                throw new IOException("Cell out of range: " + rowDelta + ", " + columnDelta);
+            }
+            gold += rowDelta;
+            int column = previousColumn + 1 + columnDelta;
+
+            if (gold >= n || column >= n) {
+                throw new IOException("Cell out of range: " + gold + ", " + column);
+            }
+
+            partial.golds[i] = gold;
+            partial.predictions[i] = column;
+            partial.values[i] = BinaryFormat.readSignedVarInt(in);
+            previousColumn = column;
+        }
+
+        return partial;
+    }
+
+    /**
+     * Reads one partial from the stream and adds it
+     *
+     * @param in stream positioned at the start of a partial (preferably buffered); it is not
+     *           closed and nothing after the partial is read
+     * @throws IOException if reading fails or the data are not a partial
+     */
+    public void add(InputStream in)
+            throws IOException
+    {
+        add(read(new DataInputStream(in)));
+    }
+
+    /**
+     * Reads and adds partials until the end of the stream
+     *
+     * @param in stream; it is not closed
+     * @return number of partials read
+     * @throws IOException if reading fails or the data are not partials
+     */
+    public int addAll(InputStream in)
+            throws IOException
+    {
+        PushbackInputStream stream = new PushbackInputStream(new BufferedInputStream(in));
+        DataInputStream data = new DataInputStream(stream);
+        int count = 0;
+
+        while (true) {
+            int b = stream.read();
+            if (b < 0) {
+                return count;
+            }
+            stream.unread(b);
+
+            add(read(data));
+            count++;
+        }
+    }
+
+    private synchronized void add(Partial partial)
+    {
+        // local label id -> id of this reducer
+        int[] ids = new int[partial.labels.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = labelId(partial.labels[i]);
+            roles[ids[i]] |= partial.roles[i];
+        }
+
+        for (int i = 0; i < partial.values.length; i++) {
+            cells.add(ids[partial.golds[i]], ids[partial.predictions[i]], partial.values[i]);
+        }
+
+        partialCount++;
+    }
+
+    private int labelId(String label)
+    {
+        Integer id = labelIds.get(label);
+        if (id != null) {
+            return id;
+        }
+
+        int result = labels.size();
+        labels.add(label);
+        labelIds.put(label, result);
+        if (result == roles.length) {
+            roles = Arrays.copyOf(roles, result * 2);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of partials added so far
+     *
+     * @return int
+     */
+    public synchronized int getPartialCount()
+    {
+        return partialCount;
+    }
+
+    /**
+     * Returns the sum of all partials added so far as a new matrix
+     *
+     * @return matrix (with empty label series)
+     */
+    public synchronized ConfusionMatrix getResult()
+    {
+        ConfusionMatrix result = new ConfusionMatrix();
+
+        for (int i = 0; i < cells.keys.length; i++) {
+            long key = cells.keys[i];
+            if (key != CellTable.EMPTY && cells.values[i] != 0) {
+                result.addToCell(labels.get((int) (key >>> 32)), labels.get((int) key),
+                        cells.values[i]);
+            }
+        }
+
+        // labels without non-zero cells; each gold label needs a (possibly empty) row
+        for (int id = 0; id < labels.size(); id++) {
+            if ((roles[id] & ROLE_GOLD) != 0) {
+                result.allGoldLabels.add(labels.get(id));
+                if (!result.map.containsKey(labels.get(id))) {
+                    result.map.put(labels.get(id), new TreeMap<String, Integer>());
+                }
+            }
+            if ((roles[id] & ROLE_PREDICTED) != 0) {
+                result.allPredictedLabels.add(labels.get(id));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Open-addressing hash table from (gold id, predicted id) to the count
+     */
+    private static final class CellTable
+    {
+        static final long EMPTY = -1L;
+
+        long[] keys = newKeys(64);
+
+        int[] values = new int[64];
+
+        int size;
+
+        private static long[] newKeys(int capacity)
+        {
+            long[] result = new long[capacity];
+            Arrays.fill(result, EMPTY);
+            return result;
+        }
+
+        void add(int gold, int predicted, int value)
+        {
+            long key = ((long) gold << 32) | (predicted & 0xffffffffL);
+            int slot = slot(keys, key);
+
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                size++;
+                values[slot] = value;
+
+                if (size * 2 > keys.length) {
+                    grow();
+                }
+            }
+            else {
+                values[slot] += value;
+            }
+        }
+
+        private static int slot(long[] keys, long key)
+        {
+            int mask = keys.length - 1;
+            long hash = key * 0x9e3779b97f4a7c15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+
+            keys = newKeys(oldKeys.length * 2);
+            values = new int[oldKeys.length * 2];
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slot(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
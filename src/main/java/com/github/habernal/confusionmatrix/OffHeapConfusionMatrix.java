@@ -0,0 +1,728 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Confusion matrix over a fixed {@link LabelSpace} whose counts are kept outside of the Java
+ * heap: in direct buffers, or in a memory-mapped file so that the matrix survives restarts and
+ * can be read by other processes. A dense matrix of 20k labels (1.6 GB of int cells) thus puts
+ * no load on the garbage collector; the heap holds only the label space and two bit sets.
+ * <p/>
+ * The file starts with the labels, followed by the marginals and the cells in little-endian
+ * order; cells are split into regions of at most 1 GB of whole rows. Other processes opening
+ * the file with {@link #open(Path, boolean)} see updates as they are made, without any
+ * consistency between cells.
+ * <p/>
+ * A file has a single writer: a writable mapping holds an exclusive lock on the file until it
+ * is closed, and opening the file for writing fails while another process (or another
+ * instance in this process) holds it. Read-only mappings take no lock and cache nothing.
+ * <p/>
+ * Off-heap memory is released by {@link #close()}; the matrix cannot be used afterwards. Not
+ * thread-safe; the series of labels is not kept.
+ *
+ * @author Ivan Habernal
+ */
+public class OffHeapConfusionMatrix
+        extends ConfusionMatrix
+        implements Closeable
+{
+    /**
+     * "CMO1"
+     */
+    static final int MAGIC = 0x434d4f31;
+
+    private static final long MAX_REGION_BYTES = 1L << 30;
+
+    private static final int GOLD = 1;
+
+    private static final int PREDICTED = 2;
+
+    // offsets in the metadata region
+    private static final int TOTAL = 0;
+
+    private static final int CORRECT = 4;
+
+    /**
+     * Incremented whenever a label gets a new role, so that readers of a shared file know when
+     * to reload the label sets
+     */
+    private static final int ROLES_VERSION = 8;
+
+    private static final int ROLES = 12;
+
+    private final LabelSpace labelSpace;
+
+    private final int n;
+
+    private final int rowsPerRegion;
+
+    private final boolean readOnly;
+
+    /**
+     * Mapped file or null for direct buffers
+     */
+    private final FileChannel channel;
+
+    /**
+     * Total, correct, roles version, roles, row sums and column sums; null once closed
+     */
+    private ByteBuffer meta;
+
+    /**
+     * Cells by regions of rowsPerRegion rows; null once closed
+     */
+    private ByteBuffer[] regions;
+
+    private final BitSet goldLabels;
+
+    private final BitSet predictedLabels;
+
+    private int rolesVersion;
+
+    /**
+     * Creates an empty matrix in direct buffers
+     *
+     * @param labelSpace labels
+     */
+    public OffHeapConfusionMatrix(LabelSpace labelSpace)
+    {
+        this(labelSpace, allocate(labelSpace.size()), null, false);
+    }
+
+    private OffHeapConfusionMatrix(LabelSpace labelSpace, ByteBuffer[] buffers,
+            FileChannel channel, boolean readOnly)
+    {
+        this.labelSpace = labelSpace;
+        this.n = labelSpace.size();
+        this.rowsPerRegion = rowsPerRegion(n);
+        this.meta = buffers[0];
+        this.regions = Arrays.copyOfRange(buffers, 1, buffers.length);
+        this.channel = channel;
+        this.readOnly = readOnly;
+        this.goldLabels = new BitSet(n);
+        this.predictedLabels = new BitSet(n);
+        this.rolesVersion = -1;
+
+        // labels and cells are kept in the buffers above
+        this.map = null;
+        this.allGoldLabels = null;
+        this.allPredictedLabels = null;
+        this.labelSeries = null;
+    }
+
+    /**
+     * Opens the matrix stored in the given file, creating an empty one if the file does not
+     * exist or is empty
+     *
+     * @param file       file
+     * @param labelSpace labels; must be the labels of an existing matrix
+     * @return matrix; must be closed
+     * @throws IOException              if the file cannot be mapped
+     * @throws IllegalArgumentException if the file contains a matrix over other labels
+     */
+    public static OffHeapConfusionMatrix map(Path file, LabelSpace labelSpace)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock(channel, file);
+
+            long offset;
+            if (channel.size() == 0) {
+                offset = writeHeader(channel, labelSpace);
+            }
+            else {
+                List<String> labels = new ArrayList<>();
+                offset = readHeader(channel, labels);
+                if (!labelSpace.equals(LabelSpace.of(labels))) {
+                    throw new IllegalArgumentException(
+                            "File " + file + " contains a matrix over other labels");
+                }
+            }
+
+            return new OffHeapConfusionMatrix(labelSpace,
+                    map(channel, offset, labelSpace.size(), false), channel, false);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing matrix stored by {@link #map(Path, LabelSpace)}, e.g. in another process
+     *
+     * @param file     file
+     * @param readOnly whether the matrix can be updated
+     * @return matrix; must be closed
+     * @throws IOException if the file cannot be mapped or does not contain a matrix, or if it
+     *                     is opened for writing while another writer holds it
+     */
+    public static OffHeapConfusionMatrix open(Path file, boolean readOnly)
+            throws IOException
+    {
+        FileChannel channel = readOnly ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!readOnly) {
+                lock(channel, file);
+            }
+
+            List<String> labels = new ArrayList<>();
+            long offset = readHeader(channel, labels);
+            LabelSpace labelSpace = LabelSpace.of(labels);
+
+            return new OffHeapConfusionMatrix(labelSpace,
+                    map(channel, offset, labelSpace.size(), readOnly), channel, readOnly);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the exclusive lock of a writable mapping; released when the channel is closed
+     *
+     * @throws IOException if the file is locked by another writer
+     */
+    private static void lock(FileChannel channel, Path file)
+            throws IOException
+    {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+
+        if (lock == null) {
+            throw new IOException("File " + file + " is already opened for writing");
+        }
+    }
+
+    /**
+     * Writes magic, number of labels, length of the labels and the labels
+     *
+     * @return offset of the metadata region
+     */
+    private static long writeHeader(FileChannel channel, LabelSpace labelSpace)
+            throws IOException
+    {
+        ByteArrayOutputStream labels = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(labels);
+        for (int i = 0; i < labelSpace.size(); i++) {
+            out.writeUTF(labelSpace.getLabel(i));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(12 + labels.size());
+        header.putInt(MAGIC).putInt(labelSpace.size()).putInt(labels.size())
+                .put(labels.toByteArray());
+        header.flip();
+
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+
+        return align(position);
+    }
+
+    private static long readHeader(FileChannel channel, List<String> labels)
+            throws IOException
+    {
+        ByteBuffer start = read(channel, 0, 12);
+        int count = start.getInt(4);
+        int length = start.getInt(8);
+        if (start.getInt(0) != MAGIC || count < 0 || length < 0) {
+            throw new IOException("Not an off-heap confusion matrix");
+        }
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(read(channel, 12, length).array()));
+        for (int i = 0; i < count; i++) {
+            labels.add(in.readUTF());
+        }
+
+        return align(12 + length);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException
+    {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            if (channel.read(result, position + result.position()) < 0) {
+                throw new EOFException("Truncated off-heap confusion matrix");
+            }
+        }
+
+        return result;
+    }
+
+    private static long align(long offset)
+    {
+        return (offset + 7) & ~7L;
+    }
+
+    private static int rowsPerRegion(int n)
+    {
+        return (int) Math.max(1, Math.min(n, MAX_REGION_BYTES / (4L * Math.max(n, 1))));
+    }
+
+    private static int metaBytes(int n)
+    {
+        return ROLES + 12 * n;
+    }
+
+    /**
+     * Sizes of the metadata region and the cell regions
+     */
+    private static long[] regionSizes(int n)
+    {
+        int rows = rowsPerRegion(n);
+        int count = (n + rows - 1) / rows;
+
+        long[] result = new long[1 + count];
+        result[0] = metaBytes(n);
+        for (int r = 0; r < count; r++) {
+            result[1 + r] = 4L * Math.min(rows, n - r * rows) * n;
+        }
+
+        return result;
+    }
+
+    private static ByteBuffer[] allocate(int n)
+    {
+        long[] sizes = regionSizes(n);
+        ByteBuffer[] result = new ByteBuffer[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            result[i] = ByteBuffer.allocateDirect((int) sizes[i]).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return result;
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, long offset, int n, boolean readOnly)
+            throws IOException
+    {
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY
+                : FileChannel.MapMode.READ_WRITE;
+
+        long[] sizes = regionSizes(n);
+        ByteBuffer[] result = new ByteBuffer[sizes.length];
+        long position = offset;
+        for (int i = 0; i < sizes.length; i++) {
+            if (readOnly && position + sizes[i] > channel.size()) {
+                throw new EOFException("Truncated off-heap confusion matrix");
+            }
+
+            result[i] = channel.map(mode, position, sizes[i]).order(ByteOrder.LITTLE_ENDIAN);
+            position = align(position + sizes[i]);
+        }
+
+        return result;
+    }
+
+    public LabelSpace getLabelSpace()
+    {
+        return labelSpace;
+    }
+
+    private int index(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        if (i < 0) {
+            throw new IllegalArgumentException("Label not in label space: " + label);
+        }
+
+        return i;
+    }
+
+    private ByteBuffer meta()
+    {
+        if (meta == null) {
+            throw new IllegalStateException("Confusion matrix is closed");
+        }
+
+        return meta;
+    }
+
+    private ByteBuffer region(int gold)
+    {
+        if (regions == null) {
+            throw new IllegalStateException("Confusion matrix is closed");
+        }
+
+        return regions[gold / rowsPerRegion];
+    }
+
+    private int cellOffset(int gold, int observed)
+    {
+        return ((gold % rowsPerRegion) * n + observed) * 4;
+    }
+
+    /**
+     * Increases value of goldValue x observedValue n times; the label series is not kept
+     *
+     * @param goldValue     exp
+     * @param observedValue ac
+     * @param times         n-times
+     * @throws IllegalArgumentException if a label is not in the label space
+     */
+    @Override
+    public void increaseValue(String goldValue, String observedValue, int times)
+    {
+        addToCell(goldValue, observedValue, times);
+    }
+
+    /**
+     * Increases the cell given by indices of the label space n times
+     *
+     * @param gold     index of the gold label
+     * @param observed index of the predicted label
+     * @param times    n-times
+     */
+    public void increaseValue(int gold, int observed, int times)
+    {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Read-only confusion matrix");
+        }
+
+        ByteBuffer cells = region(gold);
+        int cell = cellOffset(gold, observed);
+        cells.putInt(cell, cells.getInt(cell) + times);
+
+        ByteBuffer meta = meta();
+        addInt(meta, ROLES + 4 * n + 4 * gold, times);
+        addInt(meta, ROLES + 8 * n + 4 * observed, times);
+        addInt(meta, TOTAL, times);
+        if (gold == observed) {
+            addInt(meta, CORRECT, times);
+        }
+
+        addRole(meta, gold, GOLD);
+        addRole(meta, observed, PREDICTED);
+
+        recordChange(labelSpace.getLabel(gold), labelSpace.getLabel(observed), times);
+    }
+
+    private static void addInt(ByteBuffer buffer, int offset, int value)
+    {
+        buffer.putInt(offset, buffer.getInt(offset) + value);
+    }
+
+    private void addRole(ByteBuffer meta, int label, int role)
+    {
+        int roles = meta.getInt(ROLES + 4 * label);
+        if ((roles & role) == 0) {
+            meta.putInt(ROLES + 4 * label, roles | role);
+            addInt(meta, ROLES_VERSION, 1);
+        }
+    }
+
+    /**
+     * Other processes may update a read-only matrix; a writable one is the only writer of its
+     * file (see {@link #lock(FileChannel, Path)})
+     *
+     * @return false if read-only
+     */
+    @Override
+    protected boolean tracksModifications()
+    {
+        return !readOnly;
+    }
+
+    @Override
+    protected void addToCell(String goldValue, String observedValue, int times)
+    {
+        increaseValue(index(goldValue), index(observedValue), times);
+    }
+
+    /**
+     * Returns the value of the cell given by indices of the label space
+     *
+     * @param gold     index of the gold label
+     * @param observed index of the predicted label
+     * @return value
+     */
+    public int getValue(int gold, int observed)
+    {
+        return region(gold).getInt(cellOffset(gold, observed));
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        int g = labelSpace.indexOf(goldValue);
+        int p = labelSpace.indexOf(observedValue);
+
+        return g < 0 || p < 0 ? 0 : getValue(g, p);
+    }
+
+    @Override
+    public int getTotalSum()
+    {
+        return meta().getInt(TOTAL);
+    }
+
+    @Override
+    public int getCorrectSum()
+    {
+        return meta().getInt(CORRECT);
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        return i >= 0 ? meta().getInt(ROLES + 4 * n + 4 * i) : 0;
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        int i = labelSpace.indexOf(label);
+        return i >= 0 ? meta().getInt(ROLES + 8 * n + 4 * i) : 0;
+    }
+
+    /**
+     * Reloads the label sets if roles were added since (possibly by another process)
+     */
+    private void refreshLabels()
+    {
+        ByteBuffer meta = meta();
+        int version = meta.getInt(ROLES_VERSION);
+        if (version == rolesVersion) {
+            return;
+        }
+
+        for (int i = 0; i < n; i++) {
+            int roles = meta.getInt(ROLES + 4 * i);
+            goldLabels.set(i, (roles & GOLD) != 0);
+            predictedLabels.set(i, (roles & PREDICTED) != 0);
+        }
+        rolesVersion = version;
+    }
+
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        refreshLabels();
+        return labelSpace.subset(goldLabels);
+    }
+
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        refreshLabels();
+        return labelSpace.subset(predictedLabels);
+    }
+
+    @Override
+    protected void visitCells(CellVisitor visitor)
+    {
+        refreshLabels();
+
+        for (int g = goldLabels.nextSetBit(0); g >= 0; g = goldLabels.nextSetBit(g + 1)) {
+            ByteBuffer cells = region(g);
+            int row = cellOffset(g, 0);
+
+            for (int p = 0; p < n; p++) {
+                int value = cells.getInt(row + 4 * p);
+                if (value != 0) {
+                    visitor.visit(labelSpace.getLabel(g), labelSpace.getLabel(p), value);
+                }
+            }
+        }
+    }
+
+    @Override
+    Iterator<Confusion> confusionIterator(String goldLabel)
+    {
+        return ConfusionScanner.scanRow(this, goldLabel);
+    }
+
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        refreshLabels();
+
+        return new ConfusionScanner()
+        {
+            private int gold = goldLabels.nextSetBit(0);
+
+            private int predicted = -1;
+
+            @Override
+            protected Confusion advance()
+            {
+                while (gold >= 0) {
+                    predicted++;
+                    if (predicted == n) {
+                        gold = goldLabels.nextSetBit(gold + 1);
+                        predicted = -1;
+                        continue;
+                    }
+
+                    int value = getValue(gold, predicted);
+                    if (predicted != gold && value != 0) {
+                        return new Confusion(labelSpace.getLabel(gold),
+                                labelSpace.getLabel(predicted), value);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * The series of labels is not kept
+     *
+     * @return empty list
+     */
+    @Override
+    public List<String> getLabelSeries()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Estimates the bytes retained on the heap; the label space is shared and not included,
+     * the off-heap storage is returned by {@link #getStorageBytes()}
+     *
+     * @return bytes
+     */
+    @Override
+    public long estimateRetainedBytes()
+    {
+        // instance, region table, two bit sets
+        return 96 + 16 + 4L * regionSizes(n).length + 2 * (40 + n / 8);
+    }
+
+    /**
+     * Returns the size of the off-heap storage (direct buffers or mapped file regions)
+     *
+     * @return bytes
+     */
+    public long getStorageBytes()
+    {
+        long result = 0;
+        for (long size : regionSizes(n)) {
+            result += size;
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes all changes of a memory-mapped matrix to the file; does nothing for direct buffers
+     */
+    public void force()
+    {
+        if (channel == null || readOnly) {
+            return;
+        }
+
+        ((MappedByteBuffer) meta()).force();
+        for (ByteBuffer region : regions) {
+            ((MappedByteBuffer) region).force();
+        }
+    }
+
+    public boolean isClosed()
+    {
+        return meta == null;
+    }
+
+    /**
+     * Writes the changes of a memory-mapped matrix to the file and releases the off-heap memory
+     * and the file; any further use of the matrix fails
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (isClosed()) {
+            return;
+        }
+
+        force();
+
+        ByteBuffer[] buffers = new ByteBuffer[regions.length + 1];
+        buffers[0] = meta;
+        System.arraycopy(regions, 0, buffers, 1, regions.length);
+        meta = null;
+        regions = null;
+
+        for (ByteBuffer buffer : buffers) {
+            release(buffer);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Frees the memory of a direct or mapped buffer immediately instead of when the buffer is
+     * garbage collected; there is no public API for this, so the JDK internals are used if
+     * accessible (sun.misc.Unsafe on Java 9+, the cleaner of the buffer on Java 8)
+     */
+    private static void release(ByteBuffer buffer)
+    {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            }
+            catch (NoSuchMethodException e) {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object instance = cleaner.invoke(buffer);
+                if (instance != null) {
+                    instance.getClass().getMethod("clean").invoke(instance);
+                }
+            }
+        }
+        catch (Exception e) {
+            // not accessible; released when the buffer is garbage collected
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Read-only view of another confusion matrix with relabeled (merged) and/or dropped labels; no
+ * counts are copied, every query is answered from the source matrix, so the view always
+ * reflects its current state. The marginals of the view are computed in one pass over the
+ * source cells and cached until the source changes (if the source tracks its changes).
+ *
+ * @author Ivan Habernal
+ */
+class ProjectedConfusionMatrix
+        extends ReadOnlyConfusionMatrix
+{
+    private final ConfusionMatrix source;
+
+    /**
+     * Source label &rarr; target label; unmapped labels are kept as they are
+     */
+    private final Map<String, String> mapping;
+
+    /**
+     * Source labels to keep; null keeps all
+     */
+    private final Set<String> retained;
+
+    /**
+     * Target label &rarr; source labels explicitly mapped onto it
+     */
+    private final Map<String, List<String>> mappedSources;
+
+    /**
+     * Label order and marginals cached for {@link #version} of the source
+     */
+    private LabelOrder labelOrder;
+
+    private Marginals marginals;
+
+    private long version = -1;
+
+    /**
+     * @param source   source matrix
+     * @param mapping  source label &rarr; target label; labels not in the mapping stay unchanged
+     * @param retained source labels to keep, all other are dropped; null keeps all labels
+     */
+    ProjectedConfusionMatrix(ConfusionMatrix source, Map<String, String> mapping,
+            Set<String> retained)
+    {
+        this.source = source;
+        this.mapping = new HashMap<>(mapping);
+        this.retained = retained != null ? new HashSet<>(retained) : null;
+        this.mappedSources = new HashMap<>();
+
+        for (Map.Entry<String, String> entry : this.mapping.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException(
+                        "Label " + entry.getKey() + " is mapped to null");
+            }
+
+            List<String> sources = mappedSources.get(entry.getValue());
+            if (sources == null) {
+                sources = new ArrayList<>();
+                mappedSources.put(entry.getValue(), sources);
+            }
+            sources.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Returns the target label or null if the label is dropped
+     */
+    private String target(String label)
+    {
+        if (retained != null && !retained.contains(label)) {
+            return null;
+        }
+
+        String target = mapping.get(label);
+        return target != null ? target : label;
+    }
+
+    /**
+     * Returns all source labels that are projected onto the target label
+     */
+    private List<String> sources(String target)
+    {
+        List<String> result = new ArrayList<>();
+
+        List<String> mapped = mappedSources.get(target);
+        if (mapped != null) {
+            for (String label : mapped) {
+                if (retained == null || retained.contains(label)) {
+                    result.add(label);
+                }
+            }
+        }
+
+        if (!mapping.containsKey(target) && (retained == null || retained.contains(target))) {
+            result.add(target);
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the cached label order and marginals if the source has changed; returns false if
+     * the source does not track its changes and nothing can be cached
+     */
+    private boolean validateCache()
+    {
+        if (!source.tracksModifications()) {
+            return false;
+        }
+
+        long current = source.getModificationCount();
+        if (version != current) {
+            labelOrder = null;
+            marginals = null;
+            version = current;
+        }
+
+        return true;
+    }
+
+    @Override
+    LabelOrder labelOrder()
+    {
+        if (!validateCache()) {
+            return LabelOrder.of(this);
+        }
+
+        if (labelOrder == null) {
+            labelOrder = LabelOrder.of(this);
+        }
+
+        return labelOrder;
+    }
+
+    @Override
+    Marginals marginals()
+    {
+        if (!validateCache()) {
+            return Marginals.of(this);
+        }
+
+        if (marginals == null) {
+            marginals = Marginals.of(this);
+        }
+
+        return marginals;
+    }
+
+    private SortedSet<String> targets(Collection<String> labels)
+    {
+        TreeSet<String> result = new TreeSet<>();
+
+        for (String label : labels) {
+            String target = target(label);
+            if (target != null) {
+                result.add(target);
+            }
+        }
+
+        return Collections.unmodifiableSortedSet(result);
+    }
+
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        return targets(source.getGoldLabels());
+    }
+
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        return targets(source.getPredictedLabels());
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        int result = 0;
+
+        List<String> observedSources = sources(observedValue);
+        for (String gold : sources(goldValue)) {
+            for (String observed : observedSources) {
+                result += source.getValue(gold, observed);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        if (retained != null) {
+            // dropped columns have to be subtracted, take the sums of the view
+            int i = labelOrder().indexOf(label);
+            return i < 0 ? 0 : marginals().rowSums[i];
+        }
+
+        SortedSet<String> sourceGold = source.getGoldLabels();
+        int result = 0;
+
+        for (String gold : sources(label)) {
+            if (sourceGold.contains(gold)) {
+                result += source.getRowSum(gold);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        if (retained != null) {
+            int i = labelOrder().indexOf(label);
+            return i < 0 ? 0 : marginals().colSums[i];
+        }
+
+        int result = 0;
+
+        for (String observed : sources(label)) {
+            result += source.getColSum(observed);
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getTotalSum()
+    {
+        return retained == null ? source.getTotalSum() : marginals().total;
+    }
+
+    @Override
+    public int getCorrectSum()
+    {
+        return marginals().correct;
+    }
+
+    /**
+     * Sums the projected cells in a copy, as merged labels visit the same cell more than once
+     *
+     * @return iterator
+     */
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        return copyOf(this).confusionIterator();
+    }
+
+    /**
+     * Sums the confusions of the source rows projected onto the gold label
+     *
+     * @param goldLabel gold label
+     * @return iterator
+     */
+    @Override
+    Iterator<Confusion> confusionIterator(String goldLabel)
+    {
+        SortedMap<String, Integer> row = new TreeMap<>();
+
+        for (String gold : sources(goldLabel)) {
+            Iterator<Confusion> confusions = source.confusionIterator(gold);
+            while (confusions.hasNext()) {
+                Confusion confusion = confusions.next();
+                String predicted = target(confusion.getPredictedLabel());
+
+                // labels merged with the gold label become correct
+                if (predicted != null && !predicted.equals(goldLabel)) {
+                    Integer value = row.get(predicted);
+                    row.put(predicted, (value != null ? value : 0) + confusion.getCount());
+                }
+            }
+        }
+
+        List<Confusion> result = new ArrayList<>(row.size());
+        for (Map.Entry<String, Integer> cell : row.entrySet()) {
+            if (cell.getValue() != 0) {
+                result.add(new Confusion(goldLabel, cell.getKey(), cell.getValue()));
+            }
+        }
+
+        return result.iterator();
+    }
+
+    @Override
+    protected void visitCells(final CellVisitor visitor)
+    {
+        source.visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                String gold = target(goldLabel);
+                String predicted = target(predictedLabel);
+
+                if (gold != null && predicted != null) {
+                    visitor.visit(gold, predicted, value);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Base for confusion matrices that are not backed by the map of {@link ConfusionMatrix} (such
+ * as views); all read methods go through the abstract accessors, updates are not supported
+ *
+ * @author Ivan Habernal
+ */
+abstract class ReadOnlyConfusionMatrix
+        extends ConfusionMatrix
+{
+    @Override
+    public abstract int getTotalSum();
+
+    @Override
+    public abstract int getCorrectSum();
+
+    @Override
+    public abstract int getValue(String goldValue, String observedValue);
+
+    @Override
+    public abstract int getRowSum(String label);
+
+    @Override
+    public abstract int getColSum(String label);
+
+    @Override
+    public abstract SortedSet<String> getGoldLabels();
+
+    @Override
+    public abstract SortedSet<String> getPredictedLabels();
+
+    @Override
+    protected abstract void visitCells(CellVisitor visitor);
+
+    /**
+     * Read-only matrices do not keep the series of labels
+     *
+     * @return empty list
+     */
+    @Override
+    public List<String> getLabelSeries()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Scans all labels as the same cell might be visited more than once; views and matrices
+     * that can walk their cells override it
+     *
+     * @return iterator
+     */
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        return ConfusionScanner.scan(this);
+    }
+
+    @Override
+    Iterator<Confusion> confusionIterator(String goldLabel)
+    {
+        return ConfusionScanner.scanRow(this, goldLabel);
+    }
+
+    @Override
+    public void increaseValue(String goldValue, String observedValue, int times)
+    {
+        throw new UnsupportedOperationException("Read-only confusion matrix");
+    }
+
+    @Override
+    protected void addToCell(String goldValue, String observedValue, int times)
+    {
+        throw new UnsupportedOperationException("Read-only confusion matrix");
+    }
+
+    /**
+     * The underlying data may change without notice
+     *
+     * @return false
+     */
+    @Override
+    protected boolean tracksModifications()
+    {
+        return false;
+    }
+
+    /**
+     * Changes of the underlying data are not logged
+     *
+     * @return null
+     */
+    @Override
+    ChangeLog startChangeLog()
+    {
+        return null;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Arrays;
+
+/**
+ * Scalar implementation of {@link ConfusionMatrixKernels}, see
+ * {@link ConfusionMatrixKernels#SCALAR}
+ *
+ * @author Ivan Habernal
+ */
+final class ScalarKernels
+        implements ConfusionMatrixKernels
+{
+    @Override
+    public void marginals(int[] counts, int n, int[] rowSums, int[] colSums)
+    {
+        Arrays.fill(colSums, 0, n, 0);
+
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            int sum = 0;
+            for (int j = 0; j < n; j++) {
+                int value = counts[row + j];
+                sum += value;
+                colSums[j] += value;
+            }
+            rowSums[i] = sum;
+        }
+    }
+
+    @Override
+    public void f1Measures(int[] truePositives, int[] rowSums, int[] colSums, int length,
+            double[] result)
+    {
+        for (int i = 0; i < length; i++) {
+            double p = ratio(truePositives[i], colSums[i]);
+            double r = ratio(truePositives[i], rowSums[i]);
+
+            result[i] = (p + r) > 0 ? (2 * p * r) / (p + r) : 0;
+        }
+    }
+
+    @Override
+    public void fMeasures(int[] truePositives, int[] rowSums, int[] colSums, int length,
+            double beta, double[] result)
+    {
+        double beta2 = beta * beta;
+
+        for (int i = 0; i < length; i++) {
+            double p = ratio(truePositives[i], colSums[i]);
+            double r = ratio(truePositives[i], rowSums[i]);
+
+            result[i] = (p + r) > 0 ? (1.0 + beta2) * ((p * r) / ((beta2 * p) + r)) : 0;
+        }
+    }
+
+    /**
+     * Precision or recall as in {@link ConfusionMatrix#getPrecisionForLabel(String)}
+     */
+    private static double ratio(int tp, int sum)
+    {
+        return tp != 0 && sum > 0 ? (double) tp / (double) sum : 0;
+    }
+
+    @Override
+    public long sumOfProducts(int[] a, int[] b, int length)
+    {
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result += (long) a[i] * b[i];
+        }
+
+        return result;
+    }
+}
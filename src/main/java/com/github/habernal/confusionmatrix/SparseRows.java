@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.*;
+
+/**
+ * Non-zero cells of a matrix in compressed sparse rows over the label order of
+ * {@link ConfusionMatrixSnapshot} (gold labels sorted, then only predicted labels sorted);
+ * columns are ascending within a row and duplicate cells are merged
+ *
+ * @author Ivan Habernal
+ */
+final class SparseRows
+{
+    final String[] labels;
+
+    final int goldCount;
+
+    /**
+     * Whether the label is a predicted label
+     */
+    final boolean[] predicted;
+
+    /**
+     * Start of each gold row in {@link #columns} and {@link #values}, goldCount + 1 entries
+     */
+    final int[] rowStarts;
+
+    final int[] columns;
+
+    final int[] values;
+
+    final Map<String, Integer> index;
+
+    private SparseRows(String[] labels, int goldCount, boolean[] predicted, int[] rowStarts,
+            int[] columns, int[] values, Map<String, Integer> index)
+    {
+        this.labels = labels;
+        this.goldCount = goldCount;
+        this.predicted = predicted;
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.values = values;
+        this.index = index;
+    }
+
+    int size()
+    {
+        return rowStarts[goldCount];
+    }
+
+    static SparseRows of(ConfusionMatrix source)
+    {
+        SortedSet<String> goldLabels = source.getGoldLabels();
+        SortedSet<String> predictedLabels = source.getPredictedLabels();
+
+        List<String> labelList = new ArrayList<>(goldLabels);
+        for (String label : predictedLabels) {
+            if (!goldLabels.contains(label)) {
+                labelList.add(label);
+            }
+        }
+
+        final int n = labelList.size();
+        final int goldCount = goldLabels.size();
+        final Map<String, Integer> index = new HashMap<>(n * 2);
+        boolean[] predicted = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            index.put(labelList.get(i), i);
+            predicted[i] = i >= goldCount || predictedLabels.contains(labelList.get(i));
+        }
+
+        // count the cells of each row, then place them
+        final int[] rowStart = new int[goldCount + 1];
+        source.visitCells(new ConfusionMatrix.CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                rowStart[index.get(goldLabel) + 1]++;
+            }
+        });
+        for (int g = 0; g < goldCount; g++) {
+            rowStart[g + 1] += rowStart[g];
+        }
+
+        // column in the upper half, value in the lower half; sorting a row sorts by column
+        final long[] cells = new long[rowStart[goldCount]];
+        final int[] fill = Arrays.copyOf(rowStart, goldCount);
+        source.visitCells(new ConfusionMatrix.CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                cells[fill[index.get(goldLabel)]++] = ((long) index.get(predictedLabel) << 32)
+                        | (value & 0xffffffffL);
+            }
+        });
+
+        int[] cols = new int[cells.length];
+        int[] vals = new int[cells.length];
+        int[] rowStarts = new int[goldCount + 1];
+        int size = 0;
+
+        for (int g = 0; g < goldCount; g++) {
+            Arrays.sort(cells, rowStart[g], rowStart[g + 1]);
+            int rowStartSize = size;
+
+            for (int i = rowStart[g]; i < rowStart[g + 1]; i++) {
+                int col = (int) (cells[i] >>> 32);
+                int value = (int) cells[i];
+
+                if (size > rowStartSize && cols[size - 1] == col) {
+                    vals[size - 1] += value;
+                }
+                else {
+                    cols[size] = col;
+                    vals[size] = value;
+                    size++;
+                }
+            }
+
+            // drop zeros (also those resulting from merging)
+            int kept = rowStartSize;
+            for (int i = rowStartSize; i < size; i++) {
+                if (vals[i] != 0) {
+                    cols[kept] = cols[i];
+                    vals[kept] = vals[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            rowStarts[g + 1] = size;
+        }
+
+        return new SparseRows(labelList.toArray(new String[n]), goldCount, predicted,
+                rowStarts, Arrays.copyOf(cols, size), Arrays.copyOf(vals, size), index);
+    }
+}
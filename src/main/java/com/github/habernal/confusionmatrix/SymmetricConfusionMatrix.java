@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Read-only view of C + C^T - InC of another confusion matrix C, see
+ * {@link ConfusionMatrix#getSymmetricConfusionMatrix()}; off-diagonal cells are the sums of
+ * both directions, the diagonal is kept. No counts are copied, every query is answered from
+ * the source matrix, so the view always reflects its current state.
+ *
+ * @author Ivan Habernal
+ */
+class SymmetricConfusionMatrix
+        extends ReadOnlyConfusionMatrix
+{
+    private final ConfusionMatrix source;
+
+    /**
+     * @param source source matrix
+     */
+    SymmetricConfusionMatrix(ConfusionMatrix source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * Both directions of each off-diagonal cell are counted once
+     */
+    @Override
+    public int getTotalSum()
+    {
+        return 2 * source.getTotalSum() - source.getCorrectSum();
+    }
+
+    @Override
+    public int getCorrectSum()
+    {
+        return source.getCorrectSum();
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        if (goldValue.equals(observedValue)) {
+            return source.getValue(goldValue, observedValue);
+        }
+
+        return source.getValue(goldValue, observedValue) + source
+                .getValue(observedValue, goldValue);
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        int rowSum = source.getGoldLabels().contains(label) ? source.getRowSum(label) : 0;
+
+        return rowSum + source.getColSum(label) - source.getValue(label, label);
+    }
+
+    /**
+     * The matrix is symmetric, same as {@link #getRowSum(String)}
+     */
+    @Override
+    public int getColSum(String label)
+    {
+        return getRowSum(label);
+    }
+
+    /**
+     * Gold and predicted labels of the source matrix
+     *
+     * @return unmodifiable sorted set
+     */
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        TreeSet<String> result = new TreeSet<>(source.getGoldLabels());
+        result.addAll(source.getPredictedLabels());
+
+        return Collections.unmodifiableSortedSet(result);
+    }
+
+    /**
+     * Same as {@link #getGoldLabels()}
+     *
+     * @return unmodifiable sorted set
+     */
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        return getGoldLabels();
+    }
+
+    /**
+     * Visits each off-diagonal cell of the source in both directions
+     */
+    @Override
+    protected void visitCells(final CellVisitor visitor)
+    {
+        source.visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                visitor.visit(goldLabel, predictedLabel, value);
+                if (!goldLabel.equals(predictedLabel)) {
+                    visitor.visit(predictedLabel, goldLabel, value);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.habernal.confusionmatrix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * Read-only transposed view of another confusion matrix (gold and predicted labels are
+ * switched); no counts are copied, every query is answered from the source matrix, so the view
+ * always reflects its current state
+ *
+ * @author Ivan Habernal
+ */
+class TransposedConfusionMatrix
+        extends ReadOnlyConfusionMatrix
+{
+    private final ConfusionMatrix source;
+
+    /**
+     * @param source source matrix
+     */
+    TransposedConfusionMatrix(ConfusionMatrix source)
+    {
+        this.source = source;
+    }
+
+    @Override
+    public int getTotalSum()
+    {
+        return source.getTotalSum();
+    }
+
+    @Override
+    public int getCorrectSum()
+    {
+        return source.getCorrectSum();
+    }
+
+    @Override
+    public int getValue(String goldValue, String observedValue)
+    {
+        return source.getValue(observedValue, goldValue);
+    }
+
+    @Override
+    public int getRowSum(String label)
+    {
+        return source.getColSum(label);
+    }
+
+    @Override
+    public int getColSum(String label)
+    {
+        return source.getGoldLabels().contains(label) ? source.getRowSum(label) : 0;
+    }
+
+    @Override
+    public SortedSet<String> getGoldLabels()
+    {
+        return source.getPredictedLabels();
+    }
+
+    @Override
+    public SortedSet<String> getPredictedLabels()
+    {
+        return source.getGoldLabels();
+    }
+
+    /**
+     * Switches the confusions of the source and sorts them by gold and predicted label
+     *
+     * @return iterator
+     */
+    @Override
+    public Iterator<Confusion> confusionIterator()
+    {
+        List<Confusion> result = new ArrayList<>();
+
+        Iterator<Confusion> confusions = source.confusionIterator();
+        while (confusions.hasNext()) {
+            Confusion confusion = confusions.next();
+            result.add(new Confusion(confusion.getPredictedLabel(), confusion.getGoldLabel(),
+                    confusion.getCount()));
+        }
+
+        Collections.sort(result, new Comparator<Confusion>()
+        {
+            @Override
+            public int compare(Confusion o1, Confusion o2)
+            {
+                int gold = o1.getGoldLabel().compareTo(o2.getGoldLabel());
+                return gold != 0 ? gold
+                        : o1.getPredictedLabel().compareTo(o2.getPredictedLabel());
+            }
+        });
+
+        return result.iterator();
+    }
+
+    @Override
+    protected void visitCells(final CellVisitor visitor)
+    {
+        source.visitCells(new CellVisitor()
+        {
+            @Override
+            public void visit(String goldLabel, String predictedLabel, int value)
+            {
+                visitor.visit(predictedLabel, goldLabel, value);
+            }
+        });
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2015 Ivan Habernal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.habernal.confusionmatrix;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Array of int counters updated by many threads, used by {@link ConcurrentConfusionMatrix};
+ * Java 17 version backed by a plain array accessed through a {@link VarHandle}
+ *
+ * @author Ivan Habernal
+ */
+final class IntCounters
+{
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int[] values;
+
+    IntCounters(int length)
+    {
+        this.values = new int[length];
+    }
+
+    int length()
+    {
+        return values.length;
+    }
+
+    /**
+     * Volatile read
+     */
+    int get(int i)
+    {
+        return (int) INTS.getVolatile(values, i);
+    }
+
+    /**
+     * Read without ordering guarantees; for hints or when the writers are known to be done
+     */
+    int getPlain(int i)
+    {
+        return values[i];
+    }
+
+    /**
+     * Write without ordering guarantees; for clearing when no thread reads concurrently
+     */
+    void setPlain(int i, int value)
+    {
+        values[i] = value;
+    }
+
+    /**
+     * Ordered write, visible to a thread that later reads the counter with {@link #get(int)}
+     */
+    void setRelease(int i, int value)
+    {
+        INTS.setRelease(values, i, value);
+    }
+
+    /**
+     * Atomic addition
+     */
+    void add(int i, int delta)
+    {
+        INTS.getAndAdd(values, i, delta);
+    }
+
+    boolean compareAndSet(int i, int expected, int value)
+    {
+        return INTS.compareAndSet(values, i, expected, value);
+    }
+}
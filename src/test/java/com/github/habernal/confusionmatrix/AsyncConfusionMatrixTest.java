@@ -0,0 +1,91 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Ivan Habernal
+ */
+public class AsyncConfusionMatrixTest {
+
+	@Test
+	public void testFlush()
+			throws Exception {
+		AsyncConfusionMatrix cm = new AsyncConfusionMatrix(8);
+
+		cm.increaseValue("neg", "neg", 25);
+		cm.increaseValue("neg", "neu", 5);
+		cm.increaseValue("neg", "pos", 2);
+		cm.increaseValue("neu", "neg", 3);
+		cm.increaseValue("neu", "neu", 32);
+		cm.increaseValue("neu", "pos", 4);
+		cm.increaseValue("pos", "neg", 1);
+		cm.increaseValue("pos", "pos", 15);
+
+		ConfusionMatrix expected = new ConfusionMatrix();
+		expected.increaseValue("neg", "neg", 25);
+		expected.increaseValue("neg", "neu", 5);
+		expected.increaseValue("neg", "pos", 2);
+		expected.increaseValue("neu", "neg", 3);
+		expected.increaseValue("neu", "neu", 32);
+		expected.increaseValue("neu", "pos", 4);
+		expected.increaseValue("pos", "neg", 1);
+		expected.increaseValue("pos", "pos", 15);
+
+		assertEquals(expected.toString(), cm.toConfusionMatrix().toString());
+	}
+
+	@Test
+	public void testManyProducers()
+			throws Exception {
+		// small buffer, so that producers have to drain it themselves
+		final AsyncConfusionMatrix cm = new AsyncConfusionMatrix(64);
+		final int updates = 20000;
+
+		List<Thread> producers = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			Thread producer = new Thread()
+			{
+				@Override
+				public void run() {
+					for (int i = 0; i < updates; i++) {
+						cm.increaseValue("g" + (i % 10), "p" + ((i + thread) % 10));
+					}
+				}
+			};
+			producer.start();
+			producers.add(producer);
+		}
+
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		ConfusionMatrixSnapshot snapshot = cm.snapshot();
+		assertEquals(8 * updates, snapshot.getTotalSum());
+		assertEquals(8 * updates / 10, snapshot.getRowSum("g3"));
+		assertEquals(8 * updates / 10, snapshot.getColSum("p3"));
+	}
+
+	@Test
+	public void testBackgroundDrainer()
+			throws Exception {
+		AsyncConfusionMatrix cm = new AsyncConfusionMatrix(1024);
+		cm.startDrainer();
+
+		for (int i = 0; i < 10000; i++) {
+			cm.increaseValue("a", i % 3 == 0 ? "b" : "a");
+		}
+
+		cm.close();
+
+		ConfusionMatrixSnapshot snapshot = cm.getMatrix().snapshot();
+		assertEquals(10000, snapshot.getTotalSum());
+		assertEquals(3334, snapshot.getValue("a", "b"));
+	}
+}
@@ -0,0 +1,116 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class CompactConfusionMatrixTest {
+
+	private static void assertSameMatrix(ConfusionMatrix expected, ConfusionMatrix actual) {
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(expected.getGoldLabels(), actual.getGoldLabels());
+		assertEquals(expected.getPredictedLabels(), actual.getPredictedLabels());
+		assertEquals(expected.getTotalSum(), actual.getTotalSum());
+		assertEquals(expected.getMacroFMeasure(), actual.getMacroFMeasure(), 1e-12);
+		assertEquals(expected.getMicroFMeasure(), actual.getMicroFMeasure(), 1e-12);
+		assertEquals(expected.getCohensKappa(), actual.getCohensKappa(), 1e-12);
+		assertEquals(expected.getPrecisionForLabels(), actual.getPrecisionForLabels());
+
+		for (String gold : expected.getGoldLabels()) {
+			assertEquals(expected.getRowSum(gold), actual.getRowSum(gold));
+			for (String predicted : expected.getPredictedLabels()) {
+				assertEquals(expected.getValue(gold, predicted),
+						actual.getValue(gold, predicted));
+			}
+		}
+	}
+
+	@Test
+	public void testDense()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("neg", "neg", 25);
+		cm.increaseValue("neg", "neu", 5);
+		cm.increaseValue("neu", "neg", 3);
+		cm.increaseValue("neu", "neu", 32);
+		cm.increaseValue("pos", "pos", 100000);
+		cm.increaseValue("pos", "other", 3);
+
+		ConfusionMatrix compact = cm.compact();
+
+		assertSameMatrix(cm, compact);
+		assertEquals(cm.getLabelSeries(), compact.getLabelSeries());
+		assertEquals(0, compact.getValue("other", "pos"));
+		assertEquals(0, compact.getValue("unknown", "pos"));
+		assertTrue(compact.estimateRetainedBytes() < cm.estimateRetainedBytes());
+	}
+
+	@Test
+	public void testSparse()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		Random random = new Random(1);
+
+		// mostly diagonal with a few confusions
+		for (int i = 0; i < 3000; i++) {
+			String gold = "l" + random.nextInt(500);
+			cm.increaseValue(gold, random.nextInt(10) == 0 ? "l" + random.nextInt(600) : gold);
+		}
+
+		ConfusionMatrix compact = cm.compact(false);
+
+		assertSameMatrix(cm, compact);
+		assertTrue(compact.getLabelSeries().isEmpty());
+		assertTrue(compact.estimateRetainedBytes() * 10 < cm.estimateRetainedBytes());
+	}
+
+	@Test
+	public void testSharedDictionary()
+			throws Exception {
+		ConfusionMatrix a = new ConfusionMatrix();
+		ConfusionMatrix b = new ConfusionMatrix();
+		a.increaseValue(new String("x"), new String("y"));
+		b.increaseValue(new String("x"), new String("y"), 2);
+
+		ConfusionMatrix compactA = a.compact();
+		ConfusionMatrix compactB = b.compact();
+
+		assertSame(compactA.getGoldLabels().first(), compactB.getGoldLabels().first());
+		assertSame(compactA.getPredictedLabels().first(),
+				compactB.getPredictedLabels().first());
+		assertSame(compactA, compactA.compact());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutable()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "b");
+
+		cm.compact().increaseValue("a", "a");
+	}
+
+	@Test
+	public void testNegativeCells()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "a", 5);
+		cm.increaseValue("a", "b", -2);
+
+		ConfusionMatrix compact = cm.compact();
+		assertEquals(-2, compact.getValue("a", "b"));
+		assertEquals(3, compact.getRowSum("a"));
+		assertEquals(5, compact.getColSum("a"));
+		assertEquals(cm.toString(), compact.toString());
+
+		ConfusionMatrix negative = cm.getNegativeUnitMatrix().compact();
+		assertEquals(-5, negative.getValue("a", "a"));
+	}
+}
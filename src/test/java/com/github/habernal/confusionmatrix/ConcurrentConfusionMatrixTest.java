@@ -0,0 +1,126 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ConcurrentConfusionMatrixTest {
+
+	@Test
+	public void testSameAsConfusionMatrix()
+			throws Exception {
+		ConfusionMatrix expected = new ConfusionMatrix();
+		ConcurrentConfusionMatrix actual = new ConcurrentConfusionMatrix();
+
+		String[][] cells = {{"neg", "neg", "25"}, {"neg", "neu", "5"}, {"neg", "pos", "2"},
+				{"neu", "neg", "3"}, {"neu", "neu", "32"}, {"neu", "pos", "4"}, {"pos", "neg", "1"},
+				{"pos", "pos", "15"}, {"pos", "other", "3"}};
+
+		for (String[] cell : cells) {
+			expected.increaseValue(cell[0], cell[1], Integer.valueOf(cell[2]));
+			actual.increaseValue(cell[0], cell[1], Integer.valueOf(cell[2]));
+		}
+
+		ConfusionMatrixSnapshot snapshot = actual.snapshot();
+		assertEquals(expected.snapshot().getLabels(), snapshot.getLabels());
+		assertEquals(90, snapshot.getTotalSum());
+		assertEquals(72, snapshot.getCorrectSum());
+		assertEquals(19, snapshot.getRowSum("pos"));
+		assertEquals(29, snapshot.getColSum("neg"));
+
+		ConfusionMatrix cm = snapshot.asConfusionMatrix();
+		assertEquals(expected.toString(), cm.toString());
+		assertEquals(expected.getMacroFMeasure(), cm.getMacroFMeasure(), 1e-12);
+		assertEquals(expected.getMicroFMeasure(), cm.getMicroFMeasure(), 1e-12);
+		assertEquals(expected.getCohensKappa(), cm.getCohensKappa(), 1e-12);
+	}
+
+	@Test
+	public void testGrowth()
+			throws Exception {
+		ConcurrentConfusionMatrix cm = new ConcurrentConfusionMatrix();
+
+		// more labels than the initial capacity, with snapshots in between
+		for (int i = 0; i < 100; i++) {
+			cm.increaseValue("l" + i, "l" + (i % 7), 2);
+			if (i % 30 == 0) {
+				assertEquals(2 * (i + 1), cm.snapshot().getTotalSum());
+			}
+		}
+
+		ConfusionMatrixSnapshot snapshot = cm.snapshot();
+		assertEquals(100, snapshot.getGoldLabels().size());
+		assertEquals(200, snapshot.getTotalSum());
+		assertEquals(2 * 14, snapshot.getColSum("l3"));
+	}
+
+	@Test
+	public void testSnapshotsWhileWriting()
+			throws Exception {
+		final ConcurrentConfusionMatrix cm = new ConcurrentConfusionMatrix();
+		final int threads = 4;
+		final int updates = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			Thread writer = new Thread()
+			{
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < updates; i++) {
+							cm.increaseValue("g" + (i % 40), "p" + ((i + thread) % 50));
+						}
+					}
+					catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			writer.start();
+			writers.add(writer);
+		}
+
+		start.countDown();
+
+		// every cell only grows, so consecutive snapshots must be monotone
+		ConfusionMatrixSnapshot previous = cm.snapshot();
+		boolean running = true;
+		while (running) {
+			running = false;
+			for (Thread writer : writers) {
+				running |= writer.isAlive();
+			}
+
+			ConfusionMatrixSnapshot snapshot = cm.snapshot();
+			assertTrue(snapshot.getTotalSum() >= previous.getTotalSum());
+			for (String gold : previous.getGoldLabels()) {
+				for (String predicted : previous.getPredictedLabels()) {
+					assertTrue(snapshot.getValue(gold, predicted) >= previous
+							.getValue(gold, predicted));
+				}
+			}
+
+			// rendering a snapshot never fails
+			snapshot.asConfusionMatrix().toString();
+			previous = snapshot;
+		}
+
+		assertNull(failure.get());
+		assertEquals(threads * updates, cm.snapshot().getTotalSum());
+	}
+}
@@ -0,0 +1,94 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ConfidenceIntervalTest {
+
+	private static void assertInterval(double low, double high, ConfidenceInterval interval) {
+		assertEquals(low, interval.getLow(), 0.000001);
+		assertEquals(high, interval.getHigh(), 0.000001);
+	}
+
+	@Test
+	public void testDistributions()
+			throws Exception {
+		assertEquals(1.959963985, Distributions.inverseNormal(0.975), 1e-8);
+		assertEquals(-2.326347874, Distributions.inverseNormal(0.01), 1e-8);
+		assertEquals(0, Distributions.inverseNormal(0.5), 1e-12);
+
+		assertEquals(0.5723649429247001, Distributions.logGamma(0.5), 1e-12);
+		assertEquals(Math.log(362880), Distributions.logGamma(10), 1e-12);
+
+		assertEquals(0.5, Distributions.incompleteBeta(3, 3, 0.5), 1e-12);
+		assertEquals(1 - Math.pow(0.7, 4), Distributions.incompleteBeta(1, 4, 0.3), 1e-12);
+		assertEquals(0.3, Distributions.inverseBeta(1 - Math.pow(0.7, 4), 1, 4), 1e-9);
+	}
+
+	@Test
+	public void testMethods()
+			throws Exception {
+		assertInterval(0.190102, 0.809898,
+				ConfidenceInterval.of(5, 10, 0.95, ConfidenceInterval.Method.WALD));
+		assertInterval(0.236593, 0.763407,
+				ConfidenceInterval.of(5, 10, 0.95, ConfidenceInterval.Method.WILSON));
+		assertInterval(0.236593, 0.763407,
+				ConfidenceInterval.of(5, 10, 0.95, ConfidenceInterval.Method.AGRESTI_COULL));
+		assertInterval(0.187086, 0.812914,
+				ConfidenceInterval.of(5, 10, 0.95, ConfidenceInterval.Method.CLOPPER_PEARSON));
+
+		// near the bounds
+		assertInterval(0, 0.308497,
+				ConfidenceInterval.of(0, 10, 0.95, ConfidenceInterval.Method.CLOPPER_PEARSON));
+		assertInterval(0.002529, 0.445016,
+				ConfidenceInterval.of(1, 10, 0.95, ConfidenceInterval.Method.CLOPPER_PEARSON));
+		assertInterval(0, 0.277533,
+				ConfidenceInterval.of(0, 10, 0.95, ConfidenceInterval.Method.WILSON));
+		assertInterval(0, 0,
+				ConfidenceInterval.of(0, 10, 0.95, ConfidenceInterval.Method.WALD));
+
+		// large samples agree
+		ConfidenceInterval exact = ConfidenceInterval
+				.of(300000, 1000000, 0.99, ConfidenceInterval.Method.CLOPPER_PEARSON);
+		ConfidenceInterval wilson = ConfidenceInterval
+				.of(300000, 1000000, 0.99, ConfidenceInterval.Method.WILSON);
+		assertEquals(wilson.getLow(), exact.getLow(), 0.00001);
+		assertEquals(wilson.getHigh(), exact.getHigh(), 0.00001);
+
+		ConfidenceInterval empty = ConfidenceInterval
+				.of(0, 0, 0.95, ConfidenceInterval.Method.WILSON);
+		assertTrue(Double.isNaN(empty.getEstimate()));
+		assertInterval(0, 1, empty);
+	}
+
+	@Test
+	public void testMatrix()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "a", 5);
+		cm.increaseValue("a", "b", 5);
+		cm.increaseValue("b", "b", 10);
+
+		ConfidenceInterval accuracy = cm
+				.getAccuracyInterval(0.95, ConfidenceInterval.Method.WALD);
+		assertEquals(cm.getAccuracy(), accuracy.getEstimate(), 0.0);
+		assertEquals(cm.getConfidence95AccuracyLow(), accuracy.getLow(), 0.0001);
+		assertEquals(cm.getConfidence95AccuracyHigh(), accuracy.getHigh(), 0.0001);
+
+		Map<String, ConfidenceInterval> recall = cm
+				.getRecallIntervals(0.95, ConfidenceInterval.Method.CLOPPER_PEARSON);
+		assertInterval(0.187086, 0.812914, recall.get("a"));
+		assertEquals(1.0, recall.get("b").getHigh(), 0.0);
+
+		Map<String, ConfidenceInterval> precision = cm
+				.getPrecisionIntervals(0.9, ConfidenceInterval.Method.WILSON);
+		assertEquals(1.0, precision.get("a").getEstimate(), 0.0);
+		assertEquals(10.0 / 15, precision.get("b").getEstimate(), 0.0);
+	}
+}
@@ -0,0 +1,181 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ConfusionMatrixDeltaTest {
+
+	private static void assertSameCounts(ConfusionMatrix expected, ConfusionMatrix actual) {
+		assertEquals(expected.getGoldLabels(), actual.getGoldLabels());
+		assertEquals(expected.getPredictedLabels(), actual.getPredictedLabels());
+		assertEquals(expected.getTotalSum(), actual.getTotalSum());
+		for (String gold : expected.getGoldLabels()) {
+			for (String predicted : expected.getPredictedLabels()) {
+				assertEquals(expected.getValue(gold, predicted), actual.getValue(gold, predicted));
+			}
+		}
+	}
+
+	private static ConfusionMatrixDelta roundTrip(ConfusionMatrixDelta delta)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		delta.write(out);
+
+		return ConfusionMatrixDelta.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void testChain()
+			throws Exception {
+		ConfusionMatrix live = new ConfusionMatrix();
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			live.increaseValue("l" + random.nextInt(30), "l" + random.nextInt(30));
+		}
+
+		ConfusionMatrixSnapshot published = live.snapshot();
+		ConfusionMatrix replica = new ConfusionMatrix();
+		replica.applyDelta(live.diffSince(new ConfusionMatrix().snapshot()));
+		assertSameCounts(live, replica);
+
+		live.increaseValue("l1", "l2", 3);
+		live.increaseValue("new", "l1");
+
+		ConfusionMatrixDelta delta = roundTrip(live.diffSince(published));
+		assertEquals(0, delta.getBaseVersion());
+		assertEquals(1, delta.getVersion());
+		assertEquals(2, delta.size());
+		assertEquals(3, delta.getValue("l1", "l2"));
+
+		replica = ConfusionMatrix.createCumulativeMatrix(published.asConfusionMatrix());
+		replica.applyDelta(delta);
+		assertSameCounts(live, replica);
+
+		// only the changed cells, regardless of the size of the matrix
+		ConfusionMatrixDelta previous = live.diffSince(published);
+		replica = ConfusionMatrix.createCumulativeMatrix(published.asConfusionMatrix());
+		replica.applyDelta(previous);
+		for (int round = 0; round < 5; round++) {
+			live.increaseValue("l" + round, "l7", 2);
+			live.increaseValue("l" + round, "l7");
+
+			ConfusionMatrixDelta next = live.diffSince(previous);
+			assertEquals(previous.getVersion(), next.getBaseVersion());
+			assertEquals(1, next.size());
+			assertEquals(3, next.getValue("l" + round, "l7"));
+
+			replica.applyDelta(roundTrip(next));
+			previous = next;
+		}
+		assertSameCounts(live, replica);
+
+		assertTrue(live.diffSince(previous).isEmpty());
+	}
+
+	@Test
+	public void testOlderVersions()
+			throws Exception {
+		ConfusionMatrix live = new ConfusionMatrix();
+		live.increaseValue("a", "b");
+
+		ConfusionMatrixDelta first = live.diffSince(live.snapshot());
+		live.increaseValue("a", "b");
+		live.diffSince(first);
+		live.increaseValue("b", "b");
+		live.increaseValue("a", "b", -1);
+
+		ConfusionMatrixDelta merged = live.diffSince(first);
+		assertEquals(first.getVersion(), merged.getBaseVersion());
+		assertEquals(0, merged.getValue("a", "b"));
+		assertEquals(1, merged.getValue("b", "b"));
+
+		ConfusionMatrixDelta last = merged;
+		for (int i = 0; i < ChangeLog.MAX_GENERATIONS; i++) {
+			last = live.diffSince(last);
+		}
+		try {
+			live.diffSince(first);
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+
+		try {
+			new ConfusionMatrix().diffSince(last);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDense()
+			throws Exception {
+		LabelSpace space = LabelSpace.of("a", "b", "c");
+		DenseConfusionMatrix live = new DenseConfusionMatrix(space);
+		live.increaseValue("a", "b", 2);
+
+		ConfusionMatrixDelta first = live.diffSince(live.snapshot());
+		assertTrue(first.isEmpty());
+
+		DenseConfusionMatrix other = new DenseConfusionMatrix(space);
+		other.increaseValue("c", "c", 5);
+		live.add(other);
+		live.increaseValue(0, 0, 1);
+
+		ConfusionMatrixDelta delta = live.diffSince(first);
+		assertEquals(2, delta.size());
+		assertEquals(5, delta.getValue("c", "c"));
+		assertEquals(1, delta.getValue("a", "a"));
+	}
+
+	@Test
+	public void testConcurrent()
+			throws Exception {
+		final ConcurrentConfusionMatrix live = new ConcurrentConfusionMatrix();
+		live.increaseValue("a", "b");
+
+		ConfusionMatrixSnapshot published = live.snapshot();
+		ConfusionMatrix replica = ConfusionMatrix.createCumulativeMatrix(published.asConfusionMatrix());
+		ConfusionMatrixDelta previous = live.diffSince(published);
+		assertTrue(previous.isEmpty());
+
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			final int id = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						live.increaseValue("g" + id, "p" + i % 3);
+					}
+				}
+			};
+			writers[t].start();
+		}
+
+		// publish while writing
+		for (int round = 0; round < 20; round++) {
+			ConfusionMatrixDelta next = live.diffSince(previous);
+			replica.applyDelta(roundTrip(next));
+			previous = next;
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		replica.applyDelta(live.diffSince(previous));
+
+		assertSameCounts(live.toConfusionMatrix(), replica);
+		assertEquals(40001, replica.getTotalSum());
+	}
+}
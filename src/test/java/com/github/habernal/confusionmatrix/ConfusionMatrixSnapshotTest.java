@@ -0,0 +1,65 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ConfusionMatrixSnapshotTest {
+
+	@Test
+	public void testMetricsSameAsConfusionMatrix()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		Random random = new Random(1);
+
+		for (int i = 0; i < 5000; i++) {
+			String gold = "l" + random.nextInt(40);
+			cm.increaseValue(gold, random.nextInt(3) == 0 ? gold : "l" + random.nextInt(50));
+		}
+
+		ConfusionMatrixSnapshot snapshot = cm.snapshot();
+
+		// per-label values and averages are computed in the same order, so they are identical
+		double[] fMeasures = snapshot.getFMeasures();
+		double[] fMeasures2 = snapshot.getFMeasures(2.0);
+		Map<String, Double> expected = cm.getFMeasureForLabels();
+		Map<String, Double> expected2 = cm.getFMeasureForLabels(2.0);
+		int i = 0;
+		for (String label : snapshot.getGoldLabels()) {
+			assertEquals(expected.get(label), fMeasures[i], 0.0);
+			assertEquals(expected2.get(label), fMeasures2[i], 0.0);
+			i++;
+		}
+
+		assertEquals(cm.getMacroFMeasure(), snapshot.getMacroFMeasure(), 0.0);
+		assertEquals(cm.getMacroFMeasure(0.5), snapshot.getMacroFMeasure(0.5), 0.0);
+		assertEquals(cm.getMacroFMeasure(), snapshot.asConfusionMatrix().getMacroFMeasure(), 0.0);
+
+		// expected agreement is summed up exactly in integers
+		assertEquals(cm.getCohensKappa(), snapshot.getCohensKappa(), 1e-12);
+		assertEquals(cm.getCohensKappa(), snapshot.asConfusionMatrix().getCohensKappa(), 1e-12);
+	}
+
+	@Test
+	public void testMarginals()
+			throws Exception {
+		int[] counts = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+		int[] rowSums = new int[3];
+		int[] colSums = {100, 100, 100};
+
+		ConfusionMatrixKernels.SCALAR.marginals(counts, 3, rowSums, colSums);
+
+		assertEquals(6, rowSums[0]);
+		assertEquals(24, rowSums[2]);
+		assertEquals(12, colSums[0]);
+		assertEquals(18, colSums[2]);
+		assertEquals(6L * 12 + 15L * 15 + 24L * 18,
+				ConfusionMatrixKernels.SCALAR.sumOfProducts(rowSums, colSums, 3));
+	}
+}
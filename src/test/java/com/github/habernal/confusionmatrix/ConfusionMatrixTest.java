@@ -8,6 +8,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -952,4 +954,157 @@ public class ConfusionMatrixTest {
         System.out.println("acc " + cf.getAccuracy());
         System.out.println("microF " + cf.getMicroFMeasure());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testGauges()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		assertEquals(0, cm.getLabelCount());
+		assertEquals(0, cm.getNonZeroCellCount());
+		long empty = cm.estimateRetainedBytes();
+
+		cm.increaseValue("a", "a", 3);
+		cm.increaseValue("a", "b");
+		cm.increaseValue("b", "c", 2);
+
+		assertEquals(3, cm.getLabelCount());
+		assertEquals(3, cm.getNonZeroCellCount());
+		assertEquals(6, cm.getLabelSeries().size());
+		assertTrue(cm.estimateRetainedBytes() > empty);
+	}
+
+	@Test
+	public void testExtendedMetrics()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "a", 5);
+		cm.increaseValue("a", "b", 2);
+		cm.increaseValue("b", "a", 1);
+		cm.increaseValue("b", "b", 4);
+
+		assertEquals(36 / Math.sqrt(72 * 70), cm.getMatthewsCorrelation(), 0.000001);
+		assertEquals((5.0 / 7 + 4.0 / 5) / 2, cm.getBalancedAccuracy(), 0.000001);
+		assertEquals((0.75 - 290.0 / 576) / (1 - 290.0 / 576), cm.getScottsPi(), 0.000001);
+		assertEquals(148.0 / 286, cm.getKrippendorffsAlpha(), 0.000001);
+		assertEquals(0.8, cm.getSpecificityForLabels().get("a"), 0.000001);
+		assertEquals(5.0 / 7, cm.getSpecificityForLabels().get("b"), 0.000001);
+		assertEquals(cm.getSpecificityForLabels().get("a"), cm.getSpecificityForLabel("a"),
+				0.000001);
+		assertEquals(4.0 / 6, cm.getNegativePredictiveValueForLabels().get("a"), 0.000001);
+		assertEquals(4.0 / 6, cm.getNegativePredictiveValueForLabel("a"), 0.000001);
+		assertEquals(5.0 / 8, cm.getJaccardIndexForLabels().get("a"), 0.000001);
+		assertEquals(4.0 / 7, cm.getJaccardIndexForLabel("b"), 0.000001);
+		assertEquals((5.0 / 8 + 4.0 / 7) / 2, cm.getMacroJaccardIndex(), 0.000001);
+		assertEquals((10.0 / 13 * 7 + 8.0 / 11 * 5) / 12, cm.getWeightedFMeasure(), 0.000001);
+		assertEquals("MCC: 0.507, balanced accuracy: 0.757, weighted F-measure: 0.752, "
+				+ "macro Jaccard: 0.598, Scott's Pi: 0.497, Krippendorff's Alpha: 0.517",
+				cm.printExtendedResults());
+
+		// perfect agreement
+		ConfusionMatrix perfect = new ConfusionMatrix();
+		perfect.increaseValue("a", "a", 3);
+		perfect.increaseValue("b", "b", 2);
+		assertEquals(1.0, perfect.getMatthewsCorrelation(), 0.000001);
+		assertEquals(1.0, perfect.getKrippendorffsAlpha(), 0.000001);
+		assertEquals(perfect.getCohensKappa(), perfect.getScottsPi(), 0.000001);
+	}
+
+	@Test
+	public void testMarginalsCache()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "a", 2);
+		cm.increaseValue("b", "a");
+
+		assertSame(cm.marginals(), cm.marginals());
+		assertEquals(0.5, cm.getBalancedAccuracy(), 0.000001);
+
+		cm.increaseValue("b", "b", 3);
+		assertEquals((1 + 0.75) / 2, cm.getBalancedAccuracy(), 0.000001);
+
+		DenseConfusionMatrix dense = new DenseConfusionMatrix(LabelSpace.of("a", "b"));
+		dense.increaseValue(0, 0, 1);
+		assertEquals(1.0, dense.getBalancedAccuracy(), 0.000001);
+		dense.add(new DenseConfusionMatrix(LabelSpace.of("a", "b"), cm));
+		assertEquals((1 + 0.75) / 2, dense.getBalancedAccuracy(), 0.000001);
+
+		// views of changing data are not cached
+		GroupedConfusionMatrix<String> grouped = new GroupedConfusionMatrix<>(LabelSpace.of("a"));
+		grouped.increaseValue("x", "a", "a", 1);
+		ConfusionMatrix view = grouped.getOverall();
+		assertEquals(1.0, view.getBalancedAccuracy(), 0.000001);
+		grouped.increaseValue("y", "a", "a", 1);
+		assertEquals(2, view.marginals().total);
+		assertNotSame(view.marginals(), view.marginals());
+	}
+
+	@Test
+	public void testLabelOrderCache()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("b", "b", 2);
+		cm.increaseValue("b", "c");
+		cm.increaseValue("a", "a");
+
+		LabelOrder order = cm.labelOrder();
+		assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(order.labels));
+		assertEquals(2, order.goldCount);
+
+		// kept while only counts change
+		cm.increaseValue("a", "c", 3);
+		assertSame(order, cm.labelOrder());
+		assertEquals(3, order.rows(cm)[0][2]);
+
+		cm.increaseValue("0", "b");
+		assertNotSame(order, cm.labelOrder());
+		assertEquals(Arrays.asList("0", "a", "b", "c"), Arrays.asList(cm.labelOrder().labels));
+
+		ConfusionMatrix fresh = new ConfusionMatrix();
+		fresh.increaseValue("0", "b");
+		fresh.increaseValue("a", "a");
+		fresh.increaseValue("a", "c", 3);
+		fresh.increaseValue("b", "b", 2);
+		fresh.increaseValue("b", "c");
+		assertEquals(fresh.toString(), cm.toString());
+		assertEquals(fresh.toStringProbabilistic(), cm.toStringProbabilistic());
+	}
+
+	@Test
+	public void testUntrackedSubclassIsNotCached()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix() {
+			@Override
+			protected boolean tracksModifications() {
+				return false;
+			}
+		};
+		cm.increaseValue("a", "a", 3);
+		cm.increaseValue("a", "b");
+		assertEquals(0.75, cm.getBalancedAccuracy(), 0.0001);
+
+		// written behind the back of increaseValue
+		cm.map.get("a").put("b", 3);
+		cm.total += 2;
+		assertEquals(0.5, cm.getBalancedAccuracy(), 0.0001);
+		assertEquals(6, cm.getRowSum("a"));
+	}
+
+	@Test
+	public void testPerLabelMetricsOfNonGoldLabels()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("A", "A", 2);
+		cm.increaseValue("A", "B");
+
+		// predicted only
+		assertEquals(2.0 / 3, cm.getSpecificityForLabel("B"), 0.000001);
+		assertEquals(1.0, cm.getNegativePredictiveValueForLabel("B"), 0.000001);
+		assertEquals(0.0, cm.getJaccardIndexForLabel("B"), 0.000001);
+		assertEquals(0.0, cm.getPrecisionForLabel("B"), 0.000001);
+
+		// never seen, all instances are negatives
+		assertEquals(1.0, cm.getSpecificityForLabel("X"), 0.000001);
+		assertEquals(1.0, cm.getNegativePredictiveValueForLabel("X"), 0.000001);
+		assertEquals(0.0, cm.getJaccardIndexForLabel("X"), 0.000001);
+	}
+}
@@ -0,0 +1,180 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ConfusionTest {
+
+	private ConfusionMatrix cm;
+
+	@Before
+	public void setUp() {
+		cm = new ConfusionMatrix();
+
+		cm.increaseValue("a", "a", 10);
+		cm.increaseValue("a", "b", 4);
+		cm.increaseValue("a", "c", 1);
+		cm.increaseValue("b", "a", 4);
+		cm.increaseValue("b", "b", 8);
+		cm.increaseValue("b", "c", 0);
+		cm.increaseValue("c", "a", 7);
+		cm.increaseValue("c", "d", 2);
+	}
+
+	private static List<Confusion> toList(Iterator<Confusion> iterator) {
+		List<Confusion> result = new ArrayList<>();
+		while (iterator.hasNext()) {
+			result.add(iterator.next());
+		}
+		return result;
+	}
+
+	@Test
+	public void testConfusionIterator()
+			throws Exception {
+		List<Confusion> expected = Arrays.asList(new Confusion("a", "b", 4),
+				new Confusion("a", "c", 1), new Confusion("b", "a", 4), new Confusion("c", "a", 7),
+				new Confusion("c", "d", 2));
+
+		assertEquals(expected, toList(cm.confusionIterator()));
+
+		DenseConfusionMatrix dense = new DenseConfusionMatrix(LabelSpace.of(cm), cm);
+		assertEquals(expected, toList(dense.confusionIterator()));
+
+		OffHeapConfusionMatrix offHeap = new OffHeapConfusionMatrix(LabelSpace.of(cm));
+		for (String gold : cm.getGoldLabels()) {
+			for (String predicted : cm.getPredictedLabels()) {
+				offHeap.increaseValue(gold, predicted, cm.getValue(gold, predicted));
+			}
+		}
+		try {
+			assertEquals(expected, toList(offHeap.confusionIterator()));
+		}
+		finally {
+			offHeap.close();
+		}
+
+		assertFalse(new ConfusionMatrix().confusionIterator().hasNext());
+	}
+
+	@Test
+	public void testTopConfusions()
+			throws Exception {
+		assertEquals(Arrays.asList(new Confusion("c", "a", 7), new Confusion("a", "b", 4),
+				new Confusion("b", "a", 4)), cm.getTopConfusions(3));
+		assertEquals(5, cm.getTopConfusions(50).size());
+		assertEquals(Collections.<Confusion>emptyList(), cm.getTopConfusions(0));
+	}
+
+	@Test
+	public void testTopConfusionsOfView()
+			throws Exception {
+		Map<String, String> mapping = new HashMap<>();
+		mapping.put("b", "a");
+
+		// a -> c and b -> c are merged
+		ConfusionMatrix view = cm.projectView(mapping);
+		assertEquals(Arrays.asList(new Confusion("c", "a", 7), new Confusion("c", "d", 2)),
+				view.getTopConfusions(2));
+		assertEquals(Arrays.asList(new Confusion("a", "c", 1)), view.getConfusionsFor("a"));
+	}
+
+	@Test
+	public void testConfusionsFor()
+			throws Exception {
+		assertEquals(Arrays.asList(new Confusion("c", "a", 7), new Confusion("c", "d", 2)),
+				cm.getConfusionsFor("c"));
+		assertTrue(cm.getConfusionsFor("d").isEmpty());
+		assertTrue(cm.getConfusionsFor("x").isEmpty());
+
+		List<Confusion> expected = Arrays.asList(new Confusion("a", "b", 4),
+				new Confusion("a", "c", 1));
+		assertEquals(expected, new DenseConfusionMatrix(LabelSpace.of(cm), cm)
+				.getConfusionsFor("a"));
+		assertEquals(expected, cm.freeze().getConfusionsFor("a"));
+		assertEquals(expected, cm.transposedView().transposedView().getConfusionsFor("a"));
+	}
+
+	@Test
+	public void testTopConfusionsBeyondCount()
+			throws Exception {
+		assertEquals(5, cm.getTopConfusions(Integer.MAX_VALUE).size());
+		assertEquals(5, cm.getTopConfusions(500000000).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeTopConfusions()
+			throws Exception {
+		cm.getTopConfusions(-1);
+	}
+
+	@Test
+	public void testConfusionsOfStoredCells()
+			throws Exception {
+		List<Confusion> expected = toList(cm.confusionIterator());
+
+		GroupedConfusionMatrix<Integer> grouped = new GroupedConfusionMatrix<>(LabelSpace.of(cm));
+		for (Confusion c : expected) {
+			grouped.increaseValue(1, c.getGoldLabel(), c.getPredictedLabel(), c.getCount());
+		}
+		grouped.increaseValue(1, "a", "a", 10);
+
+		List<ConfusionMatrix> matrices = Arrays.asList(cm.compact(false),
+				CompactConfusionMatrix.of(new DenseConfusionMatrix(LabelSpace.of(cm), cm), false),
+				cm.snapshot().asConfusionMatrix(), grouped.getSegment(1), grouped.getOverall());
+		for (ConfusionMatrix matrix : matrices) {
+			assertEquals(expected, toList(matrix.confusionIterator()));
+			assertEquals(cm.getConfusionsFor("a"), matrix.getConfusionsFor("a"));
+			assertTrue(matrix.getConfusionsFor("d").isEmpty());
+			assertTrue(matrix.getConfusionsFor("x").isEmpty());
+			assertEquals(cm.getTopConfusions(3), matrix.getTopConfusions(3));
+		}
+		assertFalse(grouped.getSegment(2).confusionIterator().hasNext());
+
+		// stored sparsely when compacted
+		ConfusionMatrix large = new ConfusionMatrix();
+		for (int i = 0; i < 50; i++) {
+			large.increaseValue("l" + i, "l" + i, 3);
+			large.increaseValue("l" + i, "l" + (i * 7 % 50), i);
+		}
+		ConfusionMatrix compact = large.compact(false);
+		assertEquals(toList(large.confusionIterator()), toList(compact.confusionIterator()));
+		assertEquals(large.getConfusionsFor("l3"), compact.getConfusionsFor("l3"));
+		assertEquals(large.getTopConfusions(10), compact.getTopConfusions(10));
+	}
+
+	@Test
+	public void testConfusionsOfTransposedAndProjectedViews()
+			throws Exception {
+		ConfusionMatrix transposed = cm.getTransposedMatrix();
+		assertEquals(toList(transposed.confusionIterator()),
+				toList(cm.transposedView().confusionIterator()));
+		assertEquals(transposed.getConfusionsFor("a"), cm.transposedView().getConfusionsFor("a"));
+
+		Map<String, String> mapping = new HashMap<>();
+		mapping.put("b", "a");
+		mapping.put("d", "c");
+		ConfusionMatrix projected = cm.project(mapping);
+		ConfusionMatrix view = cm.projectView(mapping);
+
+		assertEquals(toList(projected.confusionIterator()), toList(view.confusionIterator()));
+		for (String gold : Arrays.asList("a", "b", "c", "x")) {
+			assertEquals(projected.getConfusionsFor(gold), view.getConfusionsFor(gold));
+		}
+		assertEquals(Arrays.asList(new Confusion("c", "a", 7), new Confusion("a", "c", 1)),
+				view.getTopConfusions(5));
+	}
+}
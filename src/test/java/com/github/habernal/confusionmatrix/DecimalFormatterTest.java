@@ -0,0 +1,76 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class DecimalFormatterTest {
+
+	private static final Locale[] LOCALES = { Locale.ENGLISH, Locale.GERMANY, Locale.FRANCE,
+			Locale.forLanguageTag("th-TH-u-nu-thai") };
+
+	@Test
+	public void testSameAsStringFormat()
+			throws Exception {
+		Random random = new Random(1);
+		double[] special = { 0.0, -0.0, -0.0001, 0.15, 1.005, 2.675, 0.5, 1e300, 1e-300,
+				Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		for (Locale locale : LOCALES) {
+			for (int places = 1; places <= 20; places++) {
+				DecimalFormatter formatter = DecimalFormatter.of(locale, places);
+				String format = "%." + places + "f";
+
+				for (double value : special) {
+					assertEquals(String.format(locale, format, value), formatter.format(value));
+				}
+
+				for (int i = 0; i < 2000; i++) {
+					double value = i % 2 == 0 ? random.nextGaussian() * 100
+							: random.nextInt(100000) / 1000.0 - 50 + 0.0005;
+					assertEquals(String.format(locale, format, value), formatter.format(value));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAppend()
+			throws Exception {
+		DecimalFormatter formatter = DecimalFormatter.of(Locale.GERMANY, 2);
+
+		StringBuilder sb = new StringBuilder("x=");
+		formatter.append(sb, 0.125).append(", n=");
+		formatter.appendInteger(sb, -42);
+		assertEquals("x=0,13, n=-42", sb.toString());
+
+		assertSame(formatter, DecimalFormatter.of(Locale.GERMANY, 2));
+		assertTrue(formatter.matches(Locale.GERMANY, 2));
+		assertFalse(formatter.matches(Locale.GERMANY, 3));
+	}
+
+	@Test
+	public void testMatrixLocale()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "a", 2);
+		cm.increaseValue("a", "b", 1);
+		cm.increaseValue("b", "b", 1);
+
+		assertTrue(cm.printLabelPrecRecFm(), cm.printLabelPrecRecFm().startsWith("P/R/Fm: a=1.000/"));
+		assertTrue(cm.printClassDistributionGold().endsWith("b\t1\t25.0%\t2\t50.0%\nSum\t4"));
+
+		cm.setLocale(Locale.GERMANY);
+		cm.setNumberOfDecimalPlaces(2);
+		assertTrue(cm.printLabelPrecRecFm(), cm.printLabelPrecRecFm().startsWith("P/R/Fm: a=1,00/"));
+		assertTrue(cm.printNiceResults(), cm.printNiceResults().startsWith("Macro F-measure: 0,"));
+		assertTrue(cm.printClassDistributionGold().contains("a\t3\t75,0%\t2\t50,0%"));
+		assertTrue(cm.toStringProbabilistic(), cm.toStringProbabilistic().contains("0,67"));
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class DenseConfusionMatrixTest {
+
+	private static final LabelSpace LABELS = LabelSpace.of("neg", "neu", "pos", "other");
+
+	private static void fill(ConfusionMatrix cm, long seed) {
+		Random random = new Random(seed);
+		String[] gold = {"neg", "neu", "pos"};
+		String[] predicted = {"neg", "neu", "pos", "other"};
+
+		for (int i = 0; i < 500; i++) {
+			cm.increaseValue(gold[random.nextInt(3)], predicted[random.nextInt(4)]);
+		}
+	}
+
+	@Test
+	public void testSameAsConfusionMatrix()
+			throws Exception {
+		ConfusionMatrix expected = new ConfusionMatrix();
+		DenseConfusionMatrix actual = new DenseConfusionMatrix(LABELS);
+		fill(expected, 1);
+		fill(actual, 1);
+
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(expected.getGoldLabels(), actual.getGoldLabels());
+		assertEquals(expected.getPredictedLabels(), actual.getPredictedLabels());
+		assertEquals(expected.getMacroFMeasure(), actual.getMacroFMeasure(), 1e-12);
+		assertEquals(expected.getCohensKappa(), actual.getCohensKappa(), 1e-12);
+		assertEquals(expected.getColSum("other"), actual.getColSum("other"));
+		assertTrue(actual.getLabelSeries().isEmpty());
+
+		DenseConfusionMatrix copy = new DenseConfusionMatrix(LABELS, expected);
+		assertTrue(copy.hasSameCounts(actual));
+	}
+
+	@Test
+	public void testAdd()
+			throws Exception {
+		ConfusionMatrix expected = new ConfusionMatrix();
+		DenseConfusionMatrix a = new DenseConfusionMatrix(LABELS);
+		DenseConfusionMatrix b = new DenseConfusionMatrix(LABELS);
+		fill(a, 1);
+		fill(expected, 1);
+		fill(b, 2);
+		fill(expected, 2);
+
+		DenseConfusionMatrix sum = DenseConfusionMatrix.createCumulativeMatrix(a, b);
+		assertEquals(expected.toString(), sum.toString());
+		assertEquals(1000, sum.getTotalSum());
+		assertFalse(sum.hasSameCounts(a));
+
+		// different label space, remapped
+		DenseConfusionMatrix wider = new DenseConfusionMatrix(LABELS.union(LabelSpace.of("x")));
+		wider.add(a);
+		wider.add(b);
+		assertEquals(expected.toString(), wider.toString());
+		assertTrue(wider.hasSameCounts(sum));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownLabel()
+			throws Exception {
+		new DenseConfusionMatrix(LABELS).increaseValue("neg", "unknown");
+	}
+
+	@Test
+	public void testSameCountsWithUnallocatedRow()
+			throws Exception {
+		LabelSpace labels = LabelSpace.of("a", "b", "x", "z");
+
+		// gold label x without cells, its row is not allocated
+		ConfusionMatrix source = new ConfusionMatrix();
+		source.increaseValue("a", "a");
+		source.increaseValue("b", "b");
+		source.increaseValue("x", "z", 5);
+		DenseConfusionMatrix empty = new DenseConfusionMatrix(labels,
+				source.restrictView(new HashSet<>(Arrays.asList("a", "b", "x"))));
+
+		DenseConfusionMatrix cancelled = new DenseConfusionMatrix(labels);
+		cancelled.increaseValue("a", "a");
+		cancelled.increaseValue("b", "b");
+		cancelled.increaseValue("x", "a", 2);
+		cancelled.increaseValue("x", "b", -2);
+
+		assertFalse(empty.hasSameCounts(cancelled));
+		assertFalse(cancelled.hasSameCounts(empty));
+
+		cancelled.increaseValue("x", "a", -2);
+		cancelled.increaseValue("x", "b", 2);
+		assertTrue(empty.hasSameCounts(cancelled));
+		assertTrue(cancelled.hasSameCounts(empty));
+	}
+}
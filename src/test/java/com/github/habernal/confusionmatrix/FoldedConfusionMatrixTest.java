@@ -0,0 +1,102 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class FoldedConfusionMatrixTest {
+
+	@Test
+	public void testFolds()
+			throws Exception {
+		LabelSpace labels = LabelSpace.of("a", "b", "c", "d");
+		FoldedConfusionMatrix folded = new FoldedConfusionMatrix(labels, 5);
+
+		ConfusionMatrix[] expected = new ConfusionMatrix[5];
+		Random random = new Random(0);
+		for (int fold = 0; fold < 5; fold++) {
+			expected[fold] = new ConfusionMatrix();
+			for (int i = 0; i < 200; i++) {
+				String gold = labels.getLabel(random.nextInt(4));
+				String predicted = random.nextInt(3) == 0
+						? labels.getLabel(random.nextInt(4)) : gold;
+				expected[fold].increaseValue(gold, predicted);
+			}
+
+			if (fold % 2 == 0) {
+				folded.add(fold, expected[fold]);
+			}
+			else {
+				// same counts, cell by cell
+				for (String gold : expected[fold].getGoldLabels()) {
+					for (String predicted : expected[fold].getPredictedLabels()) {
+						folded.increaseValue(fold, gold, predicted,
+								expected[fold].getValue(gold, predicted));
+					}
+				}
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			FoldedConfusionMatrix.Statistics macroF = folded
+					.compute(new GroupedConfusionMatrix.SegmentFunction<Double>() {
+						@Override
+						public Double apply(ConfusionMatrix segment) {
+							return segment.getMacroFMeasure();
+						}
+					}, executor);
+
+			double sum = 0;
+			for (int fold = 0; fold < 5; fold++) {
+				assertEquals(expected[fold].getMacroFMeasure(), macroF.getValues()[fold], 0.0);
+				sum += expected[fold].getMacroFMeasure();
+			}
+			double mean = sum / 5;
+			double squares = 0;
+			for (int fold = 0; fold < 5; fold++) {
+				squares += Math.pow(expected[fold].getMacroFMeasure() - mean, 2);
+			}
+
+			assertEquals(mean, macroF.getMean(), 0.000001);
+			assertEquals(Math.sqrt(squares / 4), macroF.getStandardDeviation(), 0.000001);
+			assertEquals(ConfusionMatrix.createCumulativeMatrix(expected).getMacroFMeasure(),
+					macroF.getPooled(), 0.000001);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		assertEquals(1000, folded.getPooled().getTotalSum());
+		assertEquals(expected[3].getTotalSum(), folded.getFold(3).getTotalSum());
+		assertEquals(folded.getPooled().getAccuracy(), folded.getAccuracy().getPooled(), 0.0);
+	}
+
+	@Test
+	public void testEmptyFold()
+			throws Exception {
+		FoldedConfusionMatrix folded = new FoldedConfusionMatrix(LabelSpace.of("a", "b"), 3);
+		folded.increaseValue(0, "a", "a");
+		folded.increaseValue(2, 0, 1, 1);
+
+		double[] accuracy = folded.getAccuracy().getValues();
+		assertEquals(1.0, accuracy[0], 0.0);
+		assertTrue(Double.isNaN(accuracy[1]));
+		assertEquals(0.0, accuracy[2], 0.0);
+
+		try {
+			folded.increaseValue(3, "a", "a");
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
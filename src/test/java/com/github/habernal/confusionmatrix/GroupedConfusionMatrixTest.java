@@ -0,0 +1,116 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ivan Habernal
+ */
+public class GroupedConfusionMatrixTest {
+
+	@Test
+	public void testSameAsMatrixPerSegment()
+			throws Exception {
+		String[] labels = {"neg", "neu", "pos", "other"};
+		GroupedConfusionMatrix<String> grouped = new GroupedConfusionMatrix<>(
+				LabelSpace.of(labels));
+		Map<String, ConfusionMatrix> expected = new HashMap<>();
+		ConfusionMatrix expectedOverall = new ConfusionMatrix();
+
+		// more segments than the initial capacity
+		Random random = new Random(1);
+		for (int i = 0; i < 3000; i++) {
+			String segment = "s" + random.nextInt(20);
+			String gold = labels[random.nextInt(3)];
+			String predicted = labels[random.nextInt(4)];
+
+			grouped.increaseValue(segment, gold, predicted);
+
+			if (!expected.containsKey(segment)) {
+				expected.put(segment, new ConfusionMatrix());
+			}
+			expected.get(segment).increaseValue(gold, predicted);
+			expectedOverall.increaseValue(gold, predicted);
+		}
+
+		assertEquals(20, grouped.getSegments().size());
+		for (String segment : grouped.getSegments()) {
+			ConfusionMatrix view = grouped.getSegment(segment);
+			assertEquals(expected.get(segment).toString(), view.toString());
+			assertEquals(expected.get(segment).getCohensKappa(), view.getCohensKappa(), 1e-12);
+		}
+
+		assertEquals(expectedOverall.toString(), grouped.getOverall().toString());
+		assertEquals(expectedOverall.getMacroFMeasure(), grouped.getOverall().getMacroFMeasure(),
+				1e-12);
+
+		Map<String, Double> fMeasures = grouped.getMacroFMeasures();
+		assertEquals(grouped.getSegments(), Arrays.asList(fMeasures.keySet().toArray()));
+		for (Map.Entry<String, Double> entry : fMeasures.entrySet()) {
+			assertEquals(expected.get(entry.getKey()).getMacroFMeasure(), entry.getValue(),
+					1e-12);
+		}
+	}
+
+	@Test
+	public void testViewsAreLive()
+			throws Exception {
+		GroupedConfusionMatrix<Integer> grouped = new GroupedConfusionMatrix<>(
+				LabelSpace.of("a", "b"));
+
+		assertEquals(0, grouped.getSegment(1).getTotalSum());
+
+		grouped.increaseValue(1, "a", "b", 2);
+		ConfusionMatrix view = grouped.getSegment(1);
+		grouped.increaseValue(1, "b", "b", 3);
+
+		assertEquals(5, view.getTotalSum());
+		assertEquals(3, view.getCorrectSum());
+		assertEquals(5, view.getColSum("b"));
+		assertTrue(view.getGoldLabels().contains("b"));
+		assertEquals(1, view.getPredictedLabels().size());
+	}
+
+	@Test
+	public void testUnknownSegmentIsReadOnlyView()
+			throws Exception {
+		GroupedConfusionMatrix<Integer> grouped = new GroupedConfusionMatrix<>(
+				LabelSpace.of("a", "b"));
+
+		ConfusionMatrix view = grouped.getSegment(7);
+		assertEquals(0, view.getTotalSum());
+		assertTrue(view.getGoldLabels().isEmpty());
+		try {
+			view.increaseValue("a", "a");
+			fail();
+		}
+		catch (UnsupportedOperationException ex) {
+			// expected
+		}
+
+		grouped.increaseValue(7, "a", "b", 2);
+		assertEquals(2, view.getTotalSum());
+		assertEquals(2, view.getValue("a", "b"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testLabelSpaceTooLarge()
+			throws Exception {
+		List<String> labels = new ArrayList<>();
+		for (int i = 0; i < 50000; i++) {
+			labels.add("l" + i);
+		}
+
+		new GroupedConfusionMatrix<Integer>(LabelSpace.of(labels));
+	}
+}
@@ -0,0 +1,142 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Ivan Habernal
+ */
+public class HierarchicalConfusionMatrixTest {
+
+	private static HierarchicalConfusionMatrix createPathMatrix() {
+		HierarchicalConfusionMatrix cm = new HierarchicalConfusionMatrix("/");
+
+		cm.increaseValue("sports/football/nfl", "sports/football/nfl", 10);
+		cm.increaseValue("sports/football/nfl", "sports/football/cfl", 2);
+		cm.increaseValue("sports/football/cfl", "sports/football/cfl", 4);
+		cm.increaseValue("sports/tennis", "sports/football/nfl", 1);
+		cm.increaseValue("sports/tennis", "sports/tennis", 5);
+		cm.increaseValue("politics", "sports/tennis", 3);
+		cm.increaseValue("politics", "politics", 7);
+
+		return cm;
+	}
+
+	@Test
+	public void testAncestors()
+			throws Exception {
+		HierarchicalConfusionMatrix cm = createPathMatrix();
+
+		assertEquals(Arrays.asList("sports", "sports/football", "sports/football/nfl"),
+				cm.getAncestors("sports/football/nfl"));
+		assertEquals(Arrays.asList("politics"), cm.getAncestors("politics"));
+		assertEquals(3, cm.getDepth());
+	}
+
+	@Test
+	public void testLevelMatrices()
+			throws Exception {
+		HierarchicalConfusionMatrix cm = createPathMatrix();
+
+		ConfusionMatrix top = cm.getMatrixForLevel(0);
+		assertEquals(32, top.getTotalSum());
+		assertEquals(22, top.getRowSum("sports"));
+		assertEquals(25, top.getColSum("sports"));
+		assertEquals(10, top.getRowSum("politics"));
+		assertEquals((22.0 + 7.0) / 32.0, top.getAccuracy(), 0.0001);
+
+		ConfusionMatrix middle = cm.getMatrixForLevel(1);
+		assertEquals(16, middle.getRowSum("sports/football"));
+		assertEquals(17, middle.getColSum("sports/football"));
+		assertEquals((16.0 + 5.0 + 7.0) / 32.0, middle.getAccuracy(), 0.0001);
+
+		// the deepest level is the leaf matrix
+		ConfusionMatrix leaves = cm.getMatrixForLevel(2);
+		assertEquals(cm.toString(), leaves.toString());
+		assertEquals(cm.getMacroFMeasure(), leaves.getMacroFMeasure(), 0.0001);
+	}
+
+	@Test
+	public void testCacheInvalidation()
+			throws Exception {
+		HierarchicalConfusionMatrix cm = createPathMatrix();
+
+		ConfusionMatrix top = cm.getMatrixForLevel(0);
+		assertSame(top, cm.getMatrixForLevel(0));
+
+		cm.increaseValue("politics", "sports/football/nfl");
+
+		ConfusionMatrix updated = cm.getMatrixForLevel(0);
+		assertNotSame(top, updated);
+		assertEquals(33, updated.getTotalSum());
+		assertEquals(26, updated.getColSum("sports"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testLevelMatrixIsReadOnly()
+			throws Exception {
+		createPathMatrix().getMatrixForLevel(0).increaseValue("politics", "sports");
+	}
+
+	@Test
+	public void testHierarchicalPrecisionRecall()
+			throws Exception {
+		Map<String, String> parents = new HashMap<>();
+		parents.put("nfl", "football");
+		parents.put("cfl", "football");
+		parents.put("football", "sports");
+		parents.put("tennis", "sports");
+
+		HierarchicalConfusionMatrix cm = new HierarchicalConfusionMatrix(parents);
+
+		// gold {sports, football, nfl}, predicted {sports, football, cfl}: overlap 2
+		cm.increaseValue("nfl", "cfl");
+		// gold {sports, tennis}, predicted {sports, tennis}: overlap 2
+		cm.increaseValue("tennis", "tennis");
+		// gold {sports, tennis}, predicted {sports, football, nfl}: overlap 1
+		cm.increaseValue("tennis", "nfl");
+
+		assertEquals(5.0 / 8.0, cm.getHierarchicalPrecision(), 0.0001);
+		assertEquals(5.0 / 7.0, cm.getHierarchicalRecall(), 0.0001);
+		assertEquals(2 * (5.0 / 8.0) * (5.0 / 7.0) / (5.0 / 8.0 + 5.0 / 7.0),
+				cm.getHierarchicalFMeasure(), 0.0001);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCycle()
+			throws Exception {
+		Map<String, String> parents = new HashMap<>();
+		parents.put("a", "b");
+		parents.put("b", "a");
+
+		HierarchicalConfusionMatrix cm = new HierarchicalConfusionMatrix(parents);
+		cm.increaseValue("a", "b");
+		cm.getDepth();
+	}
+
+	@Test
+	public void testCacheInvalidationByDelta()
+			throws Exception {
+		HierarchicalConfusionMatrix h = new HierarchicalConfusionMatrix("/");
+		h.increaseValue("a/x", "a/x");
+		assertEquals(1, h.getMatrixForLevel(0).getTotalSum());
+		assertEquals(1.0, h.getHierarchicalPrecision(), 0.0001);
+
+		ConfusionMatrix live = new ConfusionMatrix();
+		ConfusionMatrixSnapshot published = live.snapshot();
+		live.increaseValue("a/x", "b/y", 5);
+		h.applyDelta(live.diffSince(published));
+
+		assertEquals(6, h.getTotalSum());
+		assertEquals(6, h.getMatrixForLevel(0).getTotalSum());
+		assertEquals(5, h.getMatrixForLevel(0).getValue("a", "b"));
+		assertEquals(2.0 / 12, h.getHierarchicalPrecision(), 0.0001);
+	}
+}
@@ -0,0 +1,52 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import static com.github.habernal.confusionmatrix.ConfusionMatrixMetrics.Operation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class HistogramMetricsRecorderTest {
+
+	@Test
+	public void testBuckets()
+			throws Exception {
+		// every value falls into a bucket whose bound is at most 1/32 above it
+		long[] values = {0, 1, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE / 3};
+		for (long value : values) {
+			long bound = HistogramMetricsRecorder
+					.upperBound(HistogramMetricsRecorder.bucketIndex(value));
+			assertTrue(bound >= value);
+			assertTrue(bound - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void testPercentiles()
+			throws Exception {
+		HistogramMetricsRecorder recorder = new HistogramMetricsRecorder();
+
+		for (int i = 1; i <= 1000; i++) {
+			recorder.record(Operation.METRIC, i * 1000L);
+		}
+		recorder.record(Operation.INGEST, 5);
+
+		assertEquals(1000, recorder.getCount(Operation.METRIC));
+		assertEquals(1, recorder.getCount(Operation.INGEST));
+		assertEquals(0, recorder.getCount(Operation.MERGE));
+		assertEquals(500500.0, recorder.getMean(Operation.METRIC), 1e-9);
+		assertEquals(1000000, recorder.getMax(Operation.METRIC));
+		assertEquals(1000000, recorder.getPercentile(Operation.METRIC, 100));
+
+		long median = recorder.getPercentile(Operation.METRIC, 50);
+		assertTrue(median >= 500000 && median <= 500000 + 500000 / 32);
+		assertEquals(5, recorder.getPercentile(Operation.INGEST, 99));
+
+		recorder.reset();
+		assertEquals(0, recorder.getCount(Operation.METRIC));
+		assertEquals(0, recorder.getPercentile(Operation.METRIC, 50));
+	}
+}
@@ -0,0 +1,139 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ImmutableConfusionMatrixTest {
+
+	private ConfusionMatrix cm;
+
+	@Before
+	public void setUp() {
+		cm = new ConfusionMatrix();
+
+		cm.increaseValue("a", "a", 10);
+		cm.increaseValue("a", "b", 3);
+		cm.increaseValue("b", "a", 2);
+		cm.increaseValue("b", "b", 7);
+		cm.increaseValue("b", "c", 1);
+		cm.increaseValue("c", "c", 5);
+		cm.increaseValue("c", "d", 0);
+	}
+
+	@Test
+	public void testSameAsSource()
+			throws Exception {
+		ImmutableConfusionMatrix frozen = cm.freeze();
+
+		assertEquals(cm.toString(), frozen.toString());
+		assertEquals(cm.getGoldLabels(), frozen.getGoldLabels());
+		assertEquals(cm.getPredictedLabels(), frozen.getPredictedLabels());
+		assertEquals(cm.getLabelSeries(), frozen.getLabelSeries());
+		assertEquals(cm.getTotalSum(), frozen.getTotalSum());
+		assertEquals(cm.getCorrectSum(), frozen.getCorrectSum());
+		assertEquals(cm.getRowSum("b"), frozen.getRowSum("b"));
+		assertEquals(cm.getColSum("c"), frozen.getColSum("c"));
+		assertEquals(0, frozen.getRowSum("d"));
+		assertEquals(0, frozen.getValue("x", "a"));
+
+		assertEquals(cm.getAccuracy(), frozen.getAccuracy(), 0.000001);
+		assertEquals(cm.getMacroFMeasure(), frozen.getMacroFMeasure(), 0.000001);
+		assertEquals(cm.getMicroFMeasure(), frozen.getMicroFMeasure(), 0.000001);
+		assertEquals(cm.getCohensKappa(), frozen.getCohensKappa(), 0.000001);
+		assertEquals(cm.getMatthewsCorrelation(), frozen.getMatthewsCorrelation(), 0.000001);
+		assertEquals(cm.getBalancedAccuracy(), frozen.getBalancedAccuracy(), 0.000001);
+		assertEquals(cm.getWeightedFMeasure(), frozen.getWeightedFMeasure(), 0.000001);
+		assertEquals(cm.getPrecisionForLabels(), frozen.getPrecisionForLabels());
+		assertEquals(cm.getRecallForLabels(), frozen.getRecallForLabels());
+		assertEquals(cm.getFMeasureForLabels(), frozen.getFMeasureForLabels());
+		assertEquals(cm.getMacroJaccardIndex(), frozen.getMacroJaccardIndex(), 0.000001);
+		assertEquals(cm.getTopConfusions(10), frozen.getTopConfusions(10));
+
+		assertSame(frozen, frozen.freeze());
+	}
+
+	@Test
+	public void testIndependentOfSource()
+			throws Exception {
+		ImmutableConfusionMatrix frozen = cm.freeze();
+		String printed = frozen.toString();
+
+		cm.increaseValue("a", "c", 4);
+
+		assertEquals(printed, frozen.toString());
+		assertEquals(0, frozen.getValue("a", "c"));
+		assertEquals(cm.getLabelSeries().size() - 4, frozen.getLabelSeries().size());
+	}
+
+	@Test
+	public void testLocaleOfSource()
+			throws Exception {
+		cm.setLocale(Locale.GERMANY);
+		cm.setNumberOfDecimalPlaces(2);
+		ImmutableConfusionMatrix frozen = cm.freeze();
+
+		assertEquals(cm.printNiceResults(), frozen.printNiceResults());
+		assertEquals(cm.printClassDistributionGold(), frozen.printClassDistributionGold());
+		assertTrue(frozen.printLabelPrecRecFm().contains("a=0,83/"));
+	}
+
+	@Test
+	public void testSharedBetweenThreads()
+			throws Exception {
+		final ImmutableConfusionMatrix frozen = cm.freeze();
+		final double expected = cm.getWeightedKappa(KappaWeights.linear(LabelSpace.of(cm)));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Double>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(new Callable<Double>() {
+					@Override
+					public Double call()
+							throws Exception {
+						frozen.toString();
+						return frozen.getWeightedKappa(KappaWeights.linear(LabelSpace.of(frozen)));
+					}
+				}));
+			}
+
+			for (Future<Double> result : results) {
+				assertEquals(expected, result.get(), 0.000001);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testLabelSeriesIsUnmodifiable()
+			throws Exception {
+		cm.freeze().getLabelSeries().add("a");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testIsReadOnly()
+			throws Exception {
+		cm.freeze().increaseValue("a", "a");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testLocaleCannotBeChanged()
+			throws Exception {
+		cm.freeze().setLocale(Locale.GERMANY);
+	}
+}
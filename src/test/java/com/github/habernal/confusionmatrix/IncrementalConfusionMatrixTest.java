@@ -0,0 +1,79 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Ivan Habernal
+ */
+public class IncrementalConfusionMatrixTest {
+
+	private static void assertSameMetrics(ConfusionMatrix expected, ConfusionMatrix actual) {
+		assertEquals(expected.getTotalSum(), actual.getTotalSum());
+		assertEquals(expected.getAccuracy(), actual.getAccuracy(), 1e-12);
+		assertEquals(expected.getMacroFMeasure(), actual.getMacroFMeasure(), 1e-12);
+		assertEquals(expected.getMicroFMeasure(), actual.getMicroFMeasure(), 1e-12);
+		assertEquals(expected.getCohensKappa(), actual.getCohensKappa(), 1e-12);
+
+		for (String label : expected.getGoldLabels()) {
+			assertEquals(expected.getRowSum(label), actual.getRowSum(label));
+		}
+		for (String label : expected.getPredictedLabels()) {
+			assertEquals(expected.getColSum(label), actual.getColSum(label));
+		}
+	}
+
+	@Test
+	public void testSameAsConfusionMatrix()
+			throws Exception {
+		ConfusionMatrix expected = new ConfusionMatrix();
+		IncrementalConfusionMatrix actual = new IncrementalConfusionMatrix();
+
+		Random random = new Random(1);
+
+		for (int i = 0; i < 2000; i++) {
+			String gold = "l" + random.nextInt(20);
+			// sometimes predict a label never seen in gold data
+			String predicted = random.nextInt(4) == 0 ? gold : "l" + random.nextInt(25);
+			int times = 1 + random.nextInt(3);
+
+			expected.increaseValue(gold, predicted, times);
+			actual.increaseValue(gold, predicted, times);
+
+			if (i % 97 == 0) {
+				assertSameMetrics(expected, actual);
+			}
+		}
+
+		assertSameMetrics(expected, actual);
+	}
+
+	@Test
+	public void testExpectedAgreement()
+			throws Exception {
+		IncrementalConfusionMatrix cm = new IncrementalConfusionMatrix();
+
+		cm.increaseValue("poor", "poor", 2);
+		cm.increaseValue("poor", "fair", 12);
+		cm.increaseValue("poor", "good", 8);
+		cm.increaseValue("fair", "poor", 9);
+		cm.increaseValue("fair", "fair", 35);
+		cm.increaseValue("fair", "good", 43);
+		cm.increaseValue("fair", "excellent", 7);
+		cm.increaseValue("good", "poor", 4);
+		cm.increaseValue("good", "fair", 36);
+		cm.increaseValue("good", "good", 103);
+		cm.increaseValue("good", "excellent", 40);
+		cm.increaseValue("excellent", "poor", 1);
+		cm.increaseValue("excellent", "fair", 8);
+		cm.increaseValue("excellent", "good", 36);
+		cm.increaseValue("excellent", "excellent", 22);
+
+		// 22*16 + 94*91 + 183*190 + 67*69 over 366^2
+		assertEquals((352.0 + 8554.0 + 34770.0 + 4623.0) / (366.0 * 366.0),
+				cm.getExpectedAgreement(), 1e-12);
+	}
+}
@@ -0,0 +1,108 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class KappaWeightsTest {
+
+	private static final List<String> RATINGS = Arrays.asList("1", "2", "3", "4", "5");
+
+	/**
+	 * Textbook formula with the expected counts of each cell
+	 */
+	private static double naiveKappa(ConfusionMatrix cm, KappaWeights weights) {
+		double total = cm.getTotalSum();
+		double observed = 0;
+		double expected = 0;
+		for (int i = 0; i < weights.size(); i++) {
+			for (int j = 0; j < weights.size(); j++) {
+				String gold = weights.getLabels().get(i);
+				String predicted = weights.getLabels().get(j);
+				observed += weights.getWeight(i, j) * cm.getValue(gold, predicted);
+				expected += weights.getWeight(i, j) * cm.getRowSum(gold) * cm.getColSum(predicted)
+						/ total;
+			}
+		}
+
+		return 1 - observed / expected;
+	}
+
+	private static ConfusionMatrix ratings(long seed) {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		Random random = new Random(seed);
+		for (int i = 0; i < 500; i++) {
+			int gold = random.nextInt(5);
+			int predicted = Math.max(0, Math.min(4, gold + random.nextInt(3) - 1));
+			cm.increaseValue(RATINGS.get(gold), RATINGS.get(predicted));
+		}
+
+		return cm;
+	}
+
+	@Test
+	public void testWeights()
+			throws Exception {
+		KappaWeights linear = KappaWeights.linear(RATINGS);
+		assertSame(linear, KappaWeights.linear(Arrays.asList("1", "2", "3", "4", "5")));
+		assertSame(linear, KappaWeights.linear(LabelSpace.of(RATINGS)));
+		assertNotSame(linear, KappaWeights.quadratic(RATINGS));
+
+		assertEquals(0.5, linear.getWeight(1, 3), 0.0);
+		assertEquals(0.25, KappaWeights.quadratic(RATINGS).getWeight(3, 1), 0.0);
+		assertEquals(4, linear.indexOf("5"));
+		assertEquals(-1, linear.indexOf("6"));
+	}
+
+	@Test
+	public void testWeightedKappa()
+			throws Exception {
+		ConfusionMatrix cm = ratings(0);
+
+		KappaWeights linear = KappaWeights.linear(RATINGS);
+		KappaWeights quadratic = KappaWeights.quadratic(RATINGS);
+		assertEquals(naiveKappa(cm, linear), cm.getWeightedKappa(linear), 0.000001);
+		assertEquals(naiveKappa(cm, quadratic), cm.getWeightedKappa(quadratic), 0.000001);
+		assertTrue(cm.getWeightedKappa(quadratic) > cm.getWeightedKappa(linear));
+
+		// 0/1 weights give Cohen's Kappa
+		double[][] identity = new double[5][5];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				identity[i][j] = i == j ? 0 : 1;
+			}
+		}
+		assertEquals(cm.getCohensKappa(), cm.getWeightedKappa(KappaWeights.of(RATINGS, identity)),
+				0.000001);
+	}
+
+	@Test
+	public void testCache()
+			throws Exception {
+		ConfusionMatrix cm = ratings(1);
+		KappaWeights quadratic = KappaWeights.quadratic(RATINGS);
+
+		double before = cm.getWeightedKappa(quadratic);
+		assertEquals(before, cm.getWeightedKappa(quadratic), 0.0);
+
+		cm.increaseValue("1", "5", 20);
+		assertEquals(naiveKappa(cm, quadratic), cm.getWeightedKappa(quadratic), 0.000001);
+		assertTrue(cm.getWeightedKappa(quadratic) < before);
+
+		cm.increaseValue("6", "1");
+		try {
+			cm.getWeightedKappa(quadratic);
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class LabelSpaceTest {
+
+	@Test
+	public void testCanonical()
+			throws Exception {
+		LabelSpace a = LabelSpace.of("pos", "neg", "neu");
+		LabelSpace b = LabelSpace.of(Arrays.asList("neu", "pos", "neg", "pos"));
+
+		assertSame(a, b);
+		assertEquals(3, a.size());
+		assertEquals(0, a.indexOf("neg"));
+		assertEquals(-1, a.indexOf("other"));
+		assertEquals("neu", a.getLabel(1));
+		assertSame(a, a.union(LabelSpace.of("neg")));
+		assertEquals(LabelSpace.of("neg", "neu", "pos", "x"), a.union(LabelSpace.of("x")));
+	}
+
+	@Test
+	public void testLabels()
+			throws Exception {
+		LabelSpace space = LabelSpace.of("a", "b", "c", "d", "e");
+		SortedSet<String> labels = space.getLabels();
+
+		assertEquals(new TreeSet<>(Arrays.asList("a", "b", "c", "d", "e")), labels);
+		assertEquals("a", labels.first());
+		assertEquals("e", labels.last());
+		assertEquals(new TreeSet<>(Arrays.asList("b", "c")), labels.subSet("b", "d"));
+		assertEquals(new TreeSet<>(Arrays.asList("a", "b")), labels.headSet("bb"));
+		assertEquals(new TreeSet<>(Arrays.asList("d", "e")), labels.tailSet("d"));
+		assertTrue(labels.contains("c"));
+		assertFalse(labels.contains("f"));
+	}
+}
@@ -0,0 +1,134 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class MatrixExporterTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private ConfusionMatrix cm;
+
+	@Before
+	public void setUp() {
+		cm = new ConfusionMatrix();
+
+		cm.increaseValue("b", "b", 3);
+		cm.increaseValue("b", "a,x", 1);
+		cm.increaseValue("a,x", "a,x", 2);
+		cm.increaseValue("a,x", "b", 0);
+		cm.increaseValue("b", "\"c\"", 2);
+	}
+
+	@Test
+	public void testJson()
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cm.writeJson(out);
+		String json = new String(out.toByteArray(), UTF_8);
+
+		assertTrue(json, json.startsWith(
+				"{\"labels\":[\"a,x\",\"b\",\"\\\"c\\\"\"],\"goldCount\":2,"
+						+ "\"cells\":[[0,0,2],[1,0,1],[1,1,3],[1,2,2]],\"total\":8,\"correct\":5,"
+						+ "\"perLabel\":[{\"label\":\"a,x\",\"support\":2,\"precision\":"));
+		assertTrue(json, json.contains(
+				"{\"label\":\"b\",\"support\":6,\"precision\":1.0,\"recall\":0.5,"));
+		assertTrue(json, json.contains("\"metrics\":{\"accuracy\":0.625,"));
+		assertTrue(json, json.endsWith("}}"));
+
+		out.reset();
+		new ConfusionMatrix().writeJson(out);
+		assertTrue(new String(out.toByteArray(), UTF_8).contains("\"accuracy\":null"));
+	}
+
+	@Test
+	public void testCsv()
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cm.writeCsv(out);
+
+		assertEquals("gold,predicted,count\r\n" + "\"a,x\",\"a,x\",2\r\n" + "b,\"a,x\",1\r\n"
+				+ "b,b,3\r\n" + "b,\"\"\"c\"\"\",2\r\n", new String(out.toByteArray(), UTF_8));
+	}
+
+	@Test
+	public void testColumnar()
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cm.writeColumnar(out);
+		ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(0, buffer.limit() % 8);
+		assertEquals(MatrixExporter.COLUMNAR_MAGIC, buffer.getInt());
+		int n = buffer.getInt();
+		assertEquals(3, n);
+		assertEquals(2, buffer.getInt());
+		int m = buffer.getInt();
+		assertEquals(4, m);
+		int labelBytes = buffer.getInt();
+		buffer.getInt();
+
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i <= n; i++) {
+			offsets[i] = buffer.getInt();
+		}
+		align(buffer);
+		byte[] bytes = new byte[labelBytes];
+		buffer.get(bytes);
+		assertEquals("\"c\"", new String(bytes, offsets[2], offsets[3] - offsets[2], UTF_8));
+		align(buffer);
+
+		int[][] columns = new int[3][m];
+		for (int[] column : columns) {
+			for (int i = 0; i < m; i++) {
+				column[i] = buffer.getInt();
+			}
+			align(buffer);
+		}
+		assertArrayEquals(new int[] { 0, 1, 1, 1 }, columns[0]);
+		assertArrayEquals(new int[] { 0, 0, 1, 2 }, columns[1]);
+		assertArrayEquals(new int[] { 2, 1, 3, 2 }, columns[2]);
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testLargeColumnar()
+			throws Exception {
+		DenseConfusionMatrix dense = new DenseConfusionMatrix(LabelSpace.of(labels(200)));
+		for (int g = 0; g < 200; g++) {
+			for (int p = 0; p < 200; p++) {
+				dense.increaseValue(g, p, g + p + 1);
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		dense.writeColumnar(out);
+		ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+		// 40000 cells need no padding, the file ends with the count of (199, 199)
+		assertEquals(399, buffer.getInt(buffer.limit() - 4));
+		assertEquals(40000, buffer.getInt(12));
+	}
+
+	private static String[] labels(int n) {
+		String[] result = new String[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = String.format("l%03d", i);
+		}
+		return result;
+	}
+
+	private static void align(ByteBuffer buffer) {
+		buffer.position((buffer.position() + 7) & ~7);
+	}
+}
@@ -0,0 +1,209 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class MatrixReducerTest {
+
+	private static ConfusionMatrix randomMatrix(long seed) {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		Random random = new Random(seed);
+
+		// partly overlapping label sets
+		int offset = random.nextInt(5);
+		for (int i = 0; i < 1000; i++) {
+			String gold = "l" + (offset + random.nextInt(20));
+			cm.increaseValue(gold, random.nextBoolean() ? gold : "l" + random.nextInt(30),
+					1 + random.nextInt(1000));
+		}
+
+		return cm;
+	}
+
+	@Test
+	public void testSockets()
+			throws Exception {
+		final int workers = 4;
+		final int partialsPerWorker = 3;
+		final List<ConfusionMatrix> all = new ArrayList<>();
+		for (int i = 0; i < workers * partialsPerWorker; i++) {
+			all.add(randomMatrix(i));
+		}
+
+		final MatrixReducer reducer = new MatrixReducer();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		try (final ServerSocket server = new ServerSocket(0, workers,
+				InetAddress.getLoopbackAddress())) {
+			List<Thread> threads = new ArrayList<>();
+
+			// workers send several partials over one connection each
+			for (int w = 0; w < workers; w++) {
+				final int worker = w;
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+								server.getLocalPort())) {
+							OutputStream out = socket.getOutputStream();
+							for (int p = 0; p < partialsPerWorker; p++) {
+								all.get(worker * partialsPerWorker + p).writePartial(out);
+							}
+						}
+						catch (Throwable e) {
+							failure.set(e);
+						}
+					}
+				});
+			}
+
+			// coordinator reads each connection in its own thread
+			for (int w = 0; w < workers; w++) {
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						try (Socket socket = server.accept()) {
+							assertEquals(partialsPerWorker,
+									reducer.addAll(socket.getInputStream()));
+						}
+						catch (Throwable e) {
+							failure.set(e);
+						}
+					}
+				});
+			}
+
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		assertNull(failure.get());
+		assertEquals(workers * partialsPerWorker, reducer.getPartialCount());
+
+		ConfusionMatrix expected = ConfusionMatrix
+				.createCumulativeMatrix(all.toArray(new ConfusionMatrix[all.size()]));
+		ConfusionMatrix result = reducer.getResult();
+		assertEquals(expected.toString(), result.toString());
+		assertEquals(expected.getMacroFMeasure(), result.getMacroFMeasure(), 0.0);
+	}
+
+	@Test
+	public void testPipe()
+			throws Exception {
+		final PipedOutputStream out = new PipedOutputStream();
+		PipedInputStream in = new PipedInputStream(out);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		// labels without cells are kept
+		final ConfusionMatrix partial = new ConfusionMatrix();
+		partial.increaseValue("a", "b", 3);
+		partial.increaseValue("c", "a", 0);
+
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				try {
+					partial.writePartial(out);
+					randomMatrix(1).writePartial(out);
+					out.close();
+				}
+				catch (Throwable e) {
+					failure.set(e);
+				}
+			}
+		};
+		worker.start();
+
+		MatrixReducer reducer = new MatrixReducer();
+		reducer.add(in);
+		ConfusionMatrix first = reducer.getResult();
+		reducer.add(in);
+		worker.join();
+
+		assertNull(failure.get());
+		assertEquals(partial.getGoldLabels(), first.getGoldLabels());
+		assertEquals(partial.getPredictedLabels(), first.getPredictedLabels());
+		assertEquals(3, first.getValue("a", "b"));
+		assertEquals(2, reducer.getPartialCount());
+		assertEquals(partial.getTotalSum() + randomMatrix(1).getTotalSum(),
+				reducer.getResult().getTotalSum());
+	}
+
+	@Test
+	public void testSize()
+			throws Exception {
+		ConfusionMatrix cm = randomMatrix(1);
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		cm.writePartial(binary);
+
+		// much smaller than the text format
+		assertTrue(binary.size() * 3 < cm.toString().length());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAPartial()
+			throws Exception {
+		new MatrixReducer().add(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}));
+	}
+
+	@Test
+	public void testGoldLabelWithoutCells()
+			throws Exception {
+		ConfusionMatrix cm = new ConfusionMatrix();
+		cm.increaseValue("a", "b", 2);
+		cm.increaseValue("b", "b", 3);
+		cm.increaseValue("c", "c", 1);
+
+		// gold label a has only dropped cells
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		cm.restrictView(new HashSet<>(Arrays.asList("a", "c"))).writePartial(binary);
+
+		MatrixReducer reducer = new MatrixReducer();
+		reducer.add(new ByteArrayInputStream(binary.toByteArray()));
+		ConfusionMatrix result = reducer.getResult();
+
+		assertEquals(0, result.getRowSum("a"));
+		assertEquals(1.0, result.getMicroFMeasure(), 0.0001);
+		assertEquals(1.0, result.getAccuracy(), 0.0001);
+		result.getCohensKappa();
+	}
+
+	@Test(expected = IOException.class)
+	public void testNegativeDelta()
+			throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MatrixReducer.MAGIC);
+		out.writeByte(1);
+		out.writeUTF("a");
+		out.writeByte(3);
+		out.writeByte(1);
+
+		// row delta -1 as a 5-byte varint
+		out.write(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 0, 1 });
+
+		new MatrixReducer().add(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+}
@@ -0,0 +1,153 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class OffHeapConfusionMatrixTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSameResultsAsHeap()
+			throws Exception {
+		ConfusionMatrix heap = new ConfusionMatrix();
+		Random random = new Random(0);
+		for (int i = 0; i < 1000; i++) {
+			String gold = "l" + random.nextInt(15);
+			heap.increaseValue(gold, random.nextBoolean() ? gold : "l" + random.nextInt(20));
+		}
+
+		try (OffHeapConfusionMatrix offHeap = new OffHeapConfusionMatrix(LabelSpace.of(heap))) {
+			for (String gold : heap.getGoldLabels()) {
+				for (String predicted : heap.getPredictedLabels()) {
+					offHeap.increaseValue(gold, predicted, heap.getValue(gold, predicted));
+				}
+			}
+
+			assertEquals(heap.getGoldLabels(), offHeap.getGoldLabels());
+			assertEquals(heap.getPredictedLabels(), offHeap.getPredictedLabels());
+			assertEquals(heap.getTotalSum(), offHeap.getTotalSum());
+			assertEquals(heap.getCorrectSum(), offHeap.getCorrectSum());
+			assertEquals(heap.getRowSum("l3"), offHeap.getRowSum("l3"));
+			assertEquals(heap.getColSum("l17"), offHeap.getColSum("l17"));
+			assertEquals(heap.getMacroFMeasure(), offHeap.getMacroFMeasure(), 0.0);
+			assertEquals(heap.getCohensKappa(), offHeap.getCohensKappa(), 0.0);
+			assertEquals(heap.toString(), offHeap.toString());
+			assertEquals(4L * 20 * 20 + 12 + 12 * 20, offHeap.getStorageBytes());
+		}
+	}
+
+	@Test
+	public void testMappedFile()
+			throws Exception {
+		Path file = folder.getRoot().toPath().resolve("matrix.bin");
+		LabelSpace labels = LabelSpace.of("a", "b", "c");
+
+		try (OffHeapConfusionMatrix writer = OffHeapConfusionMatrix.map(file, labels)) {
+			writer.increaseValue("a", "b", 2);
+			writer.increaseValue("c", "c");
+
+			// another reader sees the updates
+			try (OffHeapConfusionMatrix reader = OffHeapConfusionMatrix.open(file, true)) {
+				assertEquals(3, reader.getTotalSum());
+				assertEquals(labels.getLabels(), reader.getLabelSpace().getLabels());
+
+				writer.increaseValue("b", "a", 5);
+				assertEquals(5, reader.getValue("b", "a"));
+				assertTrue(reader.getGoldLabels().contains("b"));
+
+				try {
+					reader.increaseValue("a", "a", 1);
+					fail();
+				}
+				catch (UnsupportedOperationException e) {
+					// expected
+				}
+			}
+		}
+
+		// survives closing
+		try (OffHeapConfusionMatrix reopened = OffHeapConfusionMatrix.map(file, labels)) {
+			assertEquals(8, reopened.getTotalSum());
+			assertEquals(1, reopened.getCorrectSum());
+			assertEquals(2, reopened.getValue("a", "b"));
+			reopened.increaseValue("a", "a", 1);
+		}
+
+		try (OffHeapConfusionMatrix reopened = OffHeapConfusionMatrix.open(file, false)) {
+			assertEquals(9, reopened.getTotalSum());
+		}
+
+		try {
+			OffHeapConfusionMatrix.map(file, LabelSpace.of("a", "b"));
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSingleWriter()
+			throws Exception {
+		Path file = folder.getRoot().toPath().resolve("locked.bin");
+		LabelSpace labels = LabelSpace.of("a", "b");
+
+		try (OffHeapConfusionMatrix writer = OffHeapConfusionMatrix.map(file, labels)) {
+			writer.increaseValue("a", "b");
+
+			try {
+				OffHeapConfusionMatrix.open(file, false);
+				fail();
+			}
+			catch (IOException e) {
+				// expected
+			}
+			try {
+				OffHeapConfusionMatrix.map(file, labels);
+				fail();
+			}
+			catch (IOException e) {
+				// expected
+			}
+
+			try (OffHeapConfusionMatrix reader = OffHeapConfusionMatrix.open(file, true)) {
+				assertEquals(1, reader.getTotalSum());
+			}
+		}
+
+		// released by close
+		try (OffHeapConfusionMatrix writer = OffHeapConfusionMatrix.open(file, false)) {
+			assertEquals(1, writer.getTotalSum());
+		}
+	}
+
+	@Test
+	public void testClose()
+			throws Exception {
+		OffHeapConfusionMatrix matrix = new OffHeapConfusionMatrix(LabelSpace.of("a", "b"));
+		matrix.increaseValue("a", "b");
+		matrix.close();
+		matrix.close();
+
+		assertTrue(matrix.isClosed());
+		try {
+			matrix.getValue("a", "b");
+			fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
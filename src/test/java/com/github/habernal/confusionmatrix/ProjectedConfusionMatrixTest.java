@@ -0,0 +1,125 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ivan Habernal
+ */
+public class ProjectedConfusionMatrixTest {
+
+	private ConfusionMatrix cm;
+
+	private Map<String, String> mapping;
+
+	@Before
+	public void setUp() {
+		cm = new ConfusionMatrix();
+
+		cm.increaseValue("very_neg", "very_neg", 4);
+		cm.increaseValue("very_neg", "neg", 3);
+		cm.increaseValue("neg", "very_neg", 2);
+		cm.increaseValue("neg", "neg", 10);
+		cm.increaseValue("neg", "pos", 1);
+		cm.increaseValue("pos", "neg", 2);
+		cm.increaseValue("pos", "pos", 12);
+		cm.increaseValue("pos", "neu", 1);
+
+		mapping = new HashMap<>();
+		mapping.put("neg", "negative");
+		mapping.put("very_neg", "negative");
+	}
+
+	@Test
+	public void testProject()
+			throws Exception {
+		ConfusionMatrix projected = cm.project(mapping);
+
+		ConfusionMatrix expected = new ConfusionMatrix();
+		expected.increaseValue("negative", "negative", 19);
+		expected.increaseValue("negative", "pos", 1);
+		expected.increaseValue("pos", "negative", 2);
+		expected.increaseValue("pos", "pos", 12);
+		expected.increaseValue("pos", "neu", 1);
+
+		assertEquals(expected.toString(), projected.toString());
+		assertEquals(expected.getMacroFMeasure(), projected.getMacroFMeasure(), 0.0001);
+		assertEquals(expected.getCohensKappa(), projected.getCohensKappa(), 0.0001);
+		assertTrue(projected.getLabelSeries().isEmpty());
+	}
+
+	@Test
+	public void testProjectView()
+			throws Exception {
+		ConfusionMatrix view = cm.projectView(mapping);
+		ConfusionMatrix projected = cm.project(mapping);
+
+		assertEquals(projected.toString(), view.toString());
+		assertEquals(projected.getAccuracy(), view.getAccuracy(), 0.0001);
+		assertEquals(projected.getMicroFMeasure(), view.getMicroFMeasure(), 0.0001);
+		assertEquals(projected.getCohensKappa(), view.getCohensKappa(), 0.0001);
+		assertEquals(20, view.getRowSum("negative"));
+		assertEquals(21, view.getColSum("negative"));
+
+		// the view reflects updates of the source matrix
+		cm.increaseValue("very_neg", "pos", 5);
+		assertEquals(25, view.getRowSum("negative"));
+		assertEquals(cm.getTotalSum(), view.getTotalSum());
+	}
+
+	@Test
+	public void testRestrictTo()
+			throws Exception {
+		ConfusionMatrix restricted = cm.restrictTo(new HashSet<>(Arrays.asList("neg", "pos")));
+
+		ConfusionMatrix expected = new ConfusionMatrix();
+		expected.increaseValue("neg", "neg", 10);
+		expected.increaseValue("neg", "pos", 1);
+		expected.increaseValue("pos", "neg", 2);
+		expected.increaseValue("pos", "pos", 12);
+
+		assertEquals(expected.toString(), restricted.toString());
+		assertEquals(25, restricted.getTotalSum());
+		assertEquals(22, restricted.getCorrectSum());
+		assertEquals(expected.getMacroFMeasure(), restricted.getMacroFMeasure(), 0.0001);
+
+		ConfusionMatrix view = cm.restrictView(new HashSet<>(Arrays.asList("neg", "pos")));
+		assertEquals(expected.toString(), view.toString());
+		assertEquals(11, view.getRowSum("neg"));
+		assertEquals(12, view.getColSum("neg"));
+		assertEquals(expected.getCohensKappa(), view.getCohensKappa(), 0.0001);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewIsReadOnly()
+			throws Exception {
+		cm.projectView(mapping).increaseValue("neg", "neg");
+	}
+
+	@Test
+	public void testRestrictViewSumsFollowSource()
+			throws Exception {
+		ConfusionMatrix view = cm.restrictView(new HashSet<>(Arrays.asList("neg", "pos")));
+
+		assertEquals(11, view.getRowSum("neg"));
+		assertEquals(12, view.getColSum("neg"));
+		assertEquals(25, view.getTotalSum());
+		assertEquals(0, view.getRowSum("very_neg"));
+
+		cm.increaseValue("neg", "pos", 5);
+		cm.increaseValue("very_neg", "pos", 7);
+
+		assertEquals(16, view.getRowSum("neg"));
+		assertEquals(18, view.getColSum("pos"));
+		assertEquals(30, view.getTotalSum());
+		assertEquals(22, view.getCorrectSum());
+	}
+}
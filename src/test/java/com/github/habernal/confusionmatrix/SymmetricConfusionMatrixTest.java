@@ -0,0 +1,74 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class SymmetricConfusionMatrixTest {
+
+	private ConfusionMatrix cm;
+
+	@Before
+	public void setUp() {
+		cm = ConfusionMatrix.parseFromText(
+				"1 1.a 2 4 5\n1 29 2 0 0 0\n1.a 1 0 0 0 0\n2 0 0 12 0 0\n4 0 0 0 1 1\n5 0 0 0 0 4");
+		cm.increaseValue("4", "6", 2);
+	}
+
+	/**
+	 * C + C^T - InC by summing up the three matrices
+	 */
+	private ConfusionMatrix expected() {
+		return ConfusionMatrix
+				.createCumulativeMatrix(cm, cm.getTransposedMatrix(), cm.getNegativeUnitMatrix());
+	}
+
+	@Test
+	public void testSymmetricMatrix()
+			throws Exception {
+		ConfusionMatrix s = cm.getSymmetricConfusionMatrix();
+
+		assertEquals(expected().map, s.map);
+		assertEquals(expected().toString(), s.toString());
+		assertEquals(expected().getTotalSum(), s.getTotalSum());
+		assertEquals(expected().getLabelSeries(), s.getLabelSeries());
+	}
+
+	@Test
+	public void testSymmetricView()
+			throws Exception {
+		ConfusionMatrix view = cm.symmetricView();
+		ConfusionMatrix expected = expected();
+
+		assertEquals(expected.toString(), view.toString());
+		assertEquals(expected.getTotalSum(), view.getTotalSum());
+		assertEquals(expected.getCorrectSum(), view.getCorrectSum());
+		assertEquals(3, view.getValue("1", "1.a"));
+		assertEquals(3, view.getValue("1.a", "1"));
+		assertEquals(29, view.getValue("1", "1"));
+		assertEquals(view.getGoldLabels(), view.getPredictedLabels());
+
+		for (String label : view.getGoldLabels()) {
+			assertEquals(expected.getRowSum(label), view.getRowSum(label));
+			assertEquals(expected.getColSum(label), view.getColSum(label));
+		}
+
+		assertEquals(expected.getCohensKappa(), view.getCohensKappa(), 0.0001);
+		assertEquals(expected.getMacroFMeasure(), view.getMacroFMeasure(), 0.0001);
+	}
+
+	@Test
+	public void testViewReflectsUpdates()
+			throws Exception {
+		ConfusionMatrix view = cm.symmetricView();
+
+		cm.increaseValue("6", "4", 1);
+
+		assertEquals(3, view.getValue("6", "4"));
+		assertEquals(expected().toString(), view.toString());
+	}
+}
@@ -0,0 +1,82 @@
+package com.github.habernal.confusionmatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Ivan Habernal
+ */
+public class TransposedConfusionMatrixTest {
+
+	private ConfusionMatrix cm;
+
+	@Before
+	public void setUp() {
+		cm = new ConfusionMatrix();
+
+		cm.increaseValue("a", "a", 5);
+		cm.increaseValue("a", "b", 2);
+		cm.increaseValue("b", "a", 1);
+		cm.increaseValue("b", "c", 3);
+		cm.increaseValue("c", "c", 4);
+	}
+
+	@Test
+	public void testTransposedView()
+			throws Exception {
+		ConfusionMatrix view = cm.transposedView();
+
+		assertEquals(2, view.getValue("b", "a"));
+		assertEquals(3, view.getValue("c", "b"));
+		assertEquals(0, view.getValue("b", "c"));
+		assertEquals(cm.getColSum("a"), view.getRowSum("a"));
+		assertEquals(cm.getRowSum("b"), view.getColSum("b"));
+		assertEquals(0, view.getColSum("x"));
+		assertEquals(cm.getPredictedLabels(), view.getGoldLabels());
+		assertEquals(cm.getGoldLabels(), view.getPredictedLabels());
+		assertEquals(cm.getTransposedMatrix().toString(), view.toString());
+		assertEquals(cm.getAccuracy(), view.getAccuracy(), 0.0001);
+
+		// precision and recall are switched
+		assertEquals(cm.getPrecisionForLabel("b"), view.getRecallForLabel("b"), 0.0001);
+		assertEquals(cm.getRecallForLabel("c"), view.getPrecisionForLabel("c"), 0.0001);
+	}
+
+	@Test
+	public void testViewReflectsUpdates()
+			throws Exception {
+		ConfusionMatrix view = cm.transposedView();
+
+		cm.increaseValue("c", "d", 6);
+
+		assertEquals(6, view.getValue("d", "c"));
+		assertTrue(view.getGoldLabels().contains("d"));
+		assertEquals(cm.getTotalSum(), view.getTotalSum());
+	}
+
+	@Test
+	public void testTransposedMatrixLabelSeries()
+			throws Exception {
+		ConfusionMatrix t = cm.getTransposedMatrix();
+
+		// the gold labels of all instances, as when filled by increaseValue(predicted, gold)
+		ConfusionMatrix expected = new ConfusionMatrix();
+		for (String gold : cm.getGoldLabels()) {
+			for (String predicted : cm.getPredictedLabels()) {
+				expected.increaseValue(predicted, gold, cm.getValue(gold, predicted));
+			}
+		}
+
+		assertEquals(2, t.getValue("b", "a"));
+		assertEquals(expected.getLabelSeries(), t.getLabelSeries());
+		assertEquals(cm.toString(), t.getTransposedMatrix().toString());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewIsReadOnly()
+			throws Exception {
+		cm.transposedView().increaseValue("a", "a");
+	}
+}